@@ -1,8 +1,10 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PaxHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -167,6 +169,13 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format <tt>name (field type [pk], ...) [mmap] [compressed|pax]</tt>;
+     * a table marked mmap is read through a memory mapping of its file,
+     * which suits large read-mostly tables. A table marked compressed is a
+     * read-only {@link CompressedHeapFile}, whose file is written by
+     * {@link simpledb.storage.HeapFileEncoder#convertCompressed}. A table
+     * marked pax is a {@link PaxHeapFile} with columnar pages, written by
+     * {@link simpledb.storage.HeapFileEncoder#convertColumnar}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -180,6 +189,22 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                boolean mmap = false;
+                boolean compressed = false;
+                boolean pax = false;
+                for (String option : options.split("\\s+")) {
+                    if (option.equalsIgnoreCase("mmap"))
+                        mmap = true;
+                    else if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (option.equalsIgnoreCase("pax"))
+                        pax = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
@@ -191,6 +216,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varstring"))
+                        types.add(Type.VARSTRING_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -207,7 +234,18 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                if (compressed && pax) {
+                    System.out.println("Table " + name + " cannot be both compressed and pax");
+                    System.exit(0);
+                }
+                HeapFile tabHf;
+                if (compressed)
+                    tabHf = new CompressedHeapFile(dataFile, t, mmap);
+                else if (pax)
+                    tabHf = new PaxHeapFile(dataFile, t, mmap);
+                else
+                    tabHf = new HeapFile(dataFile, t, mmap);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
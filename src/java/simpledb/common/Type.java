@@ -6,6 +6,8 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +30,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +57,76 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            int start = buf.position();
+            try {
+                int strLen = buf.getInt();
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (RuntimeException e) {
+                // BufferUnderflowException, or a bad length
+                throw new ParseException("couldn't parse", start);
+            }
+        }
+    }, VARSTRING_TYPE() {
+        // 定长格式与 STRING_TYPE 相同; 分槽页中只存长度和字符串本身
+        @Override
+        public int getLen() {
+            return STRING_TYPE.getLen();
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return STRING_TYPE.parse(dis);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            return STRING_TYPE.parse(buf);
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public int getMinLen() {
+            return 4;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN)
+                s = s.substring(0, STRING_LEN);
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public Field read(ByteBuffer buf) throws ParseException {
+            int start = buf.position();
+            try {
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, start);
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", start);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +145,59 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at its position. The position
+   *   is advanced by {@link #getLen()} bytes.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+  /**
+   * @return true if fields of this type take as many bytes as their value
+   *   needs in a slotted HeapPage, rather than {@link #getLen()} bytes.
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
+  /**
+   * @return the smallest number of bytes {@link #write} takes for a field
+   *   of this type
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes {@link #write} takes for f
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Write f in the format of a slotted HeapPage. Fields of a fixed-length
+   * type are written as by f.serialize.
+   * @param f The field to write
+   * @param dos Where the field is written
+   */
+    public void write(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * @return a field written by {@link #write}, read from the specified
+   *   buffer, starting at its position. The position is advanced past the
+   *   field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public Field read(ByteBuffer buf) throws ParseException {
+        return parse(buf);
+    }
+
 }
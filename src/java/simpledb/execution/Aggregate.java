@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
@@ -16,8 +17,11 @@ import java.util.NoSuchElementException;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * If the child can be read a batch at a time, the aggregate consumes it in
+ * batches. The results can be read a tuple or a batch at a time.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private Aggregator.Op aggOp;
@@ -27,6 +31,7 @@ public class Aggregate extends Operator {
     private TupleDesc td;
     private Aggregator aggregator;
     private OpIterator adjIterator;
+    transient private TupleBatch out;
     /**
      * Constructor.
      * <p>
@@ -46,7 +51,8 @@ public class Aggregate extends Operator {
         this.aggregateFieldIndex = afield;
         this.groupByFieldIndex = gfield;
         Type gFieldType = groupByFieldIndex == -1 ? null : this.child.getTupleDesc().getFieldType(gfield);
-        if(this.child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE) {
+        Type aFieldType = this.child.getTupleDesc().getFieldType(afield);
+        if(aFieldType == Type.STRING_TYPE || aFieldType == Type.VARSTRING_TYPE) {
             this.aggregator = new StringAggregator(gfield, gFieldType, afield, aop);
         }
         else
@@ -111,9 +117,16 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         child.open();
-        while(child.hasNext()) {
-            Tuple nowTuple = child.next();
-            aggregator.mergeTupleIntoGroup(nowTuple);
+        if(child instanceof BatchOpIterator) {
+            TupleBatch batch;
+            while((batch = ((BatchOpIterator) child).nextBatch()) != null)
+                aggregator.mergeBatchIntoGroups(batch);
+        }
+        else {
+            while(child.hasNext()) {
+                Tuple nowTuple = child.next();
+                aggregator.mergeTupleIntoGroup(nowTuple);
+            }
         }
         this.adjIterator = aggregator.iterator();
         adjIterator.open();
@@ -133,6 +146,15 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if(out == null)
+            out = new TupleBatch(td, TupleBatch.DEFAULT_SIZE);
+        out.clear();
+        while(!out.isFull() && adjIterator.hasNext())
+            out.addTuple(adjIterator.next());
+        return out.isEmpty() ? null : out;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         child.rewind();
         adjIterator.rewind();
@@ -1,6 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -70,6 +72,16 @@ public interface Aggregator extends Serializable {
         }
     }
 
+    /**
+     * @return true if a field of type fieldType can be a group of a
+     *         group-by field of type gbFieldType; the values of a
+     *         VARSTRING_TYPE field are StringFields of STRING_TYPE
+     */
+    static boolean isGroupType(Type fieldType, Type gbFieldType) {
+        return fieldType == gbFieldType
+                || (fieldType == Type.STRING_TYPE && gbFieldType == Type.VARSTRING_TYPE);
+    }
+
     /**
      * Merge a new tuple into the aggregate for a distinct group value;
      * creates a new group aggregate result if the group value has not yet
@@ -79,6 +91,17 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every row of a batch into the aggregate. The default
+     * implementation merges the rows one Tuple at a time.
+     *
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    default void mergeBatchIntoGroups(TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++)
+            mergeTupleIntoGroup(batch.getTuple(i));
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
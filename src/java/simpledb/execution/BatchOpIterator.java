@@ -0,0 +1,34 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is the batch-at-a-time variant of OpIterator. Instead of
+ * one Tuple per call, nextBatch() returns up to a few thousand rows stored
+ * column by column in a {@link TupleBatch}, so an operator pays for one call
+ * per batch and can work on the column arrays in a tight loop.
+ * <p>
+ * A BatchOpIterator is still an OpIterator: open, close, rewind and
+ * getTupleDesc work as usual. After open, a consumer should read either with
+ * next()/hasNext() or with nextBatch(), not with both.
+ * <p>
+ * Batch operators read their children through {@link RowBatchAdapter#of},
+ * which returns children that support nextBatch() as they are and packs the
+ * rows of any other child into batches, so row and batch operators can be
+ * mixed in one plan. {@link BatchRowAdapter} goes the other way, and lets a row
+ * operator read the output of a batch pipeline.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of rows. The returned batch, and its column
+     * arrays, may be reused by the next call, so a consumer that keeps rows
+     * must copy them.
+     *
+     * @return the next non-empty batch, or null if there are no more rows.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,71 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchRowAdapter lets a row operator read the output of a batch operator:
+ * it pulls batches from its child with nextBatch() and returns their rows one
+ * Tuple at a time. Putting it on top of a pipeline of batch operators makes
+ * the whole pipeline run a batch at a time.
+ *
+ * @see RowBatchAdapter
+ */
+public class BatchRowAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchOpIterator child;
+    transient private TupleBatch batch;
+    transient private int row;
+
+    /**
+     * @param child the batch operator to read from
+     */
+    public BatchRowAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || row == batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(row++);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = RowBatchAdapter.of(children[0]);
+    }
+}
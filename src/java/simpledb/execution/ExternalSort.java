@@ -0,0 +1,311 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts the tuples of an iterator within a fixed memory budget.
+ * Tuples are collected in memory until the budget is used up; each full
+ * buffer is sorted and written to a temporary file as a sorted run. The
+ * sorted output is a k-way merge of the runs, driven by a heap of run
+ * cursors. If there are more than {@link #MAX_FAN_IN} runs, groups of runs
+ * are first merged into longer runs. Input that fits in the budget is sorted
+ * in memory and never touches disk. Ties keep their input order.
+ * <p>
+ * With a limit, only the first limit tuples of the order are wanted; if they
+ * fit in the budget they are collected in a bounded heap instead of sorting
+ * the whole input.
+ * <p>
+ * Run files hold the field values only, so tuples read back from a run have
+ * no RecordId.
+ */
+public class ExternalSort {
+
+    /** The maximum number of runs merged at once. */
+    public static final int MAX_FAN_IN = 64;
+
+    // rough per-tuple cost of the Tuple and Field objects, on top of the data
+    private static final int TUPLE_OVERHEAD = 64;
+    private static final int FIELD_OVERHEAD = 16;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int maxInMemory;
+    private final int limit;
+
+    private final List<SpillFile> runs = new ArrayList<>();
+    private List<Tuple> memoryRun = new ArrayList<>();
+    private PriorityQueue<Cursor> heap;
+    private List<Cursor> cursors = new ArrayList<>();
+    private int returned;
+
+    /**
+     * @param td the schema of the tuples to sort
+     * @param comparator the sort order
+     * @param memoryBudget the number of bytes of tuples to keep in memory
+     * @param limit the number of tuples wanted, or 0 for all of them
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, long memoryBudget, int limit) {
+        this.td = td;
+        this.comparator = comparator;
+        long tupleBytes = td.getSize() + TUPLE_OVERHEAD + (long) FIELD_OVERHEAD * td.numFields();
+        this.maxInMemory = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / tupleBytes));
+        this.limit = limit;
+    }
+
+    /**
+     * Read and sort all remaining tuples of an open iterator, then start the
+     * sorted output.
+     */
+    public void sort(OpIterator child) throws DbException, TransactionAbortedException {
+        close();
+        try {
+            if (limit > 0 && limit <= maxInMemory)
+                topN(child);
+            else
+                sortRuns(child);
+            while (runs.size() > MAX_FAN_IN)
+                mergePass();
+        } catch (IOException e) {
+            close();
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+        rewind();
+    }
+
+    /**
+     * Keep the first limit tuples of the order in a bounded max-heap. Equal
+     * tuples are ordered by their position in the input, so the earlier
+     * ones are kept and come first.
+     */
+    private void topN(OpIterator child) throws DbException, TransactionAbortedException {
+        Comparator<Ranked> order = Comparator.<Ranked, Tuple>comparing(r -> r.tuple, comparator)
+                .thenComparingLong(r -> r.seq);
+        PriorityQueue<Ranked> top = new PriorityQueue<>(limit, order.reversed());
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (top.size() < limit) {
+                top.add(new Ranked(t, seq));
+            } else if (comparator.compare(t, top.peek().tuple) < 0) {
+                // 与堆顶相等的元组排在它之后, 不用换
+                top.poll();
+                top.add(new Ranked(t, seq));
+            }
+            seq++;
+        }
+        List<Ranked> sorted = new ArrayList<>(top);
+        sorted.sort(order);
+        memoryRun = new ArrayList<>(sorted.size());
+        for (Ranked r : sorted)
+            memoryRun.add(r.tuple);
+    }
+
+    private void sortRuns(OpIterator child) throws DbException, TransactionAbortedException, IOException {
+        while (child.hasNext()) {
+            memoryRun.add(child.next());
+            if (memoryRun.size() == maxInMemory) {
+                memoryRun.sort(comparator);
+                runs.add(writeRun(new ListCursor(memoryRun, 0)));
+                memoryRun = new ArrayList<>();
+            }
+        }
+        // 最后一段留在内存里, 不用写盘
+        memoryRun.sort(comparator);
+    }
+
+    /** Merge consecutive groups of MAX_FAN_IN runs into single runs. */
+    private void mergePass() throws IOException {
+        List<SpillFile> merged = new ArrayList<>();
+        for (int start = 0; start < runs.size(); start += MAX_FAN_IN) {
+            List<SpillFile> group = runs.subList(start, Math.min(runs.size(), start + MAX_FAN_IN));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            List<Cursor> groupCursors = new ArrayList<>();
+            try {
+                for (int i = 0; i < group.size(); i++)
+                    groupCursors.add(new RunCursor(group.get(i), i));
+                merged.add(writeRun(new MergeCursor(groupCursors)));
+            } finally {
+                for (Cursor c : groupCursors)
+                    c.close();
+            }
+            for (SpillFile r : group)
+                r.delete();
+        }
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    private SpillFile writeRun(Cursor source) throws IOException {
+        SpillFile run = new SpillFile(td);
+        try {
+            for (Tuple t = source.read(); t != null; t = source.read())
+                run.add(t);
+            run.finish();
+        } catch (IOException e) {
+            run.delete();
+            throw e;
+        }
+        return run;
+    }
+
+    /** Start the sorted output again from the first tuple. */
+    public void rewind() throws DbException {
+        closeCursors();
+        try {
+            for (int i = 0; i < runs.size(); i++)
+                cursors.add(new RunCursor(runs.get(i), i));
+        } catch (IOException e) {
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+        // the memory run holds the last tuples of the input
+        cursors.add(new ListCursor(memoryRun, runs.size()));
+        heap = new PriorityQueue<>(Math.max(1, cursors.size()), this::compareHeads);
+        try {
+            for (Cursor c : cursors) {
+                if (c.advance())
+                    heap.add(c);
+            }
+        } catch (IOException e) {
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+        returned = 0;
+    }
+
+    /**
+     * @return the next tuple in the order, or null if there are no more
+     */
+    public Tuple next() throws DbException {
+        if (heap == null || heap.isEmpty() || (limit > 0 && returned == limit))
+            return null;
+        Cursor c = heap.poll();
+        Tuple t = c.head;
+        try {
+            if (c.advance())
+                heap.add(c);
+        } catch (IOException e) {
+            throw new DbException("external sort failed: " + e.getMessage());
+        }
+        returned++;
+        return t;
+    }
+
+    /** @return the number of runs written to disk */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /** Close the output and delete the run files. */
+    public void close() {
+        closeCursors();
+        heap = null;
+        for (SpillFile r : runs)
+            r.delete();
+        runs.clear();
+        memoryRun = new ArrayList<>();
+    }
+
+    private void closeCursors() {
+        for (Cursor c : cursors)
+            c.close();
+        cursors = new ArrayList<>();
+    }
+
+    private int compareHeads(Cursor a, Cursor b) {
+        int c = comparator.compare(a.head, b.head);
+        return c != 0 ? c : Integer.compare(a.order, b.order);
+    }
+
+    /** A tuple of the top-N heap and its position in the input. */
+    private static class Ranked {
+        final Tuple tuple;
+        final long seq;
+
+        Ranked(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /** A sorted sequence of tuples; order breaks ties between cursors. */
+    private abstract static class Cursor {
+        final int order;
+        Tuple head;
+
+        Cursor(int order) {
+            this.order = order;
+        }
+
+        /** @return the next tuple, or null at the end */
+        abstract Tuple read() throws IOException;
+
+        boolean advance() throws IOException {
+            head = read();
+            return head != null;
+        }
+
+        void close() {
+        }
+    }
+
+    private static class ListCursor extends Cursor {
+        private final Iterator<Tuple> it;
+
+        ListCursor(List<Tuple> tuples, int order) {
+            super(order);
+            it = tuples.iterator();
+        }
+
+        Tuple read() {
+            return it.hasNext() ? it.next() : null;
+        }
+    }
+
+    private static class RunCursor extends Cursor {
+        private final SpillFile.Reader reader;
+
+        RunCursor(SpillFile run, int order) throws IOException {
+            super(order);
+            reader = run.reader();
+        }
+
+        Tuple read() throws IOException {
+            return reader.next();
+        }
+
+        void close() {
+            reader.close();
+        }
+    }
+
+    private class MergeCursor extends Cursor {
+        private final PriorityQueue<Cursor> merge;
+
+        MergeCursor(List<Cursor> inputs) throws IOException {
+            super(0);
+            merge = new PriorityQueue<>(inputs.size(), ExternalSort.this::compareHeads);
+            for (Cursor c : inputs) {
+                if (c.advance())
+                    merge.add(c);
+            }
+        }
+
+        Tuple read() throws IOException {
+            Cursor c = merge.poll();
+            if (c == null)
+                return null;
+            Tuple t = c.head;
+            if (c.advance())
+                merge.add(c);
+            return t;
+        }
+    }
+}
@@ -2,18 +2,24 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import java.util.*;
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It can also be
+ * read a batch at a time, in which case the predicate is applied to whole
+ * batches of its child.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
     private static final long serialVersionUID = 1L;
     private Predicate pred;
     private final TupleDesc td;
     private OpIterator child;
     //private Iterator<Tuple> it;
     private final List<Tuple> childTups = new ArrayList<>();
+    transient private BatchOpIterator batchChild;
+    transient private TupleBatch out;
+    transient private int[] selected;
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -79,6 +85,39 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of tuples from the child that pass the
+     * predicate. A child batch whose rows all pass is returned as it is;
+     * otherwise the passing rows are copied into a batch of this operator.
+     * Over a SeqScan the predicate is tested on the tuples of the scan
+     * instead, before they are copied (see {@link SeqScan#nextBatch(Predicate)}).
+     *
+     * @see Predicate#filter(TupleBatch, int[])
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (child instanceof SeqScan)
+            return ((SeqScan) child).nextBatch(pred);
+        if (batchChild == null)
+            batchChild = RowBatchAdapter.of(child);
+        TupleBatch in;
+        while ((in = batchChild.nextBatch()) != null) {
+            if (selected == null || selected.length < in.size())
+                selected = new int[in.capacity()];
+            int n = pred.filter(in, selected);
+            if (n == 0)
+                continue;
+            if (n == in.size())
+                return in;
+            if (out == null || out.capacity() < n)
+                out = new TupleBatch(td, in.capacity());
+            out.clear();
+            for (int i = 0; i < n; i++)
+                out.addRow(in, selected[i]);
+            return out;
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -86,8 +125,10 @@ public class Filter extends Operator {
 
     @Override
     public void setChildren(OpIterator[] children) {
-        if(this.child != children[0])
+        if(this.child != children[0]) {
             this.child = children[0];
+            this.batchChild = null;
+        }
     }
 
 }
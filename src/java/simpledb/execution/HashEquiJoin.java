@@ -2,27 +2,65 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds a hash table from the left
+ * child and probes it with the right child. When the left child does not fit
+ * in memory, its tuples are hashed into partitions: the first partition stays
+ * in memory and the others are spilled to temporary files, as are the right
+ * tuples that hash to them. Each pair of spilled partitions is then joined in
+ * the same way, with a different hash function, until the partitions fit.
+ * The number of partitions is chosen up front from the estimated number of
+ * left tuples (see {@link #setBuildCardinality}), so that the partitions are
+ * about the size of the memory budget; without an estimate the join starts in
+ * memory and only partitions once it runs out of room. Partitions that cannot
+ * be split, because all their tuples have the same key, are joined a
+ * memory-sized chunk at a time against a rescan of the right partition.
+ * <p>
+ * Read a batch at a time, the join probes its hash table with batches of the
+ * right child and writes the joined rows into batches.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default number of left tuples kept in memory. */
+    public final static int MAP_SIZE = 20000;
+
+    // 估计值偏小时留点余量, 免得分区刚好装不下
+    private static final double FUDGE_FACTOR = 1.2;
+    // the number of partitions when the build side overflows without an estimate
+    private static final int DEFAULT_PARTITIONS = 8;
+    private static final int MAX_PARTITIONS = 64;
+    // partitioning deeper than this falls back to chunked joins
+    private static final int MAX_LEVEL = 3;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
+    private final int memoryTuples;
+    private int buildCardinality = 0;
+
+    transient private BatchOpIterator probeChild;
+    transient private JoinPass pass;
+    transient private TupleBatch out;
+    // the batch that next() returns rows from
+    transient private TupleBatch rows;
+    transient private int rowIdx;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,9 +69,18 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * @param memoryTuples
+     *            The number of left tuples to keep in memory at a time
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = Math.max(1, memoryTuples);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -44,7 +91,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,49 +101,80 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
-        }
-        return cnt > 0;
+    /**
+     * Set the estimated number of tuples of the left child, used to choose
+     * the number of partitions when the join is opened.
+     *
+     * @param card the estimate, or 0 if unknown
+     */
+    public void setBuildCardinality(int card) {
+        this.buildCardinality = Math.max(0, card);
+    }
 
+    public int getBuildCardinality() {
+        return buildCardinality;
+    }
+
+    /**
+     * @return the number of partitions the left child was split into when
+     *         the join was opened, 1 if it was joined in memory
+     */
+    public int getNumPartitions() {
+        return pass == null ? 0 : pass.numPartitions;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        if (probeChild == null)
+            probeChild = RowBatchAdapter.of(child2);
+        start();
         super.open();
     }
 
+    private void start() throws DbException, TransactionAbortedException {
+        rows = null;
+        pass = new JoinPass(0, () -> child1.hasNext() ? child1.next() : null,
+                new ProbeSource() {
+                    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+                        return probeChild.nextBatch();
+                    }
+
+                    public void rewind() throws DbException, TransactionAbortedException {
+                        child2.rewind();
+                    }
+
+                    public void close() {
+                    }
+                });
+        try {
+            pass.build(buildCardinality);
+        } catch (IOException e) {
+            pass.close();
+            throw new DbException("hash join failed to spill: " + e.getMessage());
+        }
+    }
+
     public void close() {
         super.close();
+        if (pass != null)
+            pass.close();
+        pass = null;
+        rows = null;
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        if (pass != null)
+            pass.close();
         child1.rewind();
         child2.rewind();
+        start();
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -111,64 +189,346 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (rows == null || rowIdx == rows.size()) {
+            rows = nextBatch();
+            rowIdx = 0;
+            if (rows == null)
+                return null;
+        }
+        return rows.getTuple(rowIdx++);
+    }
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+    /**
+     * Returns the next batch of joined rows.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (pass == null)
+            throw new IllegalStateException("Operator not yet open");
+        if (out == null)
+            out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE);
+        out.clear();
+        try {
+            pass.fill(out);
+        } catch (IOException e) {
+            throw new DbException("hash join failed to spill: " + e.getMessage());
+        }
+        return out.isEmpty() ? null : out;
+    }
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
 
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.probeChild = null;
     }
 
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+    private interface BuildSource {
+        /** @return the next left tuple, or null at the end */
+        Tuple next() throws DbException, TransactionAbortedException, IOException;
+
+        default void close() {
         }
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+    private interface ProbeSource {
+        /** @return the next batch of right tuples, or null at the end */
+        TupleBatch nextBatch() throws DbException, TransactionAbortedException, IOException;
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+        void rewind() throws DbException, TransactionAbortedException, IOException;
 
-            return processList();
+        void close();
+    }
+
+    /** Reads a spilled right partition back in batches. */
+    private class SpillProbe implements ProbeSource {
+        private final SpillFile file;
+        private SpillFile.Reader reader;
+        private TupleBatch batch;
 
+        SpillProbe(SpillFile file) throws IOException {
+            this.file = file;
+            reader = file.reader();
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        public TupleBatch nextBatch() throws IOException {
+            if (batch == null)
+                batch = new TupleBatch(child2.getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+            batch.clear();
+            Tuple t;
+            while (!batch.isFull() && (t = reader.next()) != null)
+                batch.addTuple(t);
+            return batch.isEmpty() ? null : batch;
         }
 
-        return null;
-    }
+        public void rewind() throws IOException {
+            reader.close();
+            reader = file.reader();
+        }
 
-    @Override
-    public OpIterator[] getChildren() {
-        return new OpIterator[]{this.child1, this.child2};
+        public void close() {
+            reader.close();
+        }
     }
 
-    @Override
-    public void setChildren(OpIterator[] children) {
-        this.child1 = children[0];
-        this.child2 = children[1];
+    /**
+     * One level of the hybrid hash join: the join of a left input with a
+     * right input, either of which may be the children of the operator or a
+     * pair of partitions spilled by the level above.
+     */
+    private class JoinPass {
+        private final int level;
+        private final BuildSource build;
+        private final ProbeSource probe;
+
+        int numPartitions = 1;
+        // 第 0 个分区的哈希表; 分区 0 也溢出时为 null
+        private Map<Field, List<Tuple>> table = new HashMap<>();
+        private int inMemory = 0;
+        private SpillFile[] buildSpill = new SpillFile[1];
+        private SpillFile[] probeSpill = new SpillFile[1];
+        // join memory-sized chunks of the left input against the whole right
+        // input, for partitions that cannot be split further
+        private boolean chunked = false;
+
+        private TupleBatch batch;
+        private int row;
+        private List<Tuple> matches;
+        private int matchIdx;
+        private boolean probeDone = false;
+
+        private int nextPartition = 0;
+        private JoinPass sub;
+
+        JoinPass(int level, BuildSource build, ProbeSource probe) {
+            this.level = level;
+            this.build = build;
+            this.probe = probe;
+        }
+
+        /**
+         * Read the whole left input, keeping partition 0 in memory and
+         * spilling the others.
+         *
+         * @param estimate the estimated number of left tuples, or 0
+         */
+        void build(int estimate) throws DbException, TransactionAbortedException, IOException {
+            if (level >= MAX_LEVEL) {
+                chunked = true;
+                probeDone = !loadChunk();
+                return;
+            }
+            if (estimate > 0) {
+                long p = (long) Math.ceil(estimate * FUDGE_FACTOR / memoryTuples);
+                setPartitions((int) Math.max(1, Math.min(MAX_PARTITIONS, p)));
+            }
+            for (Tuple t = build.next(); t != null; t = build.next())
+                addBuild(t);
+            build.close();
+            boolean empty = inMemory == 0;
+            for (int p = 0; p < numPartitions; p++) {
+                if (buildSpill[p] != null) {
+                    buildSpill[p].finish();
+                    empty = false;
+                }
+            }
+            // 左边为空就不用扫右边了
+            probeDone = empty;
+        }
+
+        private void setPartitions(int n) {
+            numPartitions = n;
+            buildSpill = new SpillFile[n];
+            probeSpill = new SpillFile[n];
+        }
+
+        private void addBuild(Tuple t) throws IOException {
+            Field key = t.getField(pred.getField1());
+            int p = partition(key);
+            if (p != 0 || table == null) {
+                spill(buildSpill, p, t, child1.getTupleDesc());
+                return;
+            }
+            table.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+            if (++inMemory > memoryTuples)
+                overflow();
+        }
+
+        /** Make room after partition 0 outgrew the memory budget. */
+        private void overflow() throws IOException {
+            if (numPartitions == 1) {
+                // no estimate, or a bad one: split what we have so far
+                Map<Field, List<Tuple>> old = table;
+                table = new HashMap<>();
+                inMemory = 0;
+                setPartitions(DEFAULT_PARTITIONS);
+                for (List<Tuple> l : old.values()) {
+                    for (Tuple t : l)
+                        addBuild(t);
+                }
+                if (inMemory <= memoryTuples)
+                    return;
+            }
+            Map<Field, List<Tuple>> old = table;
+            table = null;
+            inMemory = 0;
+            for (List<Tuple> l : old.values()) {
+                for (Tuple t : l)
+                    spill(buildSpill, 0, t, child1.getTupleDesc());
+            }
+        }
+
+        /** Replace the in-memory table with the next chunk of the left input. */
+        private boolean loadChunk() throws DbException, TransactionAbortedException, IOException {
+            table = new HashMap<>();
+            inMemory = 0;
+            Tuple t;
+            while (inMemory < memoryTuples && (t = build.next()) != null) {
+                table.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+                inMemory++;
+            }
+            return inMemory > 0;
+        }
+
+        private void spill(SpillFile[] files, int p, Tuple t, TupleDesc td) throws IOException {
+            if (files[p] == null)
+                files[p] = new SpillFile(td);
+            files[p].add(t);
+        }
+
+        private int partition(Field key) {
+            if (numPartitions == 1 || chunked)
+                return 0;
+            // 每一层用不同的哈希, 否则溢出的分区再分还是落在同一个分区
+            int h = key.hashCode() + level * 0x9E3779B9;
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            h ^= h >>> 16;
+            return Math.floorMod(h, numPartitions);
+        }
+
+        /**
+         * Add joined rows to out until it is full or this pass is done.
+         *
+         * @return true if the pass has no more rows
+         */
+        boolean fill(TupleBatch out) throws DbException, TransactionAbortedException, IOException {
+            int td1n = child1.getTupleDesc().numFields();
+            int td2n = child2.getTupleDesc().numFields();
+            while (true) {
+                if (matches != null) {
+                    // the probe row at row matches the next left tuples
+                    while (matchIdx < matches.size()) {
+                        if (out.isFull())
+                            return false;
+                        Tuple left = matches.get(matchIdx++);
+                        int r = out.addRow();
+                        for (int i = 0; i < td1n; i++)
+                            out.setField(r, i, left.getField(i));
+                        for (int i = 0; i < td2n; i++)
+                            out.copyField(r, td1n + i, batch, row, i);
+                    }
+                    matches = null;
+                    row++;
+                }
+                if (!probeDone) {
+                    if (batch == null || row == batch.size()) {
+                        batch = probe.nextBatch();
+                        row = 0;
+                        if (batch == null) {
+                            if (chunked && loadChunk()) {
+                                probe.rewind();
+                            } else {
+                                endProbe();
+                            }
+                        }
+                        continue;
+                    }
+                    Field key = batch.getField(row, pred.getField2());
+                    int p = partition(key);
+                    if (p == 0 && table != null) {
+                        matches = table.get(key);
+                        matchIdx = 0;
+                        if (matches == null)
+                            row++;
+                    } else {
+                        // a right tuple can only match left tuples of its own partition
+                        if (buildSpill[p] != null)
+                            spill(probeSpill, p, batch.getTuple(row), child2.getTupleDesc());
+                        row++;
+                    }
+                    continue;
+                }
+                if (sub != null) {
+                    if (!sub.fill(out))
+                        return false;
+                    sub.close();
+                    sub = null;
+                    dropPartition(nextPartition - 1);
+                }
+                // join the next pair of spilled partitions
+                while (nextPartition < numPartitions
+                        && (buildSpill[nextPartition] == null || probeSpill[nextPartition] == null))
+                    dropPartition(nextPartition++);
+                if (nextPartition == numPartitions)
+                    return true;
+                SpillFile left = buildSpill[nextPartition];
+                SpillFile.Reader reader = left.reader();
+                sub = new JoinPass(level + 1, new BuildSource() {
+                    public Tuple next() throws IOException {
+                        return reader.next();
+                    }
+
+                    public void close() {
+                        reader.close();
+                    }
+                }, new SpillProbe(probeSpill[nextPartition]));
+                nextPartition++;
+                sub.build(left.size());
+            }
+        }
+
+        private void endProbe() throws IOException {
+            probeDone = true;
+            batch = null;
+            table = null;
+            probe.close();
+            for (SpillFile f : probeSpill) {
+                if (f != null)
+                    f.finish();
+            }
+        }
+
+        private void dropPartition(int p) {
+            if (buildSpill[p] != null)
+                buildSpill[p].delete();
+            if (probeSpill[p] != null)
+                probeSpill[p].delete();
+            buildSpill[p] = null;
+            probeSpill[p] = null;
+        }
+
+        /** Stop the pass and delete its spill files. */
+        void close() {
+            if (sub != null)
+                sub.close();
+            sub = null;
+            build.close();
+            probe.close();
+            table = null;
+            for (int p = 0; p < numPartitions; p++)
+                dropPartition(p);
+        }
     }
-    
 }
@@ -0,0 +1,211 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeSearchIterator;
+import simpledb.storage.DbFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins a child with a table stored in a B+ tree that is
+ * keyed on the join field of the table. Instead of scanning the table for
+ * every tuple of the child, it looks up the matching tuples with
+ * {@link BTreeFile#indexIterator}. One search iterator is reused for all the
+ * lookups, so that the pages on the path to the last leaf are not searched
+ * again for the next key (see {@link BTreeSearchIterator#seek}); when the
+ * child is sorted or has runs of equal keys, most lookups start at the leaf.
+ * <p>
+ * Filters on the table can be passed in and are applied to the tuples the
+ * lookups return. The output has the fields of the child followed by those
+ * of the table, named alias.fieldName as by {@link SeqScan}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child;
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final List<Predicate> filters;
+    private final TupleDesc innerTD;
+    private final TupleDesc comboTD;
+    // the operator of the lookup: key indexOp value of the child field
+    private final Predicate.Op indexOp;
+
+    transient private BTreeSearchIterator probe;
+    transient private Tuple outer;
+
+    /**
+     * @param p
+     *            The predicate to use to join; field2 is the key field of
+     *            the table
+     * @param child
+     *            Iterator for the left(outer) relation to join
+     * @param tid
+     *            The transaction the lookups run in
+     * @param tableId
+     *            The table to look up matches in; must be a BTreeFile keyed
+     *            on p.getField2()
+     * @param tableAlias
+     *            The alias of the table
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child, TransactionId tid,
+                               int tableId, String tableAlias) {
+        this(p, child, tid, tableId, tableAlias, Collections.emptyList());
+    }
+
+    /**
+     * @param filters
+     *            Predicates the table tuples must also satisfy
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child, TransactionId tid,
+                               int tableId, String tableAlias, List<Predicate> filters) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile) || ((BTreeFile) f).keyField() != p.getField2())
+            throw new IllegalArgumentException("table " + tableId + " is not a B+ tree keyed on field "
+                    + p.getField2());
+        this.pred = p;
+        this.child = child;
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        this.filters = new ArrayList<>(filters);
+        this.indexOp = flip(p.getOperator());
+
+        TupleDesc td = f.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        innerTD = new TupleDesc(types, names);
+        comboTD = TupleDesc.merge(child.getTupleDesc(), innerTD);
+    }
+
+    /** @return op' such that (a op b) == (b op' a) */
+    private static Predicate.Op flip(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                throw new IllegalArgumentException("an index cannot look up " + op);
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public String getJoinField1Name() {
+        return child.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return innerTD.getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        outer = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (probe != null)
+            probe.close();
+        probe = null;
+        outer = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        outer = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null) {
+                while (probe.hasNext()) {
+                    Tuple inner = probe.next();
+                    if (matches(inner))
+                        return merge(outer, inner);
+                }
+            }
+            if (!child.hasNext())
+                return null;
+            outer = child.next();
+            IndexPredicate ip = new IndexPredicate(indexOp, outer.getField(pred.getField1()));
+            if (probe == null) {
+                probe = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).indexIterator(tid, ip);
+                probe.open();
+            } else {
+                probe.seek(ip);
+            }
+        }
+    }
+
+    private boolean matches(Tuple inner) {
+        for (Predicate p : filters) {
+            if (!p.filter(inner))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple l, Tuple r) {
+        int td1n = l.getTupleDesc().numFields();
+        int td2n = innerTD.numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, l.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, r.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
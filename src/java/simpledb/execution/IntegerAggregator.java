@@ -74,8 +74,26 @@ public class IntegerAggregator implements Aggregator {
         IntField aggField = (IntField)tup.getField(this.aField);
         Field groupByField = gbField == NO_GROUPING ? null : tup.getField(this.gbField);
         int newValue = aggField.getValue();
-        if(tup.getField(gbField).getType() != (gbFieldType))
+        if(groupByField != null && !Aggregator.isGroupType(groupByField.getType(), gbFieldType))
             throw new NoSuchElementException();
+        merge(groupByField, newValue);
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate, reading the aggregate
+     * values straight from the int column.
+     */
+    @Override
+    public void mergeBatchIntoGroups(TupleBatch batch) {
+        if(batch.getTupleDesc().getFieldType(this.aField) != Type.INT_TYPE) throw new NoSuchElementException();
+        int[] values = batch.getIntColumn(this.aField);
+        for(int i = 0; i < batch.size(); ++i) {
+            Field groupByField = gbField == NO_GROUPING ? null : batch.getField(i, gbField);
+            merge(groupByField, values[i]);
+        }
+    }
+
+    private void merge(Field groupByField, int newValue) {
         switch(this.aggregationOp) {
             case MAX:
                 if (!groupMap.containsKey(groupByField)) {
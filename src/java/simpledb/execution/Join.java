@@ -1,5 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
@@ -9,16 +12,33 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loop join: it reads as many tuples of the left child
+ * as fit in a share of the buffer pool, and then scans the right child once
+ * for the whole block, so the right child is read once per block rather than
+ * once per left tuple. For an equality predicate the block is hashed on the
+ * join field, so each right tuple is compared only with the left tuples of
+ * its key.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default share of the buffer pool pages a block of left tuples may take. */
+    public static final double DEFAULT_BUFFER_SHARE = 0.5;
+
     private JoinPredicate jP;
     private OpIterator child1, child2;
     private TupleDesc td;
-    private List<Tuple> childTups = new ArrayList<>();
-    private Tuple nextTup1, nextTup2;
-    private boolean isFirst = true;
+    private final double bufferShare;
+
+    // 当前块: 左侧元组, 等值连接时按连接字段分组
+    transient private List<Tuple> block;
+    transient private Map<Field, List<Tuple>> blockIndex;
+    transient private boolean firstBlock;
+    transient private Tuple nextTup2;
+    transient private List<Tuple> matches;
+    transient private int matchIdx;
 
 
     /**
@@ -33,12 +53,38 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BUFFER_SHARE);
+    }
+
+    /**
+     * @param bufferShare
+     *            the share of the pages of the buffer pool that a block of
+     *            left tuples may take, between 0 and 1
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, double bufferShare) {
         this.jP= p;
         this.child1 = child1;
         this.child2 = child2;
+        this.bufferShare = bufferShare;
         this.td = getTupleDesc();
     }
 
+    /**
+     * @return the number of pages in a block of left tuples when a block may
+     *         take the given share of the buffer pool
+     */
+    public static int blockPages(double bufferShare) {
+        return Math.max(1, (int) (Database.getBufferPool().getNumPages() * bufferShare));
+    }
+
+    /** @return the number of left tuples in a block */
+    public int getBlockSize() {
+        TupleDesc td1 = child1.getTupleDesc();
+        // 与 HeapPage.getNumTuples 同一个算法
+        int tuplesPerPage = Math.max(1, BufferPool.getPageSize() * 8 / (td1.getSize() * 8 + 1));
+        return blockPages(bufferShare) * tuplesPerPage;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return this.jP;
     }
@@ -78,19 +124,31 @@ public class Join extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        resetBlock();
         super.open();
     }
 
+    private void resetBlock() {
+        block = null;
+        blockIndex = null;
+        firstBlock = true;
+        nextTup2 = null;
+        matches = Collections.emptyList();
+        matchIdx = 0;
+    }
+
     public void close() {
         super.close();
         child1.close();
         child2.close();
+        block = null;
+        blockIndex = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        this.close();
-        this.open();
-
+        child1.rewind();
+        child2.rewind();
+        resetBlock();
     }
 
     /**
@@ -112,32 +170,62 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        Tuple nowTuple = null;
-        while(child1.hasNext() || child2.hasNext()) {
-            if(isFirst || !child2.hasNext()) {
-                isFirst = false;
-                nextTup1 = child1.next();
-                if(!child2.hasNext())
-                    child2.rewind();
+        while (true) {
+            while (matchIdx < matches.size()) {
+                Tuple nextTup1 = matches.get(matchIdx++);
+                if (blockIndex != null || jP.filter(nextTup1, nextTup2))
+                    return merge(nextTup1, nextTup2);
             }
-            while(child2.hasNext()) {
-                nextTup2 = child2.next();
-                if(jP.filter(nextTup1, nextTup2)) {
-                    nowTuple = new Tuple(getTupleDesc());
-                    int len1 = nextTup1.getTupleDesc().numFields();
-                    for (int i = 0; i < td.numFields(); ++i) {
-                        if (i < len1)
-                            nowTuple.setField(i, nextTup1.getField(i));
-                        else
-                            nowTuple.setField(i, nextTup2.getField(i - len1));
-                    }
-                    childTups.add(nowTuple);
-                    return nowTuple;
-                }
+            // 右侧读完一遍后换下一块, 再从头扫描右侧
+            if (block == null || !child2.hasNext()) {
+                if (!readBlock())
+                    return null;
+                if (!firstBlock)
+                    child2.rewind();
+                firstBlock = false;
+                continue;
             }
+            nextTup2 = child2.next();
+            if (blockIndex != null)
+                matches = blockIndex.getOrDefault(nextTup2.getField(jP.getField2()), Collections.emptyList());
+            else
+                matches = block;
+            matchIdx = 0;
         }
-        return null;
     }
+
+    /**
+     * Read the next block of left tuples.
+     *
+     * @return false if the left child has no more tuples
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        int blockSize = getBlockSize();
+        block = new ArrayList<>();
+        blockIndex = jP.getOperator() == Predicate.Op.EQUALS ? new HashMap<>() : null;
+        while (block.size() < blockSize && child1.hasNext()) {
+            Tuple t = child1.next();
+            block.add(t);
+            if (blockIndex != null)
+                blockIndex.computeIfAbsent(t.getField(jP.getField1()), k -> new ArrayList<>()).add(t);
+        }
+        matches = Collections.emptyList();
+        matchIdx = 0;
+        return !block.isEmpty();
+    }
+
+    private Tuple merge(Tuple nextTup1, Tuple nextTup2) {
+        Tuple nowTuple = new Tuple(td);
+        int len1 = nextTup1.getTupleDesc().numFields();
+        for (int i = 0; i < td.numFields(); ++i) {
+            if (i < len1)
+                nowTuple.setField(i, nextTup1.getField(i));
+            else
+                nowTuple.setField(i, nextTup2.getField(i - len1));
+        }
+        return nowTuple;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{child1, child2};
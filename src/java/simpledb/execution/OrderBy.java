@@ -2,25 +2,32 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields. The tuples are sorted by an {@link ExternalSort}, which spills
+ * sorted runs to temporary files when the child does not fit in the memory
+ * budget. With a limit (top-N), only the first tuples of the order are kept.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of bytes of tuples an OrderBy keeps in memory. */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L << 20;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;             // 是一个位置的域号
-    private final String orderByFieldName;      // 对应的位号
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private final int[] orderByFields;          // 排序的域号, 按优先级
+    private final boolean[] asc;
+    private final String orderByFieldName;      // 第一个排序域的名字
+    private final int limit;
+    private final long memoryBudget;
+    transient private ExternalSort sorter;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,27 +40,87 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, 0, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return, or 0 to return all of them.
+     * @param memoryBudget
+     *            the number of bytes of tuples to keep in memory while
+     *            sorting.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int limit, long memoryBudget) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per ORDER BY field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.limit = limit;
+        this.memoryBudget = memoryBudget;
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return the fields to which the sort is applied, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each ORDER BY field, true if the sort order is ascending
+     */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /**
+     * @return the number of tuples returned, or 0 if there is no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
@@ -62,21 +129,22 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sorter = new ExternalSort(td, new TupleComparator(orderByFields, asc), memoryBudget, limit);
+        sorter.sort(child);
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+        }
+        child.close();
     }
-    public void rewind() {
 
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        sorter.rewind();
     }
 
     /**
@@ -86,11 +154,8 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        return sorter == null ? null : sorter.next();
     }
 
     @Override
@@ -104,25 +169,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -1,7 +1,10 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -93,15 +96,71 @@ public class Predicate implements Serializable {
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
-     * the constructor. The comparison can be made through Field's compare
-     * method.
+     * the constructor. The comparison is made through Tuple's compare
+     * method, so a tuple on a HeapPage compares the bytes of its field
+     * without parsing it.
      * 
      * @param t
      *            The tuple to compare against
      * @return true if the comparison is true, false otherwise.
+     * @see Tuple#compare
      */
     public boolean filter(Tuple t) {
-        return t.getField(this.fieldIndex).compare(operation, operand);
+        return t.compare(this.fieldIndex, operation, operand);
+    }
+
+    /**
+     * Applies the predicate to every row of a batch. Comparisons of an int
+     * column with an int operand are done on the column array, without
+     * creating a Field per row.
+     *
+     * @param batch
+     *            The rows to compare against
+     * @param selected
+     *            Receives the indexes of the rows for which the comparison is
+     *            true, in order; must have room for batch.size() entries
+     * @return the number of rows for which the comparison is true
+     */
+    public int filter(TupleBatch batch, int[] selected) {
+        int n = batch.size();
+        int count = 0;
+        if (operand instanceof IntField && batch.getTupleDesc().getFieldType(fieldIndex) == Type.INT_TYPE) {
+            int[] col = batch.getIntColumn(fieldIndex);
+            int v = ((IntField) operand).getValue();
+            switch (operation) {
+                case EQUALS:
+                case LIKE:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] == v) selected[count++] = i;
+                    break;
+                case NOT_EQUALS:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] != v) selected[count++] = i;
+                    break;
+                case GREATER_THAN:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] > v) selected[count++] = i;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] >= v) selected[count++] = i;
+                    break;
+                case LESS_THAN:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] < v) selected[count++] = i;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++)
+                        if (col[i] <= v) selected[count++] = i;
+                    break;
+            }
+            return count;
+        }
+        for (int i = 0; i < n; i++) {
+            if (batch.getField(i, fieldIndex).compare(operation, operand))
+                selected[count++] = i;
+        }
+        return count;
     }
 
     /**
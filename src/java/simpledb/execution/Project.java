@@ -4,19 +4,23 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * Project is an operator that implements a relational projection.
+ * Project is an operator that implements a relational projection. Read a
+ * batch at a time, it returns the projected columns of each child batch
+ * without copying them.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    transient private BatchOpIterator batchChild;
     /**
      * Constructor accepts a child operator to read tuples to apply projection
      * to and a list of fields in output tuple
@@ -80,6 +84,17 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Returns the next batch of the child, projected onto the output fields.
+     * The returned batch shares its column arrays with the child batch.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batchChild == null)
+            batchChild = RowBatchAdapter.of(child);
+        TupleBatch in = batchChild.nextBatch();
+        return in == null ? null : in.project(td, outFieldIds);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -89,6 +104,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            this.batchChild = null;
         }
     }
 
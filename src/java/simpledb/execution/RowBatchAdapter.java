@@ -0,0 +1,82 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * RowBatchAdapter lets a batch operator read from a row-at-a-time child: its
+ * nextBatch() packs the tuples of the child into a TupleBatch. All other
+ * calls are passed through to the child, and nextBatch() only needs the child
+ * to be open, so a batch operator can open and close its child as usual and
+ * read it through the adapter.
+ *
+ * @see BatchRowAdapter
+ */
+public class RowBatchAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private final int batchSize;
+    transient private TupleBatch batch;
+
+    /**
+     * @param child the row iterator to read from
+     * @param batchSize the maximum number of rows in a batch
+     */
+    public RowBatchAdapter(OpIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public RowBatchAdapter(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * @return it itself if it supports nextBatch(), or an adapter that reads
+     *         it a row at a time
+     */
+    public static BatchOpIterator of(OpIterator it) {
+        if (it instanceof BatchOpIterator)
+            return (BatchOpIterator) it;
+        return new RowBatchAdapter(it);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc(), batchSize);
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.isEmpty() ? null : batch;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
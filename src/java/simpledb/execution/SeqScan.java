@@ -10,15 +10,22 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk). It can be read a tuple or a batch at a time.
+ * <p>
+ * A scan can be told which columns its parent reads (see {@link #setColumns});
+ * its batches then hold only those columns, and the other columns are never
+ * read from the pages.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
     private static final long serialVersionUID = 1L;
     DbFileIterator seqScanIterator;
     int tableId;
     String tableName;
     String tableAlias;
     TransactionId tid;
+    transient private TupleBatch batch;
+    // nextBatch 读取的列, null 表示全部
+    private boolean[] columns;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -37,7 +44,7 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         tableId = tableid;
-        seqScanIterator = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).iterator(tid);
+        seqScanIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
         tableName = Database.getCatalog().getTableName(tableid);
         this.tid = tid;
         this.tableAlias = tableAlias;
@@ -55,6 +62,16 @@ public class SeqScan implements OpIterator {
      * */
     public String getAlias() { return tableAlias; }
 
+    /**
+     * @return the id of the table this operator scans
+     * */
+    public int getTableId() { return tableId; }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     * */
+    public TransactionId getTransactionId() { return tid; }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -68,9 +85,28 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-        seqScanIterator = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).iterator(tid);
+        seqScanIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
         tableName = Database.getCatalog().getTableName(tableid);
         this.tableAlias = tableAlias;
+        this.batch = null;
+        this.columns = null;
+    }
+
+    /**
+     * Set the columns that the batches of this scan hold. The tuples returned
+     * by {@link #next} read their fields when they are used, and are not
+     * affected.
+     *
+     * @param columns for each field of the table, whether it is read, or
+     *            null to read all of them
+     */
+    public void setColumns(boolean[] columns) {
+        this.columns = columns;
+    }
+
+    /** @return the columns set with {@link #setColumns}, or null for all */
+    public boolean[] getColumns() {
+        return columns;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -115,6 +151,31 @@ public class SeqScan implements OpIterator {
         return result;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        return nextBatch(null);
+    }
+
+    /**
+     * Returns the next batch of tuples of the scan that pass a predicate.
+     * Each tuple is tested before it is copied into the batch, so the tuples
+     * of a page that compares by its own encoding (such as the dictionary
+     * codes of a {@link simpledb.storage.CompressedPage}) are tested that way.
+     *
+     * @param pred the predicate, or null to return every tuple
+     * @return the next batch, or null when the scan is exhausted
+     */
+    public TupleBatch nextBatch(Predicate pred) throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        batch.clear();
+        while (!batch.isFull() && seqScanIterator.hasNext()) {
+            Tuple t = seqScanIterator.next();
+            if (pred == null || pred.filter(t))
+                batch.addTuple(t, columns);
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
     public void close() {
         seqScanIterator.close();
     }
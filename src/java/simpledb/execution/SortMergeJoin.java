@@ -0,0 +1,348 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are sorted, or that it sorts with an
+ * {@link ExternalSort}, in ascending order of their join fields.
+ * <p>
+ * For an equality predicate the two sorted inputs are merged in one pass,
+ * keeping only the right tuples of the current key in memory. For a range
+ * predicate the tuples that match a tuple of one input form a prefix of the
+ * other input: with l &gt; r, for example, the right tuples that match a left
+ * tuple are those before the first right tuple that is not smaller. So the
+ * join walks one input (the outer) and, for each of its tuples, reads the
+ * other (the inner) from the start until the predicate fails, and does work
+ * proportional to its output rather than to the product of its inputs. Any
+ * other predicate reads the whole inner input for each outer tuple.
+ * <p>
+ * The output has the fields of the left child followed by those of the right
+ * child, as for {@link Join}, but not in the order of either child.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final boolean sorted1, sorted2;
+    private final long memoryBudget;
+
+    // 范围谓词时, 对每个外层元组都从头读内层
+    private final boolean rightIsOuter;
+    private final boolean prefixOnly;
+
+    transient private Input outer, inner;
+    transient private Tuple o;
+    // equality: the inner tuples with the key of the current outer tuple
+    transient private List<Tuple> group;
+    transient private int groupIdx;
+    transient private Tuple innerNext;
+    transient private boolean innerStarted;
+
+    /**
+     * Constructor for children in any order; both are sorted when the join
+     * is opened.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, false, false, OrderBy.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param sorted1
+     *            true if child1 already returns its tuples in ascending
+     *            order of the join field, and need not be sorted
+     * @param sorted2
+     *            true if child2 already returns its tuples in ascending
+     *            order of the join field
+     * @param memoryBudget
+     *            the number of bytes of tuples the sorts keep in memory
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         boolean sorted1, boolean sorted2, long memoryBudget) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.sorted1 = sorted1;
+        this.sorted2 = sorted2;
+        this.memoryBudget = memoryBudget;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        Predicate.Op op = p.getOperator();
+        rightIsOuter = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+        prefixOnly = rightIsOuter || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        boolean merge = pred.getOperator() == Predicate.Op.EQUALS;
+        Input left = null;
+        try {
+            left = input(child1, pred.getField1(), sorted1, !merge && rightIsOuter);
+            Input right = input(child2, pred.getField2(), sorted2, !merge && !rightIsOuter);
+            outer = rightIsOuter ? right : left;
+            inner = rightIsOuter ? left : right;
+        } catch (IOException e) {
+            if (left != null)
+                left.close();
+            throw new DbException("sort-merge join failed to spill: " + e.getMessage());
+        }
+        reset();
+        super.open();
+    }
+
+    /**
+     * @param rescanned true if the input is read again for every outer
+     *                  tuple, so a sort that spilled should be merged into a
+     *                  single file once rather than on every rewind
+     */
+    private Input input(OpIterator child, int field, boolean sorted, boolean rescanned)
+            throws DbException, TransactionAbortedException, IOException {
+        if (sorted)
+            return new ChildInput(child);
+        ExternalSort sort = new ExternalSort(child.getTupleDesc(),
+                new TupleComparator(field, true), memoryBudget / 2, 0);
+        sort.sort(child);
+        if (!rescanned || sort.numRuns() == 0)
+            return new SortInput(sort);
+        SpillFile file = new SpillFile(child.getTupleDesc());
+        try {
+            for (Tuple t = sort.next(); t != null; t = sort.next())
+                file.add(t);
+            file.finish();
+        } catch (IOException | DbException e) {
+            file.delete();
+            throw e;
+        } finally {
+            sort.close();
+        }
+        return new SpillInput(file);
+    }
+
+    private void reset() {
+        o = null;
+        group = new ArrayList<>();
+        groupIdx = 0;
+        innerNext = null;
+        innerStarted = false;
+    }
+
+    public void close() {
+        super.close();
+        closeInputs();
+        child2.close();
+        child1.close();
+    }
+
+    private void closeInputs() {
+        if (outer != null)
+            outer.close();
+        if (inner != null)
+            inner.close();
+        outer = inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        try {
+            outer.rewind();
+            inner.rewind();
+        } catch (IOException e) {
+            throw new DbException("sort-merge join failed to spill: " + e.getMessage());
+        }
+        reset();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        try {
+            if (pred.getOperator() == Predicate.Op.EQUALS)
+                return nextEqual();
+            return nextScan();
+        } catch (IOException e) {
+            throw new DbException("sort-merge join failed to spill: " + e.getMessage());
+        }
+    }
+
+    private Tuple nextEqual() throws DbException, TransactionAbortedException, IOException {
+        while (true) {
+            if (o != null && groupIdx < group.size())
+                return merge(o, group.get(groupIdx++));
+            Tuple prev = o;
+            o = outer.next();
+            groupIdx = 0;
+            if (o == null)
+                return null;
+            Field key = o.getField(pred.getField1());
+            // 相同的键直接复用上一组
+            if (prev != null && key.compare(Predicate.Op.EQUALS, prev.getField(pred.getField1())))
+                continue;
+            group.clear();
+            if (!innerStarted) {
+                innerNext = inner.next();
+                innerStarted = true;
+            }
+            while (innerNext != null && innerNext.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key))
+                innerNext = inner.next();
+            while (innerNext != null && innerNext.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+                group.add(innerNext);
+                innerNext = inner.next();
+            }
+        }
+    }
+
+    private Tuple nextScan() throws DbException, TransactionAbortedException, IOException {
+        while (true) {
+            if (o != null) {
+                Tuple i;
+                while ((i = inner.next()) != null) {
+                    Tuple l = rightIsOuter ? i : o;
+                    Tuple r = rightIsOuter ? o : i;
+                    if (pred.filter(l, r))
+                        return merge(l, r);
+                    // the rest of the inner input cannot match either
+                    if (prefixOnly)
+                        break;
+                }
+            }
+            o = outer.next();
+            if (o == null)
+                return null;
+            inner.rewind();
+        }
+    }
+
+    private Tuple merge(Tuple l, Tuple r) {
+        int td1n = l.getTupleDesc().numFields();
+        int td2n = r.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, l.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, r.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+    /** A sorted input that can be read again from the start. */
+    private interface Input {
+        /** @return the next tuple, or null at the end */
+        Tuple next() throws DbException, TransactionAbortedException, IOException;
+
+        void rewind() throws DbException, TransactionAbortedException, IOException;
+
+        void close();
+    }
+
+    /** A child that is already sorted. */
+    private static class ChildInput implements Input {
+        private final OpIterator child;
+
+        ChildInput(OpIterator child) {
+            this.child = child;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? child.next() : null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class SortInput implements Input {
+        private final ExternalSort sort;
+
+        SortInput(ExternalSort sort) {
+            this.sort = sort;
+        }
+
+        public Tuple next() throws DbException {
+            return sort.next();
+        }
+
+        public void rewind() throws DbException {
+            sort.rewind();
+        }
+
+        public void close() {
+            sort.close();
+        }
+    }
+
+    private static class SpillInput implements Input {
+        private final SpillFile file;
+        private SpillFile.Reader reader;
+
+        SpillInput(SpillFile file) throws IOException {
+            this.file = file;
+            reader = file.reader();
+        }
+
+        public Tuple next() throws IOException {
+            return reader.next();
+        }
+
+        public void rewind() throws IOException {
+            reader.close();
+            reader = file.reader();
+        }
+
+        public void close() {
+            reader.close();
+            file.delete();
+        }
+    }
+}
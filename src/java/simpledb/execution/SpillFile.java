@@ -0,0 +1,94 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in memory, e.g. a sorted run or a hash partition. Tuples
+ * are appended, then the file is finished and read back, any number of times,
+ * in the order they were written. Only the field values are stored, so tuples
+ * read back have no RecordId.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb-spill", ".tmp");
+        file.deleteOnExit();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /** Append a tuple; only valid before {@link #finish}. */
+    void add(Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        size++;
+    }
+
+    /** Flush and close the file for writing. */
+    void finish() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /** @return the number of tuples in the file */
+    int size() {
+        return size;
+    }
+
+    /** @return a new reader positioned at the first tuple of a finished file */
+    Reader reader() throws IOException {
+        return new Reader();
+    }
+
+    /** Close the file and remove it from disk. */
+    void delete() {
+        try {
+            finish();
+        } catch (IOException ignored) {
+        }
+        file.delete();
+    }
+
+    class Reader {
+        private final DataInputStream in;
+        private int left = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        /** @return the next tuple, or null at the end of the file */
+        Tuple next() throws IOException {
+            if (left == 0)
+                return null;
+            left--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new IOException(e);
+            }
+            return t;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
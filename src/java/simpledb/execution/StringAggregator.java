@@ -42,7 +42,8 @@ public class StringAggregator implements Aggregator {
         if (this.aggOp != Op.COUNT)
             throw new IllegalArgumentException();
         Field gbField = gbFieldIndex == NO_GROUPING ? null : tup.getField(this.gbFieldIndex);
-        if (!tup.getField(gbFieldIndex).getType().equals(gbFieldType)) throw new NoSuchElementException();
+        if (gbField != null && !Aggregator.isGroupType(gbField.getType(), gbFieldType))
+            throw new NoSuchElementException();
         if(countMap.containsKey(gbField))
             countMap.put(gbField, 1+countMap.get(gbField));
         else
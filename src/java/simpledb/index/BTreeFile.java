@@ -1,6 +1,9 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -19,6 +22,9 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * The file is opened once, as a FileChannel, and pages are read and written
+ * at their offsets with positional I/O.
  * 
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -33,6 +39,9 @@ public class BTreeFile implements DbFile {
 	private final int tableid ;
 	private final int keyField;
 	private Field f1;
+	// 整个文件只打开一次, 页的读写都用定位 I/O
+	private final FileChannel channel;
+	private final MappedFile mapped;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -43,10 +52,37 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param mmap - if true, pages are read through a memory mapping of the file
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean mmap) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		try {
+			this.channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		this.mapped = mmap ? new MappedFile(channel) : null;
+	}
+
+	/**
+	 * @return true if pages of this file are read through a memory mapping
+	 */
+	public boolean isMemoryMapped() {
+		return mapped != null;
 	}
 
 	/**
@@ -87,50 +123,75 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
+		int len = id.pgcateg() == BTreePageId.ROOT_PTR ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+		byte[] pageBuf = new byte[len];
+		try {
+			ByteBuffer view = mapped != null ? mapped.slice(pageOffset(id), len) : null;
+			if (view != null) {
+				view.get(pageBuf);
+			} else {
+				int retval = readFully(ByteBuffer.wrap(pageBuf), pageOffset(id));
+				if (retval == 0) {
+					throw new IllegalArgumentException("Read past end of table");
+				}
+				if (retval < len) {
+					throw new IllegalArgumentException("Unable to read "
+							+ len + " bytes from BTreeFile");
+				}
+			}
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				return new BTreeRootPtrPage(id, pageBuf);
+			} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+				return new BTreeInternalPage(id, pageBuf, keyField);
+			} else if (id.pgcateg() == BTreePageId.LEAF) {
+				return new BTreeLeafPage(id, pageBuf, keyField);
+			} else { // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, pageBuf);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the offset in the file of the page with the specified id.
+	 * The root pointer page is at the start of the file, followed by the
+	 * other pages, numbered from 1.
+	 */
+	private long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR)
+			return 0;
+		return pageOffset(id.getPageNumber());
+	}
+
+	private long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo - 1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Read from the file at the specified offset until buf is full or the end
+	 * of the file is reached.
+	 * 
+	 * @return the number of bytes read
+	 */
+	private int readFully(ByteBuffer buf, long offset) throws IOException {
+		int start = buf.position();
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, offset + buf.position() - start) < 0)
+				break;
+		}
+		return buf.position() - start;
+	}
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+	/**
+	 * Write data to the file at the specified offset.
+	 */
+	private void writeFully(byte[] data, long offset) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		while (buf.hasRemaining())
+			channel.write(buf, offset + buf.position());
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -142,16 +203,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		writeFully(data, pageOffset(id));
 	}
 	
 	/**
@@ -169,6 +221,22 @@ public class BTreeFile implements DbFile {
 		return keyField;
 	}
 
+	/**
+	 * Estimate the number of pages on the path from the root to a leaf, from the
+	 * number of pages in the file and the fan-out of an internal page. Used to
+	 * cost index lookups without reading the tree.
+	 */
+	public int estimateDepth() {
+		// 与 BTreeInternalPage.getMaxEntries 同一个算法
+		int bitsPerEntry = td.getFieldType(keyField).getLen() * 8 + BTreePage.INDEX_SIZE * 8 + 1;
+		int extraBits = 2 * BTreePage.INDEX_SIZE * 8 + 8 + 1;
+		int fanout = Math.max(2, (BufferPool.getPageSize() * 8 - extraBits) / bitsPerEntry + 1);
+		int depth = 1;
+		for (long pages = 1; pages < numPages(); pages *= fanout)
+			depth++;
+		return depth;
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -202,7 +270,7 @@ public class BTreeFile implements DbFile {
 				while(it.hasNext()) {
 					BTreeEntry entry = it.next();
 					Permissions pe = entry.getLeftChild().pgcateg() ==
-							BTreePageId.LEAF ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+							BTreePageId.LEAF ? perm : Permissions.READ_ONLY;
 					return findLeafPage(tid, dirtypages, entry.getLeftChild(), pe, f);
 				}
 			}
@@ -215,22 +283,21 @@ public class BTreeFile implements DbFile {
 					//不空的时候需要找到最小的i使得 Ki >= Key
 					if(key.getValue() >= searchVal) {
 						Permissions pe = entry.getLeftChild().pgcateg() ==
-								BTreePageId.LEAF ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+								BTreePageId.LEAF ? perm : Permissions.READ_ONLY;
 						return findLeafPage(tid, dirtypages, entry.getLeftChild(), pe, f);
 					}
 					// 招不到的时候，就需要找到最后一个entry的右指针
 					if(!it.hasNext()) {
 						Permissions pe = entry.getLeftChild().pgcateg() ==
-								BTreePageId.LEAF ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+								BTreePageId.LEAF ? perm : Permissions.READ_ONLY;
 						return findLeafPage(tid, dirtypages, entry.getRightChild(), pe, f);
 					}
 				}
 			}
 		}
-			// 递归终点，当它到达叶页,得到叶页并加入脏页中，设置权限为READ_WRITE.
+			// 递归终点，当它到达叶页,用调用者要求的权限 perm 得到叶页; 只有 READ_WRITE 时 getPage 才把它加入脏页.
 		else {
-				BTreeLeafPage leafPage = (BTreeLeafPage) getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
-				dirtypages.put(pid, leafPage);//
+				BTreeLeafPage leafPage = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
 				return leafPage;
 		}
 		// 如果走到这，就说明出现了问题
@@ -877,15 +944,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(channel.size() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				writeFully(emptyRootPtrData, 0);
+				writeFully(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -941,11 +1005,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				writeFully(emptyData, channel.size());
 				emptyPageNo = numPages();
 			}
 		}
@@ -975,10 +1036,7 @@ public class BTreeFile implements DbFile {
 		int emptyPageNo = getEmptyPageNo(tid, dirtypages);
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		writeFully(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1083,7 +1141,7 @@ public class BTreeFile implements DbFile {
 	 * @param ipred - the index predicate value to filter on
 	 * @return an iterator for the filtered tuples
 	 */
-	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+	public BTreeSearchIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
@@ -1180,107 +1238,3 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		curp = null;
 	}
 }
-
-/**
- * Helper class that implements the DbFileIterator for search tuples on a
- * B+ Tree File
- */
-class BTreeSearchIterator extends AbstractDbFileIterator {
-
-	Iterator<Tuple> it = null;
-	BTreeLeafPage curp = null;
-
-	final TransactionId tid;
-	final BTreeFile f;
-	final IndexPredicate ipred;
-
-	/**
-	 * Constructor for this iterator
-	 * @param f - the BTreeFile containing the tuples
-	 * @param tid - the transaction id
-	 * @param ipred - the predicate to filter on
-	 */
-	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
-		this.f = f;
-		this.tid = tid;
-		this.ipred = ipred;
-	}
-
-	/**
-	 * Open this iterator by getting an iterator on the first leaf page applicable
-	 * for the given predicate operation
-	 */
-	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
-		}
-		else {
-			curp = f.findLeafPage(tid, root, null);
-		}
-		it = curp.iterator();
-	}
-
-	/**
-	 * Read the next tuple either from the current page if it has more tuples matching
-	 * the predicate or from the next page by following the right sibling pointer.
-	 * 
-	 * @return the next tuple matching the predicate, or null if none exists
-	 */
-	@Override
-	protected Tuple readNext() throws TransactionAbortedException, DbException,
-	NoSuchElementException {
-		while (it != null) {
-
-			while (it.hasNext()) {
-				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
-				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
-					return null;
-				}
-				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
-					return null;
-				}
-			}
-
-			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
-			if(nextp == null) {
-				return null;
-			}
-			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
-			}
-		}
-
-		return null;
-	}
-
-	/**
-	 * rewind this iterator back to the beginning of the tuples
-	 */
-	public void rewind() throws DbException, TransactionAbortedException {
-		close();
-		open();
-	}
-
-	/**
-	 * close the iterator
-	 */
-	public void close() {
-		super.close();
-		it = null;
-	}
-}
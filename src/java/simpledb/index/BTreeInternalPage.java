@@ -357,11 +357,14 @@ public class BTreeInternalPage extends BTreePage {
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null entry.");
 		if(deleteRightChild) {
+			slotChanges.beforeChange(rid.getTupleNumber());
 			markSlotUsed(rid.getTupleNumber(), false);
 		}
 		else {
 			for(int i = rid.getTupleNumber() - 1; i >= 0; i--) {
 				if(isSlotUsed(i)) {
+					slotChanges.beforeChange(i);
+					slotChanges.beforeChange(rid.getTupleNumber());
 					children[i] = children[rid.getTupleNumber()];
 					markSlotUsed(rid.getTupleNumber(), false);
 					break;
@@ -429,10 +432,12 @@ public class BTreeInternalPage extends BTreePage {
 					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
 							" HINT: updated key must be greater than or equal to keys on the left");
 				}
+				slotChanges.beforeChange(i);
 				children[i] = e.getLeftChild().getPageNumber();
 				break;
 			}	
 		}
+		slotChanges.beforeChange(rid.getTupleNumber());
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
 		keys[rid.getTupleNumber()] = e.getKey();
 	}
@@ -455,6 +460,7 @@ public class BTreeInternalPage extends BTreePage {
 			if(e.getLeftChild().pgcateg() != e.getRightChild().pgcateg())
 				throw new DbException("child page category mismatch in insertEntry");
 
+			slotChanges.changedOutsideSlots();
 			childCategory = e.getLeftChild().pgcateg();
 		}
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
@@ -462,6 +468,8 @@ public class BTreeInternalPage extends BTreePage {
 
 		// if this is the first entry, add it and return
 		if(getNumEmptySlots() == getMaxEntries()) {
+			slotChanges.beforeChange(0);
+			slotChanges.beforeChange(1);
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -498,6 +506,7 @@ public class BTreeInternalPage extends BTreePage {
 					}
 					lessOrEqKey = i;
 					if(children[i] == e.getRightChild().getPageNumber()) {
+						slotChanges.beforeChange(i);
 						children[i] = e.getLeftChild().getPageNumber();
 					}
 				}
@@ -542,6 +551,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// insert new entry into the correct spot in sorted order
+		slotChanges.beforeChange(goodSlot);
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
 		keys[goodSlot] = e.getKey();
@@ -555,6 +565,8 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	private void moveEntry(int from, int to) {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
+			slotChanges.beforeChange(to);
+			slotChanges.beforeChange(from);
 			markSlotUsed(to, true);
 			keys[to] = keys[from];
 			children[to] = children[from];
@@ -562,6 +574,41 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * @return the key (except in slot 0) and the child pointer in a slot
+	 */
+	public byte[] getSlot(int slot) {
+		if (!isSlotUsed(slot))
+			return null;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			if (slot > 0)
+				keys[slot].serialize(dos);
+			dos.writeInt(children[slot]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	public void setSlot(int slot, byte[] contents) {
+		if (contents == null) {
+			markSlotUsed(slot, false);
+			return;
+		}
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(contents));
+		try {
+			if (slot > 0)
+				keys[slot] = td.getFieldType(keyField).parse(dis);
+			children[slot] = dis.readInt();
+		} catch (IOException | java.text.ParseException e) {
+			throw new NoSuchElementException("bad contents of slot " + slot);
+		}
+		markSlotUsed(slot, true);
+	}
+
 	/**
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
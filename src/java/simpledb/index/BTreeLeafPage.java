@@ -297,6 +297,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to delete null tuple.");
+		slotChanges.beforeChange(rid.getTupleNumber());
 		markSlotUsed(rid.getTupleNumber(), false);
 		t.setRecordId(null);
 	}
@@ -354,6 +355,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// insert new record into the correct spot in sorted order
+		slotChanges.beforeChange(goodSlot);
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
 		RecordId rid = new RecordId(pid, goodSlot);
@@ -367,6 +369,8 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	private void moveRecord(int from, int to) {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
+			slotChanges.beforeChange(to);
+			slotChanges.beforeChange(from);
 			markSlotUsed(to, true);
 			RecordId rid = new RecordId(pid, to);
 			tuples[to] = tuples[from];
@@ -375,6 +379,34 @@ public class BTreeLeafPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * @return the bytes of the tuple in a slot
+	 */
+	public byte[] getSlot(int slot) {
+		if (!isSlotUsed(slot))
+			return null;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			for (int j=0; j<td.numFields(); j++)
+				tuples[slot].getField(j).serialize(dos);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	public void setSlot(int slot, byte[] contents) {
+		if (contents == null) {
+			markSlotUsed(slot, false);
+			tuples[slot] = null;
+			return;
+		}
+		markSlotUsed(slot, true);
+		tuples[slot] = readNextTuple(new DataInputStream(new ByteArrayInputStream(contents)), slot);
+	}
+
 	/**
 	 * Get the id of the left sibling of this page
 	 * @return the id of the left sibling
@@ -403,6 +435,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setLeftSiblingId(BTreePageId id) throws DbException {
+		if((id == null ? 0 : id.getPageNumber()) != leftSibling)
+			slotChanges.changedOutsideSlots();
 		if(id == null) {
 			leftSibling = 0;
 		}
@@ -423,6 +457,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setRightSiblingId(BTreePageId id) throws DbException {
+		if((id == null ? 0 : id.getPageNumber()) != rightSibling)
+			slotChanges.changedOutsideSlots();
 		if(id == null) {
 			rightSibling = 0;
 		}
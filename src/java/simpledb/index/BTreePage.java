@@ -5,10 +5,14 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
-import simpledb.storage.Page;
+import simpledb.storage.SlotChange;
+import simpledb.storage.SlotChanges;
+import simpledb.storage.SlotLoggedPage;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
+import java.util.List;
+
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
@@ -17,9 +21,10 @@ import simpledb.transaction.TransactionId;
  * @see BufferPool
  *
  */
-public abstract class BTreePage implements Page {
+public abstract class BTreePage implements SlotLoggedPage {
 	protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
+	protected volatile long lsn = 0;
 
 	protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -30,6 +35,7 @@ public abstract class BTreePage implements Page {
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
 	protected final Byte oldDataLock= (byte) 0;
+	protected final SlotChanges slotChanges = new SlotChanges(this);
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -107,11 +113,10 @@ public abstract class BTreePage implements Page {
 		if(id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.ROOT_PTR) {
 			throw new DbException("parent must be an internal node or root pointer");
 		}
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			parent = 0;
-		}
-		else {
-			parent = id.getPageNumber();
+		int newParent = id.pgcateg() == BTreePageId.ROOT_PTR ? 0 : id.getPageNumber();
+		if(newParent != parent) {
+			slotChanges.changedOutsideSlots();
+			parent = newParent;
 		}
 	}
 
@@ -134,6 +139,18 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	public long getLSN() {
+		return lsn;
+	}
+
+	public void setLSN(long lsn) {
+		this.lsn = lsn;
+	}
+
+	public List<SlotChange> takeSlotChanges() {
+		return slotChanges.take();
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -0,0 +1,213 @@
+package simpledb.index;
+
+import java.util.*;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Helper class that implements the DbFileIterator for search tuples on a
+ * B+ Tree File.
+ * <p>
+ * The iterator remembers the pages on the path from the root to the leaf it
+ * started at, with the range of keys that each of them covers. {@link #seek}
+ * starts a new search with another predicate and descends only from the
+ * lowest page on that path which covers the new key, so consecutive searches
+ * for nearby keys, like the probes of an index nested-loop join, do not read
+ * the upper levels of the tree again. The path is only valid while the tree
+ * does not change, which the read locks of the transaction guarantee for
+ * other transactions; a transaction that modifies the tree between searches
+ * should use a new iterator.
+ */
+public class BTreeSearchIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+
+	final TransactionId tid;
+	final BTreeFile f;
+	IndexPredicate ipred;
+
+	// 从根到叶的路径, 以及每一页覆盖的键范围
+	private final List<PathEntry> path = new ArrayList<>();
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on
+	 */
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	/**
+	 * Open this iterator by getting an iterator on the first leaf page applicable
+	 * for the given predicate operation
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
+				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
+			curp = findLeafPage(ipred.getField());
+		}
+		else {
+			curp = findLeafPage(null);
+		}
+		it = curp.iterator();
+	}
+
+	/**
+	 * Restart the search with a new predicate.
+	 *
+	 * @param ipred - the predicate to filter on
+	 */
+	public void seek(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		close();
+		this.ipred = ipred;
+		open();
+	}
+
+	/**
+	 * Find the left-most leaf page possibly containing the key field key, or the
+	 * left-most leaf page if key is null, starting from the lowest page of the
+	 * cached path that covers key. Pages are routed the same way as by
+	 * BTreeFile.findLeafPage.
+	 */
+	private BTreeLeafPage findLeafPage(Field key) throws DbException, TransactionAbortedException {
+		int level = path.size() - 1;
+		while (level >= 0 && !path.get(level).covers(key))
+			level--;
+		BTreePageId pid;
+		Field lo, hi;
+		if (level < 0) {
+			path.clear();
+			BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+					tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+			pid = rootPtr.getRootId();
+			lo = hi = null;
+		} else {
+			PathEntry start = path.get(level);
+			path.subList(level, path.size()).clear();
+			pid = start.pid;
+			lo = start.lo;
+			hi = start.hi;
+		}
+		while (true) {
+			path.add(new PathEntry(pid, lo, hi));
+			if (pid.pgcateg() == BTreePageId.LEAF)
+				return (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+			BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(
+					tid, pid, Permissions.READ_ONLY);
+			Iterator<BTreeEntry> entries = page.iterator();
+			BTreeEntry e = null;
+			BTreePageId child = null;
+			Field prev = lo;
+			// 找最小的 i 使得 Ki >= key, 走它的左孩子; 找不到就走最后一项的右孩子
+			while (entries.hasNext()) {
+				e = entries.next();
+				if (key == null || e.getKey().compare(Op.GREATER_THAN_OR_EQ, key)) {
+					child = e.getLeftChild();
+					hi = e.getKey();
+					break;
+				}
+				prev = e.getKey();
+			}
+			if (e == null)
+				throw new DbException("empty internal page " + pid);
+			if (child == null)
+				child = e.getRightChild();
+			lo = prev;
+			pid = child;
+		}
+	}
+
+	/**
+	 * Read the next tuple either from the current page if it has more tuples matching
+	 * the predicate or from the next page by following the right sibling pointer.
+	 *
+	 * @return the next tuple matching the predicate, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException,
+	NoSuchElementException {
+		while (it != null) {
+
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+					return t;
+				}
+				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+					// if the predicate was not satisfied and the operation is less than, we have
+					// hit the end
+					return null;
+				}
+				else if(ipred.getOp() == Op.EQUALS &&
+						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
+					// if the tuple is now greater than the field passed in and the operation
+					// is equals, we have reached the end
+					return null;
+				}
+			}
+
+			BTreePageId nextp = curp.getRightSiblingId();
+			// if there are no more pages to the right, end the iteration
+			if(nextp == null) {
+				return null;
+			}
+			else {
+				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY);
+				it = curp.iterator();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+	}
+
+	/** A page on the search path, and the keys (lo, hi] routed to it. */
+	private static class PathEntry {
+		final BTreePageId pid;
+		final Field lo, hi;	// null for no bound
+
+		PathEntry(BTreePageId pid, Field lo, Field hi) {
+			this.pid = pid;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/** @return true if a search for key (null for the left-most leaf) passes through this page */
+		boolean covers(Field key) {
+			if (key == null)
+				return lo == null;
+			return (lo == null || key.compare(Op.GREATER_THAN, lo))
+					&& (hi == null || key.compare(Op.LESS_THAN_OR_EQ, hi));
+		}
+	}
+}
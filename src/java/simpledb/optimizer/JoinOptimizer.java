@@ -3,6 +3,9 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -74,18 +77,20 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
-            }
+        boolean sorted1 = isSortedOn(plan1, t1id);
+        boolean sorted2 = isSortedOn(plan2, t2id);
+        if (usesIndexJoin(lj.p, sorted1, sorted2, innerScan(plan2) != null)) {
+            // 右侧是以连接字段为键的 B+ 树: 逐个外层元组查索引
+            SeqScan scan = innerScan(plan2);
+            List<Predicate> filters = new ArrayList<>();
+            for (OpIterator it = plan2; it instanceof Filter; it = ((Filter) it).getChildren()[0])
+                filters.add(((Filter) it).getPredicate());
+            j = new IndexNestedLoopJoin(p, plan1, scan.getTransactionId(), scan.getTableId(),
+                    scan.getAlias(), filters);
+        } else if (lj.p == Predicate.Op.EQUALS && !(sorted1 && sorted2)) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS || isRange(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2, sorted1, sorted2, OrderBy.DEFAULT_MEMORY_BUDGET);
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -94,6 +99,78 @@ public class JoinOptimizer {
 
     }
 
+    /** @return the SeqScan under the filters of plan, or null if plan is not a filtered scan */
+    private static SeqScan innerScan(OpIterator plan) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        return plan instanceof SeqScan ? (SeqScan) plan : null;
+    }
+
+    /**
+     * The choice of instantiateJoin, shared with estimateJoinCost: an equality
+     * join looks up its right input in the B+ tree for every tuple of the
+     * left input when only the right input is sorted on the join field and
+     * is a SeqScan, possibly filtered.
+     *
+     * @param sorted1 whether the left input is a scan sorted on the join field
+     * @param sorted2 whether the right input is a scan sorted on the join field
+     * @param seqScan2 whether the right input is a SeqScan under its filters
+     */
+    private static boolean usesIndexJoin(Predicate.Op op, boolean sorted1, boolean sorted2,
+                                         boolean seqScan2) {
+        return op == Predicate.Op.EQUALS && !sorted1 && sorted2 && seqScan2;
+    }
+
+    private static boolean isRange(Predicate.Op op) {
+        return op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if plan returns its tuples in ascending order of the
+     *         given field, i.e. it is a scan of a B+ tree keyed on that
+     *         field, possibly filtered
+     */
+    static boolean isSortedOn(OpIterator plan, int field) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        String table;
+        if (plan instanceof SeqScan)
+            table = ((SeqScan) plan).getTableName();
+        else if (plan instanceof BTreeScan)
+            table = ((BTreeScan) plan).getTableName();
+        else
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(table));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    /**
+     * @return true if the table with the given alias is a B+ tree keyed on
+     *         the given field, so that a scan of it is sorted on the field;
+     *         the result of a join over it is not (see {@link #isSortedOn})
+     */
+    private boolean isSorted(String tableAlias, String field) {
+        Integer tableId = p.getTableId(tableAlias);
+        if (tableId == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return false;
+        try {
+            return ((BTreeFile) f).keyField() == f.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /** The number of comparisons to sort card tuples, or 0 if they are sorted. */
+    private static double sortCost(int card, boolean sorted) {
+        if (sorted || card <= 1)
+            return 0;
+        return card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -122,6 +199,21 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true, true);
+    }
+
+    /**
+     * Estimate the cost of a join whose inputs may be the results of other
+     * joins. Only an input that reads its base table directly, by a scan
+     * under its filters, can be sorted on the join field or be looked up in
+     * an index, as in {@link #instantiateJoin}.
+     *
+     * @param scan1 whether the left input is a scan of the table j.t1Alias
+     * @param scan2 whether the right input is a scan of the table j.t2Alias
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean scan1, boolean scan2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
@@ -131,7 +223,42 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.  根据markdown的公式来推
-            return (cost1 + card1 * cost2 + card1 * card2);
+            double nestedLoop = cost1 + card1 * cost2 + card1 * card2;
+            // 与 instantiateJoin 的 isSortedOn 相同: 只有直接扫描基表的一侧才可能有序
+            boolean sorted1 = scan1 && isSorted(j.t1Alias, j.f1PureName);
+            boolean sorted2 = scan2 && j.t2Alias != null && isSorted(j.t2Alias, j.f2PureName);
+            // 与 instantiateJoin 的选择相同: 表被索引扫描读取时是 BTreeScan 而不是 SeqScan
+            boolean seqScan2 = scan2 && j.t2Alias != null && p.getIndexScanCost(j.t2Alias) == null;
+            // instantiateJoin uses a sort-merge join for range predicates and
+            // for equality on inputs that are already sorted, and looks up
+            // the right input in its index for equality if only it is sorted
+            // and is not already read by an index scan; otherwise equality
+            // uses the hash join, costed as the nested loop, and any other
+            // predicate the block nested-loop Join
+            if (usesIndexJoin(j.p, sorted1, sorted2, seqScan2)) {
+                // one descent of the tree per outer tuple, then the matches
+                BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(p.getTableId(j.t2Alias));
+                double pageCost = cost2 / Math.max(1, f.numPages());
+                return cost1 + card1 * f.estimateDepth() * pageCost
+                        + estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias, j.f1PureName,
+                        j.f2PureName, card1, card2, false, false, null, null);
+            }
+            if (j.p == Predicate.Op.EQUALS && !(sorted1 && sorted2))
+                return nestedLoop;
+            if (!isRange(j.p) && j.p != Predicate.Op.EQUALS) {
+                // block nested loop: the right input is scanned once per
+                // block of B pages of the left input
+                double pages1 = Math.max(1, cost1 / TableStats.IOCOSTPERPAGE);
+                double blocks = Math.ceil(pages1 / Join.blockPages(Join.DEFAULT_BUFFER_SHARE));
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            }
+            // sort both inputs, merge them, and compare each output tuple
+            double merge = cost1 + cost2 + sortCost(card1, sorted1) + sortCost(card2, sorted2)
+                    + card1 + card2;
+            if (isRange(j.p))
+                merge += estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias, j.f1PureName,
+                        j.f2PureName, card1, card2, false, false, null, null);
+            return merge;
         }
     }
 
@@ -194,6 +321,15 @@ public class JoinOptimizer {
         return card <= 0 ? 1 : card;
     }
 
+    /**
+     * @return the cost of reading the table with the given alias by the
+     *         access path the plan chose for it
+     */
+    private double scanCost(Map<String, TableStats> stats, String tableAlias, String tableName) {
+        Double indexCost = p.getIndexScanCost(tableAlias);
+        return indexCost != null ? indexCost : stats.get(tableName).estimateScanCost();
+    }
+
     /**
      * Helper method to enumerate all of the subsets of a given size of a
      * specified vector.
@@ -250,6 +386,9 @@ public class JoinOptimizer {
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
             List<LogicalJoinNode> result;
+            // 单表查询没有连接可排
+            if (joins.isEmpty())
+                return new ArrayList<>();
             PlanCache planCache = new PlanCache();
             Set<Set<LogicalJoinNode>> subSets = null;
             //subSets:所有join的子集合
@@ -344,16 +483,17 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // 该侧是否直接扫描基表, 而不是之前连接的结果
+        boolean leftScan = true, rightScan = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
+            t1cost = scanCost(stats, j.t1Alias, table1Name);
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
             leftPkey = isPkey(j.t1Alias, j.f1PureName);
 
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
+            t2cost = table2Alias == null ? 0 : scanCost(stats, table2Alias, table2Name);
             t2card = table2Alias == null ? 0 : stats.get(table2Name)
                     .estimateTableCardinality(
                             filterSelectivities.get(j.t2Alias));
@@ -380,9 +520,9 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                leftScan = false;
 
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
+                t2cost = j.t2Alias == null ? 0 : scanCost(stats, j.t2Alias, table2Name);
                 t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateTableCardinality(
                                 filterSelectivities.get(j.t2Alias));
@@ -396,7 +536,8 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
+                rightScan = false;
+                t1cost = scanCost(stats, j.t1Alias, table1Name);
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
@@ -409,10 +550,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, leftScan, rightScan);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, rightScan, leftScan);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -30,14 +31,17 @@ public class LogicalPlan {
     private final List<LogicalFilterNode> filters;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
+    // 用索引扫描读取的表, 及其代价
+    private final Map<String,Double> indexScanCosts;
 
     private final List<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAsc = new ArrayList<>();
+    private int limit = 0;
     private String query;
 //    private Query owner;
 
@@ -48,6 +52,7 @@ public class LogicalPlan {
         tables = new ArrayList<>();
         subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
+        indexScanCosts = new HashMap<>();
 
         selectList = new ArrayList<>();
         this.query = "";
@@ -84,6 +89,17 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** Given a table alias, return the estimated cost of the index scan that
+        {@link #physicalPlan} chose to read the table with instead of a
+        sequential scan.
+
+        @param alias the table alias
+        @return the cost of the index scan, or null if the table is scanned sequentially
+     */
+    public Double getIndexScanCost(String alias) {
+        return indexScanCosts.get(alias);
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -206,17 +222,24 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields added by
+        later calls only order tuples that are equal on the earlier ones.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAsc.add(asc);
+    }
+
+    /** Return only the first n tuples of the ORDER BY.  With a limit, the sort keeps
+        the first n tuples in a bounded heap instead of sorting its whole input.
+        @param n the number of tuples to return, or 0 to return all of them
+    */
+    public void setLimit(int n) {
+        limit = n;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -274,6 +297,60 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Replace the sequential scan under the filters of a table with a scan of
+     *  its B+ tree that returns only the tuples matching one of the filters.
+     *  @param plan the filters of the table over its SeqScan
+     *  @param indexed the filter the index scan applies, which is dropped
+     *  @return the other filters over the index scan
+     */
+    private OpIterator indexScan(TransactionId t, String alias, OpIterator plan, Predicate indexed) {
+        List<Predicate> preds = new ArrayList<>();
+        while (plan instanceof Filter) {
+            Predicate p = ((Filter) plan).getPredicate();
+            if (p != indexed)
+                preds.add(p);
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        OpIterator scan = new BTreeScan(t, getTableId(alias), alias,
+                new IndexPredicate(indexed.getOp(), indexed.getOperand()));
+        for (int i = preds.size() - 1; i >= 0; i--)
+            scan = new Filter(preds.get(i), scan);
+        return scan;
+    }
+
+    /** @return for each field of the scan of a table, whether the query reads
+     *   it, or null if it reads all of them
+     *  @param alias the alias of the table
+     *  @param td the TupleDesc of the scan, with fields named alias.field
+     */
+    private boolean[] scanColumns(String alias, TupleDesc td) {
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") || si.fname.equals(alias + ".*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        if (aggField != null)
+            names.add(aggField);
+        if (groupByField != null)
+            names.add(groupByField);
+        names.addAll(oByFields);
+
+        boolean[] columns = new boolean[td.numFields()];
+        boolean all = true;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = names.contains(td.getFieldName(i));
+            all &= columns[i];
+        }
+        return all ? null : columns;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,6 +369,9 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        // the most selective filter of each table that its index can answer
+        Map<String,Predicate> indexFilters = new HashMap<>();
+        indexScanCosts.clear();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -301,6 +381,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            ss.setColumns(scanColumns(table.alias, ss.getTupleDesc()));
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
@@ -342,13 +423,33 @@ public class LogicalPlan {
             double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            // 比全表扫描便宜时改用索引扫描
+            double indexCost = s.estimateIndexScanCost(p.getField(), lf.p, f);
+            Double best = indexScanCosts.get(lf.tableAlias);
+            if (indexCost < (best == null ? s.estimateScanCost() : best)) {
+                indexFilters.put(lf.tableAlias, p);
+                indexScanCosts.put(lf.tableAlias, indexCost);
+            }
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        for (Map.Entry<String,Predicate> e : indexFilters.entrySet())
+            subplanMap.put(e.getKey(), indexScan(t, e.getKey(), subplanMap.get(e.getKey()), e.getValue()));
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated number of tuples of each subplan, so that hash joins can
+        // size their partitions
+        Map<String,Integer> cardMap = new HashMap<>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s != null)
+                cardMap.put(table.alias, s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -384,6 +485,20 @@ public class LogicalPlan {
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
             subplanMap.put(t1name, j);
 
+            int card1 = cardMap.getOrDefault(t1name, 0);
+            if (j instanceof HashEquiJoin)
+                ((HashEquiJoin) j).setBuildCardinality(card1);
+            if (isSubqueryJoin) {
+                cardMap.put(t1name, card1);
+            } else {
+                int card2 = cardMap.getOrDefault(t2name, 0);
+                boolean t1pkey = lj.f1PureName.equals(Database.getCatalog().getPrimaryKey(getTableId(lj.t1Alias)));
+                boolean t2pkey = lj.f2PureName.equals(Database.getCatalog().getPrimaryKey(getTableId(lj.t2Alias)));
+                cardMap.put(t1name, card1 == 0 || card2 == 0 ? 0
+                        : jo.estimateJoinCardinality(lj, card1, card2, t1pkey, t2pkey, statsMap));
+                cardMap.remove(t2name);
+            }
+
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
                 equivMap.put(t2name, t1name);  //keep track of the fact that this new node contains both tables
@@ -471,8 +586,14 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = node.getTupleDesc().fieldNameToIndex(oByFields.get(j));
+                asc[j] = oByAsc.get(j);
+            }
+            node = new OrderBy(fields, asc, node, limit, OrderBy.DEFAULT_MEMORY_BUDGET);
         }
 
         return new Project(outFields, outTypes, node);
@@ -2,6 +2,8 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 
 import java.util.Map;
 
@@ -29,8 +31,17 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
-                    tableAliasToId, tableStats);
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                    j.getJoinField2Name(), tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                    j.getJoinField2Name(), tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                    j.getJoinField2Name(), tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -47,6 +58,8 @@ public class OperatorCardinality {
                     childC = tableStats.get(
                             ((SeqScan) children[0]).getTableName())
                             .estimateTableCardinality(1.0);
+                } else if (children[0] instanceof BTreeScan) {
+                    childC = indexScanCardinality((BTreeScan) children[0], tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -84,6 +97,10 @@ public class OperatorCardinality {
                         ((SeqScan) child).getTableName())
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
+            } else if (child instanceof BTreeScan) {
+                f.setEstimatedCardinality((int) (indexScanCardinality((BTreeScan) child,
+                        tableStats) * selectivity) + 1);
+                return false;
             }
         }
         f.setEstimatedCardinality(1);
@@ -125,6 +142,8 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0);
+        } else if (child1 instanceof BTreeScan) {
+            child1Card = indexScanCardinality((BTreeScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -137,6 +156,8 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0);
+        } else if (child2 instanceof BTreeScan) {
+            child2Card = indexScanCardinality((BTreeScan) child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -146,20 +167,22 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
-                                                         Map<String, Integer> tableAliasToId,
-                                                         Map<String, TableStats> tableStats) {
+    private static boolean updateJoinCardinality(Operator j, JoinPredicate pred,
+                                                 String joinField1Name, String joinField2Name,
+                                                 Map<String, Integer> tableAliasToId,
+                                                 Map<String, TableStats> tableStats) {
 
         OpIterator[] children = j.getChildren();
         OpIterator child1 = children[0];
-        OpIterator child2 = children[1];
+        // an index join looks up its right table and has no child for it
+        OpIterator child2 = children.length > 1 ? children[1] : null;
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -180,6 +203,8 @@ public class OperatorCardinality {
         } else if (child1 instanceof SeqScan) {
             child1Card = tableStats.get(((SeqScan) child1)
                     .getTableName()).estimateTableCardinality(1.0);
+        } else if (child1 instanceof BTreeScan) {
+            child1Card = indexScanCardinality((BTreeScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -192,15 +217,32 @@ public class OperatorCardinality {
         } else if (child2 instanceof SeqScan) {
             child2Card = tableStats.get(((SeqScan) child2)
                     .getTableName()).estimateTableCardinality(1.0);
+        } else if (child2 instanceof BTreeScan) {
+            child2Card = indexScanCardinality((BTreeScan) child2, tableStats);
+        } else if (child2 == null) {
+            child2Card = tableStats.get(Database.getCatalog().getTableName(
+                    tableAliasToId.get(tableAlias2))).estimateTableCardinality(1.0);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(
+                pred.getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    /** The estimated number of tuples that match the index predicate of s */
+    private static int indexScanCardinality(BTreeScan s, Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(s.getTableName());
+        IndexPredicate ipred = s.getIndexPredicate();
+        if (ipred == null)
+            return stats.estimateTableCardinality(1.0);
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(s.getTableName()));
+        return stats.estimateTableCardinality(
+                stats.estimateSelectivity(f.keyField(), ipred.getOp(), ipred.getField()));
+    }
+
     private static boolean updateAggregateCardinality(Aggregate a,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -222,6 +264,8 @@ public class OperatorCardinality {
         if (child instanceof SeqScan) {
             childCard = tableStats.get(((SeqScan) child).getTableName())
                     .estimateTableCardinality(1.0);
+        } else if (child instanceof BTreeScan) {
+            childCard = indexScanCardinality((BTreeScan) child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionId;
@@ -101,7 +102,8 @@ public class TableStats {
         TupleDesc td = dbfile.getTupleDesc();
         this.numField  = td.numFields();        // 域的数量
         this.numTuple = 0;                      // 统计表中所有的tuple数量
-        this.numPage = ((HeapFile)dbfile).numPages();//表中所有的页数
+        this.numPage = dbfile instanceof BTreeFile ? ((BTreeFile) dbfile).numPages()
+                : ((HeapFile) dbfile).numPages();//表中所有的页数
         // 表示每个域最大最小值的数组
         maxArr = new int[numField];//
         minArr = new int[numField];//
@@ -122,7 +124,7 @@ public class TableStats {
                 this.numTuple += 1;
                 // i:the index of field, 遍历这个tuple的每个Field
                 for(int i = 0; i < numField; ++i) {
-                    if(td.getFieldType(i).equals(Type.STRING_TYPE))
+                    if(!td.getFieldType(i).equals(Type.INT_TYPE))
                         continue;
                     // IntField 更新 max 和 min
                     if(td.getFieldType(i).equals(Type.INT_TYPE)){
@@ -144,7 +146,7 @@ public class TableStats {
                 IntHistogram intHistogram = new IntHistogram(NUM_HIST_BINS, minArr[i], maxArr[i]);
                 intHistogramConcurrentHashMap.put(i, intHistogram);
             }
-            if(types[i].equals(Type.STRING_TYPE)){
+            if(types[i].equals(Type.STRING_TYPE) || types[i].equals(Type.VARSTRING_TYPE)){
                 StringHistogram stringHistogram = new StringHistogram(NUM_HIST_BINS);
                 stringHistogramConcurrentHashMap.put(i, stringHistogram);
             }
@@ -158,7 +160,7 @@ public class TableStats {
                         int val = ((IntField)nowTuple.getField(i)).getValue();
                         intHistogramConcurrentHashMap.get(i).addValue(val);
                     }
-                    else if(types[i].equals(Type.STRING_TYPE)) {
+                    else if(types[i].equals(Type.STRING_TYPE) || types[i].equals(Type.VARSTRING_TYPE)) {
                         String strVal = ((StringField)nowTuple.getField(i)).getValue();
                         stringHistogramConcurrentHashMap.get(i).addValue(strVal);
                     }
@@ -186,6 +188,25 @@ public class TableStats {
         return this.numPage * this.ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of reading the tuples that satisfy the predicate
+     * <tt>field op constant</tt> through the B+ tree of the table: one page
+     * for each level of the tree above the leaves, and then the leaves that
+     * hold the matching tuples, as many as the selectivity of the predicate
+     * on the histogram of the field says.
+     *
+     * @return The estimated cost of the index scan, or
+     *         Double.POSITIVE_INFINITY if the table is not a B+ tree keyed on
+     *         the field or its index cannot look up op
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        if (!(dbfile instanceof BTreeFile) || ((BTreeFile) dbfile).keyField() != field
+                || op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            return Double.POSITIVE_INFINITY;
+        double leaves = Math.max(1, Math.ceil(estimateSelectivity(field, op, constant) * numPage));
+        return (((BTreeFile) dbfile).estimateDepth() - 1 + leaves) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
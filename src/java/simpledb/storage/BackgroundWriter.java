@@ -0,0 +1,98 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * BackgroundWriter writes dirty pages of the buffer pool to disk after a
+ * checkpoint, one page at a time, while transactions go on. Each page is
+ * written with {@link BufferPool#writeBack}, which logs what is not logged
+ * yet and forces the log up to the pageLSN before the write, and which
+ * moves the page out of the dirty-page table, so that the next checkpoint
+ * can truncate more of the log and recovery has less to redo.
+ * <p>
+ * The thread is started by the first page handed to it and stops after it
+ * has been idle for a while.
+ *
+ * @see LogFile#logCheckpoint
+ */
+class BackgroundWriter implements Runnable {
+
+    /** The writer thread stops after this many milliseconds without work. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final BufferPool pool;
+    // 等待写回的页, 按交给 writer 的顺序
+    private final LinkedHashSet<PageId> queue = new LinkedHashSet<>();
+    private boolean writing = false;
+    private Thread thread = null;
+
+    BackgroundWriter(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /** Queue pages to be written; a page already in the queue is written once. */
+    synchronized void add(Collection<PageId> pids) {
+        if (pids.isEmpty())
+            return;
+        queue.addAll(pids);
+        if (thread == null) {
+            thread = new Thread(this, "background writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /** Wait until every queued page is written. */
+    synchronized void awaitIdle() throws IOException {
+        while (!queue.isEmpty() || writing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for the background writer");
+            }
+        }
+    }
+
+    public void run() {
+        while (true) {
+            PageId pid;
+            synchronized (this) {
+                try {
+                    long idleSince = System.currentTimeMillis();
+                    while (queue.isEmpty()) {
+                        if (System.currentTimeMillis() - idleSince >= IDLE_MILLIS) {
+                            thread = null;
+                            return;
+                        }
+                        wait(IDLE_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    thread = null;
+                    queue.clear();
+                    notifyAll();
+                    return;
+                }
+                Iterator<PageId> it = queue.iterator();
+                pid = it.next();
+                it.remove();
+                writing = true;
+            }
+
+            try {
+                pool.writeBack(pid);
+            } catch (IOException | RuntimeException e) {
+                // 页还是脏的, 之后由提交或下一个检查点写回
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.math.*;
@@ -21,35 +22,74 @@ import java.math.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Resident pages live in a table of frames. A frame is published before its
+ * page has been read, so only one thread reads a given page from disk while
+ * other requests for it wait on the frame; misses on different pages load
+ * in parallel. Each frame is its own latch. A frame is pinned only while
+ * getPage looks it up and waits for the read, so that it is not evicted
+ * between being loaded and being returned; the pin is dropped before
+ * getPage returns. A caller that keeps using the page afterwards relies on
+ * its lock, not on the pool: only clean pages are evicted, and a changed
+ * page is put back into the pool by insertTuple/deleteTuple even if its
+ * frame was evicted meanwhile.
  * 
-page * @Threadsafe, all fields are final
+ * @Threadsafe, all fields are final
  */
 public class BufferPool {
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
-    private final ConcurrentHashMap<PageId, Page> pages;
+    private final ConcurrentHashMap<PageId, Frame> frames;
     //private final ReadWriteLock rwLock;
     private int size;
     private int capacity;
     private LockManager lockManager = new LockManager();
+    private final EvictionPolicy evictionPolicy;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // 改动了 slot 之外内容的页, 写回时要记录整页
+    private final Set<PageId> wholePages = ConcurrentHashMap.newKeySet();
+    // 脏页表: 每个脏页的 recLSN, 日志从这里起含有该页还未写回的修改
+    private final ConcurrentHashMap<PageId, Long> recLSNs = new ConcurrentHashMap<>();
+    private final BackgroundWriter writer = new BackgroundWriter(this);
 
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Maximum number of private frames in a scan ring. */
+    public static final int SCAN_RING_PAGES = 8;
+
+    /** A scan ring holds at most 1/SCAN_RING_FRACTION of the pool's size. */
+    public static final int SCAN_RING_FRACTION = 4;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * with the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        pages = new ConcurrentHashMap<>(numPages);
+        this(numPages, new ClockEvictionPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to pick pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy the page replacement policy, e.g.
+     *        {@link ClockEvictionPolicy} or {@link LruKEvictionPolicy}
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+        frames = new ConcurrentHashMap<>(numPages);
         //this.rwLock = new ReentrantReadWriteLock();
         size = 0;
         capacity = numPages;
+        this.evictionPolicy = evictionPolicy;
     }
     public static int getPageSize() {
       return pageSize;
@@ -85,32 +125,161 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
 
-            int type = perm == Permissions.READ_ONLY ? 0 : 1;
-            long st = System.currentTimeMillis();
-        while (true) {
-            //获取锁，如果获取不到会阻塞
+        acquireLock(tid, pid, perm);
+        // pin 只保护读入过程, 返回之后页就可以被驱逐
+        Frame frame = pinFrame(pid);
+        try {
+            evictionPolicy.recordAccess(pid);
+            return frame.getPage();
+        } finally {
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Retrieve the specified page for a large sequential scan. The page is
+     * locked exactly as in {@link #getPage(TransactionId, PageId, Permissions)}
+     * and served from the shared pool if it is resident there; otherwise it
+     * is read into the scan's private ring and does not displace any page in
+     * the shared pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan ring, or null to use the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
+        // 只有只读的扫描才能使用私有的环, 写操作必须修改共享池中的页
+        if (ring == null || perm != Permissions.READ_ONLY)
+            return getPage(tid, pid, perm);
+
+        acquireLock(tid, pid, perm);
+        Frame frame = frames.get(pid);
+        if (frame != null && frame.pin()) {
             try {
-                if (lockManager.requireLock(pid, tid, type)) {
-                    break;
+                Page page = frame.awaitPage();
+                if (page != null) {
+                    hits.incrementAndGet();
+                    evictionPolicy.recordAccess(pid);
+                    return page;
+                }
+            } finally {
+                frame.unpin();
+            }
+        }
+        Page page = ring.get(pid);
+        if (page != null) {
+            hits.incrementAndGet();
+            return page;
+        }
+        misses.incrementAndGet();
+        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        ring.add(page);
+        return page;
+    }
+
+    /**
+     * Create a scan ring for a sequential scan over a file with the specified
+     * number of pages, or return null if the scan should go through the shared
+     * pool. Only files that do not fit in the pool get a ring (scanning them
+     * would otherwise cycle every frame), and the ring never takes more than
+     * 1/SCAN_RING_FRACTION of the pool's size; a pool too small to spare a
+     * frame gets no ring at all.
+     *
+     * @param numPages the number of pages the scan will read
+     */
+    public ScanRing newScanRing(int numPages) {
+        int ringPages = Math.min(SCAN_RING_PAGES, capacity / SCAN_RING_FRACTION);
+        if (numPages <= capacity || ringPages == 0)
+            return null;
+        return new ScanRing(ringPages);
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return capacity;
+    }
+
+    /** @return the number of page requests that were served from the pool */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of page requests that had to read from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Return the frame holding the specified page, pinned. If the page is not
+     * resident, the calling thread publishes an empty frame, evicts a page if
+     * the pool is full and reads the page; concurrent requests for the same
+     * page wait for that read instead of issuing their own.
+     */
+    private Frame pinFrame(PageId pid) throws DbException {
+        while (true) {
+            Frame frame = frames.get(pid);
+            if (frame == null) {
+                Frame fresh = new Frame();
+                fresh.pin();
+                frame = frames.putIfAbsent(pid, fresh);
+                if (frame == null) {
+                    misses.incrementAndGet();
+                    loadFrame(pid, fresh);
+                    return fresh;
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
             }
-            long now = System.currentTimeMillis();
-            if (now - st > 500) {
-                transactionComplete(tid, false); // 事务中止前释放该事件所有的锁
-                throw new TransactionAbortedException();
+            // 若该 frame 刚被驱逐或读取失败, 重新查找
+            if (!frame.pin())
+                continue;
+            if (frame.awaitPage() != null) {
+                hits.incrementAndGet();
+                return frame;
             }
+            frame.unpin();
         }
-        if(!pages.containsKey(pid)) {
-            if (pages.size() >= capacity)
+    }
+
+    private void loadFrame(PageId pid, Frame frame) throws DbException {
+        try {
+            if (frames.size() > capacity)
                 evictPage();
             DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            pages.put(pid, page);
+            frame.loaded(dbFile.readPage(pid));
+        } catch (DbException | RuntimeException e) {
+            frames.remove(pid, frame);
+            frame.discard();
+            frame.unpin();
+            throw e;
+        }
+    }
+
+    /**
+     * Put a page into the pool, replacing the resident version of it if there
+     * is one. Does not evict; the pool shrinks back on the next miss.
+     */
+    private void installPage(Page page) {
+        frames.compute(page.getId(), (pid, old) -> {
+            if (old != null && old.replace(page))
+                return old;
+            Frame frame = new Frame();
+            frame.loaded(page);
+            return frame;
+        });
+        evictionPolicy.recordAccess(page.getId());
+    }
 
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        int type = perm == Permissions.READ_ONLY ? 0 : 1;
+        //获取锁，如果获取不到会阻塞, 直到获得锁或被选为死锁的牺牲者
+        try {
+            lockManager.acquireLock(pid, tid, type);
+        } catch (TransactionAbortedException e) {
+            transactionComplete(tid, false); // 事务中止前释放该事件所有的锁
+            throw e;
         }
-        return pages.get(pid);
     }
 
     /**
@@ -137,6 +306,11 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /** Return the trace of the lock manager's events, for debugging lock contention */
+    public LockTrace getLockTrace() {
+        return lockManager.getTrace();
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
@@ -155,7 +329,7 @@ public class BufferPool {
         if (commit) {
             //如果成功提交，将所有脏页写回磁盘
             try {
-                flushPages(tid);
+                commitPages(tid);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -190,8 +364,8 @@ public class BufferPool {
         List<Page> pageList = dbfile.insertTuple(tid, t);
         for(Page page : pageList) {
             // 可能不在bufferPool pages中的页
-            pages.put(page.getId(), page);
-            page.markDirty(true, tid);
+            installPage(page);
+            pageChanged(tid, page);
         }
     }
 
@@ -216,19 +390,117 @@ public class BufferPool {
         List<Page> pageList = dbfile.deleteTuple(tid, t);       // 删除已经将页从bufferPool中修改了,但需要将修改的页写入磁盘中
         for(Page page : pageList) {
             //dbfile.writePage(page);
-            page.markDirty(true, tid);
+            // 页在 getPage 返回之后可能已被驱逐
+            installPage(page);
+            pageChanged(tid, page);
             //pages.put(page.getId(), page);
         }
     }
 
+    /**
+     * Mark a page dirty and log its changes, holding the latch of its frame
+     * so that the background writer does not write it in between.
+     */
+    private void pageChanged(TransactionId tid, Page page) throws IOException {
+        Frame frame = frames.get(page.getId());
+        synchronized (frame != null ? frame : page) {
+            page.markDirty(true, tid);
+            logChanges(tid, page);
+        }
+    }
+
+    /**
+     * Log the slot changes tid made to a page and advance its pageLSN. A
+     * page that changed outside its slots, or that cannot log its slots,
+     * is logged as a whole when it is written.
+     *
+     * @see SlotLoggedPage
+     */
+    private void logChanges(TransactionId tid, Page page) throws IOException {
+        List<SlotChange> changes = null;
+        if (page instanceof SlotLoggedPage)
+            changes = ((SlotLoggedPage) page).takeSlotChanges();
+        if (changes == null) {
+            wholePages.add(page.getId());
+            return;
+        }
+        if (changes.isEmpty())
+            return;
+        LogFile log = Database.getLogFile();
+        // 先记 recLSN 再追加: 检查点在之后取脏页表时, 这些记录不会早于检查点的起点
+        recLSNs.putIfAbsent(page.getId(), log.getEndPosition());
+        for (SlotChange change : changes)
+            page.setLSN(log.logSlotChange(tid, page.getId(), change));
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        for(ConcurrentHashMap.Entry<PageId, Page> it: pages.entrySet()) {
-            flushPage(it.getKey());
+    public void flushAllPages() throws IOException {
+        flushFrames(new ArrayList<>(frames.entrySet()), null, true);
+    }
+
+    /**
+     * Return the dirty-page table: for every page with logged changes that
+     * are not written to disk, the LSN from which the log holds them (its
+     * recLSN).
+     *
+     * @see LogFile#logCheckpoint
+     */
+    Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<>(recLSNs);
+    }
+
+    /**
+     * Hand the pages that are dirty now to the background writer, which
+     * writes them to disk one at a time while transactions go on.
+     *
+     * @see BackgroundWriter
+     */
+    void writeDirtyPagesInBackground() {
+        Set<PageId> dirty = new LinkedHashSet<>(recLSNs.keySet());
+        dirty.addAll(wholePages);
+        writer.add(dirty);
+    }
+
+    /** Wait until the background writer has written every page handed to it. */
+    public void awaitBackgroundWriter() throws IOException {
+        writer.awaitIdle();
+    }
+
+    /**
+     * Write a dirty page to disk for the background writer. The page stays
+     * dirty: it still belongs to the transaction that changed it, and
+     * becomes a before image only when that transaction commits.
+     * <p>
+     * The page is logged and written holding the monitor of the pool, which
+     * an abort holds while it rolls the transaction back from the log (see
+     * {@link #recoverPages}), so that neither happens in the middle of a
+     * rollback; the rollback drops every page of the transaction from the
+     * pool, so none is written after it. The log is forced in between,
+     * without the monitor. A page changed again meanwhile is left for a
+     * later write.
+     */
+    void writeBack(PageId pid) throws IOException {
+        List<Map.Entry<PageId, Frame>> dirty = new ArrayList<>();
+        long lsn;
+        synchronized (this) {
+            // 被 Database.reset 替换的池不再写任何页, 如同崩溃之后
+            if (Database.getBufferPool() != this)
+                return;
+            Frame frame = frames.get(pid);
+            if (frame == null)
+                return;
+            lsn = logFrames(Collections.singletonList(new AbstractMap.SimpleEntry<>(pid, frame)), null, dirty);
+        }
+        if (dirty.isEmpty())
+            return;
+        Database.getLogFile().force(lsn);
+        synchronized (this) {
+            if (Database.getBufferPool() == this)
+                writeFrames(dirty, false, lsn);
         }
     }
 
@@ -240,71 +512,264 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
 
-        pages.remove(pid);
+        evictionPolicy.remove(pid);
+        wholePages.remove(pid);
+        recLSNs.remove(pid);
+        Frame frame = frames.remove(pid);
+        if (frame != null)
+            frame.discard();
     }
+    /** Drop every page dirtied by tid from the pool, e.g. after its rollback. */
+    void discardPages(TransactionId tid) {
+        for (Map.Entry<PageId, Frame> it : frames.entrySet()) {
+            Page page = it.getValue().getPage();
+            if (page != null && tid.equals(page.isDirty()))
+                discardPage(it.getKey());
+        }
+    }
+
     // 将bufferPool中的页恢复到一个比较原始的状态
-    public synchronized void recoverPages(TransactionId tid) {
-        for(ConcurrentHashMap.Entry<PageId, Page> it : pages.entrySet()) {
-            Page nowPage = it.getValue();
-            if(nowPage.isDirty() == tid) {
-                int tableid = it.getKey().getTableId();
-                DbFile file =(HeapFile)Database.getCatalog().getDatabaseFile(tableid);
-                nowPage = file.readPage(it.getKey());
-                pages.put(nowPage.getId(), nowPage);
+    // 后台写回可能已把未提交的页写入磁盘 (steal), 所以先按日志回滚, 这时事务仍持有锁
+    // 只在回滚和替换页时持有池的锁, abort 记录在释放之后才 force
+    public void recoverPages(TransactionId tid) {
+        LogFile log = Database.getLogFile();
+        long lsn = -1;
+        synchronized (this) {
+            try {
+                lsn = log.rollbackAndAppendAbort(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+            for(Map.Entry<PageId, Frame> it : frames.entrySet()) {
+                Page nowPage = it.getValue().getPage();
+                if(nowPage != null && tid.equals(nowPage.isDirty())) {
+                    int tableid = it.getKey().getTableId();
+                    DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+                    it.getValue().replace(file.readPage(it.getKey()));
+                    wholePages.remove(it.getKey());
+                    recLSNs.remove(it.getKey());
+                }
+            }
+        }
+        try {
+            if (lsn >= 0)
+                log.force(lsn);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Write the dirty pages of the given frames to disk, or only the pages
+     * dirtied by tid if it is not null. Changes to the pages that are not
+     * logged yet are logged first, which sets their pageLSNs; the log is
+     * forced once up to the last pageLSN, and then the pages are written
+     * (write-ahead logging).
+     *
+     * @param clean whether to mark the written pages clean
+     * @return the pages written
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        if(!pages.containsKey(pid)) throw new NoSuchElementException();
-        Page page = pages.get(pid);
-        if(page == null) throw new NoSuchElementException();
-        if(page.isDirty() != null){
-            page.markDirty(false, page.isDirty());
-            // 将特定的页写入磁盘中
-            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+    private List<Page> flushFrames(List<Map.Entry<PageId, Frame>> entries, TransactionId tid, boolean clean)
+            throws IOException {
+        List<Map.Entry<PageId, Frame>> dirty = new ArrayList<>();
+        long lastLSN = logFrames(entries, tid, dirty);
+        if (dirty.isEmpty())
+            return Collections.emptyList();
+        // 所有页共用一次 force
+        Database.getLogFile().force(lastLSN);
+        return writeFrames(dirty, clean, -1);
+    }
+
+    /**
+     * Log the changes to the dirty pages of the given frames, or only of
+     * the pages dirtied by tid if it is not null, that are not logged yet.
+     *
+     * @param dirty the frames of the dirty pages are added to it
+     * @return the largest pageLSN of the dirty pages
+     */
+    private long logFrames(List<Map.Entry<PageId, Frame>> entries, TransactionId tid,
+            List<Map.Entry<PageId, Frame>> dirty) throws IOException {
+        LogFile log = Database.getLogFile();
+        long lastLSN = -1;
+        for (Map.Entry<PageId, Frame> it : entries) {
+            Frame frame = it.getValue();
+            synchronized (frame) {
+                Page page = frame.getPage();
+                TransactionId dirtier = page == null ? null : page.isDirty();
+                if (dirtier == null || (tid != null && !tid.equals(dirtier)))
+                    continue;
+                logChanges(dirtier, page);
+                if (wholePages.remove(it.getKey()) || !(page instanceof SlotLoggedPage)) {
+                    recLSNs.putIfAbsent(it.getKey(), log.getEndPosition());
+                    page.setLSN(log.logWrite(dirtier, page.getBeforeImage(), page));
+                }
+                lastLSN = Math.max(lastLSN, page.getLSN());
+                dirty.add(it);
+            }
         }
+        return lastLSN;
+    }
 
+    /**
+     * Write the dirty pages of the given frames, whose changes were logged
+     * by {@link #logFrames}, to disk.
+     *
+     * @param clean whether to mark the written pages clean
+     * @param forced the LSN up to which the log was forced, in which case a
+     *            page changed after it is skipped; or -1 to force the log
+     *            up to the pageLSN of every page
+     * @return the pages written
+     */
+    private List<Page> writeFrames(List<Map.Entry<PageId, Frame>> dirty, boolean clean, long forced)
+            throws IOException {
+        LogFile log = Database.getLogFile();
+        List<Page> written = new ArrayList<>();
+        for (Map.Entry<PageId, Frame> it : dirty) {
+            Frame frame = it.getValue();
+            // 写回时持有该 frame 的 latch, 不影响其他页
+            synchronized (frame) {
+                Page page = frame.getPage();
+                if (page == null || page.isDirty() == null)
+                    continue;
+                if (forced >= 0 && page.getLSN() > forced)
+                    continue;
+                // 日志已经落盘到 pageLSN 时不会再 force
+                log.force(page.getLSN());
+                if (clean)
+                    page.markDirty(false, page.isDirty());
+                // 将特定的页写入磁盘中
+                Database.getCatalog().getDatabaseFile(it.getKey().getTableId()).writePage(page);
+                // 写完之后才移出脏页表
+                recLSNs.remove(it.getKey());
+                written.add(page);
+            }
+        }
+        return written;
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        for(ConcurrentHashMap.Entry<PageId, Page> it: pages.entrySet()) {
-            Page nowPage = it.getValue();
-            if(tid.equals(nowPage.isDirty()))
-                flushPage(it.getKey());
-        }
+        flushFrames(new ArrayList<>(frames.entrySet()), tid, true);
+    }
 
+    /**
+     * Write the pages of a committing transaction to disk and make them the
+     * before images of later transactions.
+     */
+    private void commitPages(TransactionId tid) throws IOException {
+        for (Page page : flushFrames(new ArrayList<>(frames.entrySet()), tid, true))
+            page.setBeforeImage();
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        // 每次都驱逐第一个
-        boolean flag = false;
-        for(ConcurrentHashMap.Entry<PageId, Page> it: pages.entrySet()) {
-            if(it.getValue().isDirty() == null) {
-                discardPage(it.getKey());
-                flag = true;
-                break;
+        // 由替换策略选出一个干净且未被 pin 的页驱逐 (NO STEAL)
+        while (true) {
+            PageId victim = evictionPolicy.chooseVictim(pid -> {
+                Frame frame = frames.get(pid);
+                return frame != null && frame.isEvictable();
+            });
+            if(victim == null) throw new DbException("there are all dirty pages");
+            Frame frame = frames.get(victim);
+            // 选中之后可能又被 pin 住或弄脏, 此时重新选择
+            if (frame != null && frame.evict()) {
+                evictionPolicy.remove(victim);
+                frames.remove(victim, frame);
+                return;
             }
         }
-        if(!flag) throw new DbException("there are all dirty pages");
+    }
+
+    /**
+     * A slot of the page table. The frame's monitor is its latch: it guards
+     * the page reference, the pin count and the loading state.
+     */
+    private static final class Frame {
+        private Page page;
+        private boolean loading = true;
+        private boolean discarded = false;
+        private int pinCount = 0;
+
+        /** Pin the frame; returns false if it has already left the pool */
+        synchronized boolean pin() {
+            if (discarded)
+                return false;
+            pinCount++;
+            return true;
+        }
+
+        synchronized void unpin() {
+            pinCount--;
+        }
+
+        /** Wait until the page is read; returns null if the read failed */
+        synchronized Page awaitPage() throws DbException {
+            while (loading) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for a page to be read");
+                }
+            }
+            return discarded ? null : page;
+        }
+
+        synchronized Page getPage() {
+            return loading ? null : page;
+        }
+
+        synchronized void loaded(Page page) {
+            if (loading) {
+                this.page = page;
+                loading = false;
+                notifyAll();
+            }
+        }
+
+        /** Swap in a new version of the page; returns false if the frame left the pool */
+        synchronized boolean replace(Page page) {
+            if (discarded)
+                return false;
+            this.page = page;
+            if (loading) {
+                loading = false;
+                notifyAll();
+            }
+            return true;
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            if (loading) {
+                loading = false;
+                notifyAll();
+            }
+        }
+
+        synchronized boolean isEvictable() {
+            return !loading && !discarded && pinCount == 0 && page.isDirty() == null;
+        }
+
+        /** Mark the frame evicted if it is still evictable */
+        synchronized boolean evict() {
+            if (!isEvictable())
+                return false;
+            discarded = true;
+            return true;
+        }
     }
 
 }
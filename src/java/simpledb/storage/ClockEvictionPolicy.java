@@ -0,0 +1,72 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit on a circular list
+ * of frames, each with a reference bit that is set on every access. The
+ * clock hand sweeps the frames, clearing reference bits as it goes, and
+ * evicts the first evictable page whose bit is already clear, so a page that
+ * is touched again before the hand comes back survives another round.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private final List<PageId> frames = new ArrayList<>();
+    private final List<Boolean> referenced = new ArrayList<>();
+    private final Map<PageId, Integer> frameOf = new HashMap<>();
+    // frames whose page has been removed and can be reused
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand = 0;
+
+    public synchronized void recordAccess(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, true);
+            return;
+        }
+        if (!freeFrames.isEmpty()) {
+            frame = freeFrames.poll();
+            frames.set(frame, pid);
+            referenced.set(frame, true);
+        } else {
+            frame = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        }
+        frameOf.put(pid, frame);
+    }
+
+    public synchronized void remove(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return;
+        frames.set(frame, null);
+        referenced.set(frame, false);
+        freeFrames.push(frame);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = frames.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * n; ++step) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(frame);
+            if (pid == null)
+                continue;
+            if (referenced.get(frame)) {
+                referenced.set(frame, false);
+                continue;
+            }
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are {@link CompressedPage}s,
+ * which store every column as a dictionary and codes. It suits read-only
+ * tables whose columns have few distinct values; the file is written by
+ * {@link HeapFileEncoder#convertCompressed}, and tuples cannot be inserted
+ * into or deleted from it.
+ *
+ * @see CompressedPage
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file written by HeapFileEncoder.convertCompressed
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * @param mmap
+     *            if true, pages are read through a memory mapping of the file
+     */
+    public CompressedHeapFile(File f, TupleDesc td, boolean mmap) {
+        super(f, td, mmap);
+    }
+
+    @Override
+    protected Page parsePage(HeapPageId id, byte[] data) throws IOException {
+        return new CompressedPage(id, td, data);
+    }
+
+    @Override
+    protected Page parsePage(HeapPageId id, ByteBuffer data) throws IOException {
+        // 压缩页只读, 可以直接读映射的内存
+        return new CompressedPage(id, td, data.slice());
+    }
+
+    @Override
+    protected Iterator<Tuple> pageIterator(Page page) {
+        return ((CompressedPage) page).iterator();
+    }
+
+    @Override
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("compressed table " + getFile() + " is read-only");
+    }
+
+    @Override
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        throw new DbException("compressed table " + getFile() + " is read-only");
+    }
+}
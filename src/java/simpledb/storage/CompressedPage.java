@@ -0,0 +1,381 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * CompressedPage is a read-only page of a {@link CompressedHeapFile}. Each
+ * column of the page is stored on its own, as a dictionary of the distinct
+ * values of the column on the page followed by the dictionary code of every
+ * row. The codes are either bit-packed, with as few bits per code as the
+ * dictionary needs, or stored as runs of equal codes (RLE), whichever takes
+ * less room. Columns with few distinct values fit many more rows into a page
+ * than the row format of HeapPage.
+ * <p>
+ * The format of a page is:
+ * <pre>
+ *   int n                          number of tuples
+ *   for each column:
+ *     byte encoding                DICTIONARY or RLE
+ *     int d                        size of the dictionary
+ *     d values                     written with Type.write
+ *     DICTIONARY: ceil(n * w / 8) bytes with the codes of the rows, w bits
+ *                 each, most significant bit first
+ *     RLE:        int number of runs, then (int code, int length) per run
+ * </pre>
+ * The rest of the page is zero; a page of zeroes is an empty page.
+ * <p>
+ * The tuples of a page are views of its rows whose fields are the values
+ * of the dictionaries, so reading a field creates nothing. A predicate on a
+ * column is evaluated once for every value of the dictionary, and rows are
+ * then tested by their code (see {@link #matches}). This holds for the batch
+ * path too: a Filter over a SeqScan tests the tuples of the scan before
+ * they are decoded into a TupleBatch (see SeqScan#nextBatch(Predicate)).
+ *
+ * @see HeapFileEncoder#convertCompressed
+ */
+public class CompressedPage implements Page {
+
+    static final byte DICTIONARY = 0;
+    static final byte RLE = 1;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final ByteBuffer data;
+    private final int numTuples;
+    private final Field[][] dictionaries;
+    private final byte[] encodings;
+    // DICTIONARY: 每个 code 的位数和 code 在页中的起点
+    private final int[] codeWidths;
+    private final int[] codeOffsets;
+    // RLE: 每个 run 的结束行(不含)和 code
+    private final int[][] runEnds;
+    private final int[][] runCodes;
+    // 每列最近一个谓词在各个字典值上的结果
+    private final Memo[] memos;
+
+    private boolean dirty = false;
+    private TransactionId dirtyId;
+    private volatile long lsn = 0;
+
+    /**
+     * Create a CompressedPage from the bytes of a page in the format
+     * described above.
+     */
+    public CompressedPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        this(id, td, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a CompressedPage from the bytes of a page between position 0
+     * and the limit of data, e.g. a slice of a memory-mapped file. Since a
+     * compressed page is never written, the page reads data without copying
+     * it.
+     *
+     * @see MappedFile
+     */
+    public CompressedPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.data = data;
+        int numFields = td.numFields();
+        dictionaries = new Field[numFields][];
+        encodings = new byte[numFields];
+        codeWidths = new int[numFields];
+        codeOffsets = new int[numFields];
+        runEnds = new int[numFields][];
+        runCodes = new int[numFields][];
+        memos = new Memo[numFields];
+
+        ByteBuffer buf = data.duplicate();
+        buf.position(0);
+        try {
+            numTuples = buf.getInt();
+            if (numTuples < 0)
+                throw new IOException("bad tuple count in page " + id.getPageNumber());
+            for (int c = 0; c < numFields; c++) {
+                encodings[c] = buf.get();
+                int d = buf.getInt();
+                if (d < 0 || d > Math.max(numTuples, 0))
+                    throw new IOException("bad dictionary in page " + id.getPageNumber());
+                dictionaries[c] = new Field[d];
+                for (int i = 0; i < d; i++)
+                    dictionaries[c][i] = td.getFieldType(c).read(buf);
+                if (encodings[c] == DICTIONARY) {
+                    codeWidths[c] = bitWidth(d);
+                    codeOffsets[c] = buf.position();
+                    buf.position(buf.position() + packedSize(numTuples, codeWidths[c]));
+                } else if (encodings[c] == RLE) {
+                    int runs = buf.getInt();
+                    runEnds[c] = new int[runs];
+                    runCodes[c] = new int[runs];
+                    int end = 0;
+                    for (int r = 0; r < runs; r++) {
+                        runCodes[c][r] = buf.getInt();
+                        end += buf.getInt();
+                        runEnds[c][r] = end;
+                    }
+                    if (end != numTuples)
+                        throw new IOException("bad runs in page " + id.getPageNumber());
+                } else {
+                    throw new IOException("unknown encoding " + encodings[c] + " in page " + id.getPageNumber());
+                }
+            }
+        } catch (ParseException | RuntimeException e) {
+            // BufferUnderflowException, or a bad offset
+            throw new IOException("cannot read page " + id.getPageNumber(), e);
+        }
+    }
+
+    /** @return the number of bits in a code of a dictionary with d values */
+    static int bitWidth(int d) {
+        return d <= 1 ? 1 : 32 - Integer.numberOfLeadingZeros(d - 1);
+    }
+
+    /** @return the number of bytes taken by n codes of width bits */
+    static int packedSize(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /** @return the code of the value of a column in a row */
+    int getCode(int col, int row) {
+        if (encodings[col] == RLE) {
+            int[] ends = runEnds[col];
+            int lo = 0, hi = ends.length - 1;
+            // 第一个结束行大于 row 的 run
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ends[mid] > row)
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            return runCodes[col][lo];
+        }
+        int w = codeWidths[col];
+        long bit = (long) row * w;
+        int p = codeOffsets[col] + (int) (bit >>> 3);
+        int shift = (int) (bit & 7);
+        int nbytes = (shift + w + 7) >>> 3;
+        long v = 0;
+        for (int k = 0; k < nbytes; k++)
+            v = (v << 8) | (data.get(p + k) & 0xff);
+        return (int) ((v >>> (nbytes * 8 - shift - w)) & ((1L << w) - 1));
+    }
+
+    /** @return the value of a column in a row */
+    Field getValue(int col, int row) {
+        return dictionaries[col][getCode(col, row)];
+    }
+
+    /**
+     * @return true if the value of a column in a row compares with operand
+     *         by op. The comparison is made once for each value of the
+     *         dictionary of the column, and remembered for as long as the
+     *         same operand object is compared with the same op, e.g. by one
+     *         Predicate.
+     */
+    boolean matches(int col, int row, Predicate.Op op, Field operand) {
+        Memo m = memos[col];
+        if (m == null || m.op != op || m.operand != operand) {
+            Field[] dict = dictionaries[col];
+            boolean[] result = new boolean[dict.length];
+            for (int i = 0; i < dict.length; i++)
+                result[i] = dict[i].compare(op, operand);
+            m = new Memo(op, operand, result);
+            // 并发读者可能各算一次, 结果相同
+            memos[col] = m;
+        }
+        return m.result[getCode(col, row)];
+    }
+
+    /**
+     * @return an iterator over the tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                return row < numTuples;
+            }
+
+            @Override
+            public Tuple next() {
+                if (row >= numTuples)
+                    throw new NoSuchElementException();
+                CompressedTuple t = new CompressedTuple(CompressedPage.this, td, row, new RecordId(pid, row));
+                row++;
+                return t;
+            }
+        };
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtyId : null;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtyId = tid;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = data.duplicate();
+        buf.position(0);
+        buf.get(page, 0, Math.min(page.length, buf.remaining()));
+        return page;
+    }
+
+    /** A compressed page never changes, so it is its own before image. */
+    public CompressedPage getBeforeImage() {
+        return this;
+    }
+
+    public void setBeforeImage() {
+    }
+
+    /** The result of a predicate on each value of a dictionary. */
+    private static final class Memo {
+        final Predicate.Op op;
+        final Field operand;
+        final boolean[] result;
+
+        Memo(Predicate.Op op, Field operand, boolean[] result) {
+            this.op = op;
+            this.operand = operand;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Builds compressed pages from rows. Rows are added until the next one
+     * would not fit into the page.
+     */
+    static class Builder {
+        private final TupleDesc td;
+        private final int pageSize;
+        private final List<Field[]> rows = new ArrayList<>();
+        private final List<Map<Field, Integer>> dictionaries = new ArrayList<>();
+        private final int[] dictionaryBytes;
+        private final int[] runs;
+
+        Builder(TupleDesc td, int pageSize) {
+            this.td = td;
+            this.pageSize = pageSize;
+            for (int c = 0; c < td.numFields(); c++)
+                dictionaries.add(new LinkedHashMap<>());
+            dictionaryBytes = new int[td.numFields()];
+            runs = new int[td.numFields()];
+        }
+
+        boolean isEmpty() {
+            return rows.isEmpty();
+        }
+
+        /**
+         * Add a row to the page, unless the page is not empty and the row
+         * would not fit.
+         *
+         * @return true if the row was added
+         */
+        boolean add(Field[] row) {
+            int n = rows.size() + 1;
+            Field[] last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+            long size = 4;
+            for (int c = 0; c < row.length; c++) {
+                boolean added = !dictionaries.get(c).containsKey(row[c]);
+                int d = dictionaries.get(c).size() + (added ? 1 : 0);
+                int bytes = dictionaryBytes[c] + (added ? td.getFieldType(c).getLen(row[c]) : 0);
+                int r = runs[c] + (last == null || !last[c].equals(row[c]) ? 1 : 0);
+                size += columnSize(n, d, bytes, r);
+            }
+            if (size > pageSize && !rows.isEmpty())
+                return false;
+            for (int c = 0; c < row.length; c++) {
+                Map<Field, Integer> dict = dictionaries.get(c);
+                if (!dict.containsKey(row[c])) {
+                    dict.put(row[c], dict.size());
+                    dictionaryBytes[c] += td.getFieldType(c).getLen(row[c]);
+                }
+                if (last == null || !last[c].equals(row[c]))
+                    runs[c]++;
+            }
+            rows.add(row);
+            return true;
+        }
+
+        private static long columnSize(int n, int d, int dictionaryBytes, int runs) {
+            return 1 + 4 + dictionaryBytes + Math.min(packedSize(n, bitWidth(d)), 4 + 8L * runs);
+        }
+
+        /** @return the bytes of a page with the rows added so far */
+        byte[] build() throws IOException {
+            int n = rows.size();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeInt(n);
+            for (int c = 0; c < td.numFields(); c++) {
+                Map<Field, Integer> dict = dictionaries.get(c);
+                int width = bitWidth(dict.size());
+                boolean rle = 4 + 8L * runs[c] < packedSize(n, width);
+                dos.writeByte(rle ? RLE : DICTIONARY);
+                dos.writeInt(dict.size());
+                for (Field f : dict.keySet())
+                    td.getFieldType(c).write(f, dos);
+                if (rle) {
+                    dos.writeInt(runs[c]);
+                    int start = 0;
+                    for (int i = 1; i <= n; i++) {
+                        if (i == n || !rows.get(i)[c].equals(rows.get(start)[c])) {
+                            dos.writeInt(dict.get(rows.get(start)[c]));
+                            dos.writeInt(i - start);
+                            start = i;
+                        }
+                    }
+                } else {
+                    byte[] codes = new byte[packedSize(n, width)];
+                    for (int i = 0; i < n; i++) {
+                        int code = dict.get(rows.get(i)[c]);
+                        for (int j = 0; j < width; j++) {
+                            if (((code >>> (width - 1 - j)) & 1) != 0) {
+                                long pos = (long) i * width + j;
+                                codes[(int) (pos >>> 3)] |= 0x80 >>> (pos & 7);
+                            }
+                        }
+                    }
+                    dos.write(codes);
+                }
+            }
+            dos.flush();
+            if (baos.size() > pageSize)
+                throw new IOException("a row does not fit into a page of " + pageSize + " bytes");
+            return Arrays.copyOf(baos.toByteArray(), pageSize);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+
+/**
+ * A view of one row of a CompressedPage. Its fields are the values of the
+ * dictionaries of the page, and comparisons of its fields are answered from
+ * the codes of the row (see {@link CompressedPage#matches}). A field set with
+ * {@link #setField} only changes this tuple, since compressed pages are
+ * read-only.
+ */
+final class CompressedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CompressedPage page;
+    private final int row;
+
+    CompressedTuple(CompressedPage page, TupleDesc td, int row, RecordId rid) {
+        super(td, new Field[td.numFields()]);
+        this.page = page;
+        this.row = row;
+        this.id = rid;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = fields[i];
+        return f != null ? f : page.getValue(i, row);
+    }
+
+    @Override
+    public boolean compare(int i, Predicate.Op op, Field operand) {
+        if (fields[i] != null)
+            return super.compare(i, op, operand);
+        return page.matches(i, row, op, operand);
+    }
+}
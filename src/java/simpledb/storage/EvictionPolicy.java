@@ -0,0 +1,42 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should drop
+ * when it runs out of frames. The BufferPool reports every page access and
+ * every page that leaves the pool; the policy keeps whatever bookkeeping it
+ * needs to rank the resident pages.
+ * <p>
+ * Implementations must be safe to call from multiple threads.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Record that the specified page was read or written through the buffer
+     * pool. Called both when a page is first brought into the pool and on
+     * every later hit.
+     *
+     * @param pid the id of the accessed page
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Forget the specified page; it is no longer resident in the buffer pool.
+     *
+     * @param pid the id of the removed page
+     */
+    void remove(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The policy must only return
+     * pages for which <code>evictable</code> holds (the buffer pool uses this
+     * to skip dirty pages).
+     *
+     * @param evictable test telling whether a resident page may be evicted
+     * @return the id of the page to evict, or null if no page may be evicted
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
@@ -15,6 +15,7 @@ public class HeapDbFileIterator implements DbFileIterator {
     private final int tableId;
     private Iterator<Tuple> pageIterator;
     private int pageCur = 0;
+    private ScanRing ring;
 
     public HeapDbFileIterator(HeapFile hf, TransactionId tid) {
         this.hf = hf;
@@ -24,12 +25,13 @@ public class HeapDbFileIterator implements DbFileIterator {
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        if (pageCur >= hf.numPages()) {
+        int numPages = hf.numPages();
+        if (pageCur >= numPages) {
             return;
         }
-        PageId pageId = new HeapPageId(tableId, pageCur);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-        pageIterator = page.iterator();
+        // 大表的扫描使用私有的 scan ring, 避免把其他事务的页挤出缓冲池
+        ring = Database.getBufferPool().newScanRing(numPages);
+        pageIterator = readPage(pageCur);
     }
 
     @Override
@@ -46,9 +48,7 @@ public class HeapDbFileIterator implements DbFileIterator {
                 pageIterator = null;
                 return false;
             }
-            PageId pageId = new HeapPageId(tableId, pageCur);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-            pageIterator = page.iterator();
+            pageIterator = readPage(pageCur);
         }
     }
 
@@ -66,22 +66,26 @@ public class HeapDbFileIterator implements DbFileIterator {
                 pageIterator = null;
                 throw new NoSuchElementException();
             }
-            PageId pageId = new HeapPageId(tableId, pageCur);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-            pageIterator = page.iterator();
+            pageIterator = readPage(pageCur);
         }
     }
 
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
         pageCur = 0;
-        PageId pageId = new HeapPageId(tableId, pageCur);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-        pageIterator = page.iterator();
+        pageIterator = readPage(pageCur);
     }
 
     @Override
     public void close() {
         pageIterator = null;
+        pageCur = 0;
+        ring = null;
+    }
+
+    private Iterator<Tuple> readPage(int pageNo) throws DbException, TransactionAbortedException {
+        PageId pageId = new HeapPageId(tableId, pageNo);
+        Page page = Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY, ring);
+        return hf.pageIterator(page);
     }
 }
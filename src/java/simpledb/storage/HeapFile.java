@@ -8,6 +8,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -16,6 +19,12 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * The file is opened once, as a FileChannel, and pages are read and written
+ * with positional I/O, which does not move a shared file pointer and so is
+ * safe to use from several threads at once. A read-mostly table can also be
+ * opened memory-mapped, in which case each page is copied out of the mapped
+ * file instead of being read with a system call (see {@link MappedFile}).
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -23,7 +32,8 @@ import java.util.*;
 public class HeapFile implements DbFile {
 
     private File file;
-    private final RandomAccessFile  rf;
+    private final FileChannel channel;
+    private final MappedFile mapped;
     TupleDesc td;
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,13 +43,35 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mmap
+     *            if true, pages are read through a memory mapping of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mmap) {
         this.file = f;
         this.td = td;
         try {
-            this.rf = new RandomAccessFile(f, "rw");
-        } catch (FileNotFoundException e) {
+            this.channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
             throw new RuntimeException(e.getMessage());
         }
+        this.mapped = mmap ? new MappedFile(channel) : null;
+    }
+
+    /**
+     * @return true if pages of this file are read through a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return mapped != null;
     }
 
     /**
@@ -75,21 +107,50 @@ public class HeapFile implements DbFile {
     }
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        int offset = BufferPool.getPageSize() * pid.getPageNumber();
-        byte[] buf = new byte[BufferPool.getPageSize()];
+        long offset = (long) BufferPool.getPageSize() * pid.getPageNumber();
+        HeapPageId hpid = new HeapPageId(pid.getTableId(),pid.getPageNumber());
         try{
-            RandomAccessFile rdf = new RandomAccessFile(file, "r");
-            rdf.seek(offset);
-            if(rdf.read(buf) == -1){
-                return null;
+            if (mapped != null) {
+                ByteBuffer view = mapped.slice(offset, BufferPool.getPageSize());
+                if (view != null)
+                    return parsePage(hpid, view);
             }
-            rdf.close();
-            return new HeapPage(new HeapPageId(pid.getTableId(),pid.getPageNumber()), buf);
-        }catch(Exception ex) {
-            throw new IllegalArgumentException();
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+            // 定位读不改变 channel 的位置, 多个线程可以同时读
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            if (buf.position() == 0)
+                throw new IllegalArgumentException("page " + pid.getPageNumber() + " is past the end of " + file);
+            return parsePage(hpid, buf.array());
+        }catch(IOException ex) {
+            throw new IllegalArgumentException(ex);
         }
+    }
 
+    /**
+     * @return the page stored in data. Files that store their pages in
+     *         another format override this and the other parsePage.
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    protected Page parsePage(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, data);
+    }
 
+    /**
+     * @return the page stored between the position and the limit of data
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    protected Page parsePage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
+    /**
+     * @return an iterator over the tuples on a page of this file
+     */
+    protected Iterator<Tuple> pageIterator(Page page) {
+        return ((HeapPage) page).iterator();
     }
 
     // see DbFile.java for javadocs
@@ -103,9 +164,10 @@ public class HeapFile implements DbFile {
         HeapPageId hpid = (HeapPageId) page.getId();
         int pgNo = hpid.getPageNumber();
         int pageSize = BufferPool.getPageSize();
-        int offset = pageSize * pgNo;
-        rf.seek(offset);
-        rf.write(page.getPageData());
+        long offset = (long) pageSize * pgNo;
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        while (data.hasRemaining())
+            channel.write(data, offset + data.position());
     }
 
     /**
@@ -127,7 +189,7 @@ public class HeapFile implements DbFile {
             nowPage = (HeapPage) Database.getBufferPool().getPage(tid,
                     new HeapPageId(this.getId(), i), Permissions.READ_WRITE);
             // 当在一个页中招不到对应的空slot,那么可以释放该页上的锁
-            if(nowPage.getNumEmptySlots() == 0) {
+            if(!nowPage.hasRoomFor(t)) {
                 Database.getBufferPool().unsafeReleasePage(tid, nowPage.getId());
                 continue;
             }
@@ -138,7 +200,7 @@ public class HeapFile implements DbFile {
         }
         // if the pages in bufferPool is full, add new page
         HeapPageId pageid = new HeapPageId(getId(), this.numPages());
-        nowPage = new HeapPage(pageid, HeapPage.createEmptyPageData());
+        nowPage = (HeapPage) parsePage(pageid, HeapPage.createEmptyPageData());
         // 将对应新添加的页写入磁盘中
         nowPage.insertTuple(t);
         pageList.add(nowPage);
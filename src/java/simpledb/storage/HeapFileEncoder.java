@@ -4,8 +4,11 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -93,6 +96,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i].isVariableLength()) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -224,4 +234,195 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert the input text file into slotted pages, for tables with
+   * variable-length fields. The format of the input file is the same as
+   * for {@link #convert(File, File, int, int, Type[], char)}; the format of
+   * the pages is described in HeapPage.
+   *
+   * @see HeapPage
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      List<byte[]> records = new ArrayList<>();
+      int used = 4;
+      int npages = 0;
+      ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream();
+      DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.isEmpty())
+              continue;
+          Field[] row = parseLine(line, numFields, typeAr, fieldSeparator);
+          recordBAOS.reset();
+          for (int i = 0; i < numFields; i++)
+              typeAr[i].write(row[i], recordStream);
+          recordStream.flush();
+          byte[] record = recordBAOS.toByteArray();
+          // 一个元组要一个目录项
+          if (used + 8 + record.length > npagebytes) {
+              writeSlottedPage(os, records, npagebytes);
+              npages++;
+              records.clear();
+              used = 4;
+          }
+          records.add(record);
+          used += 8 + record.length;
+      }
+      if (!records.isEmpty() || npages == 0)
+          writeSlottedPage(os, records, npagebytes);
+      br.close();
+      os.close();
+  }
+
+  /**
+   * Convert the specified input text file into a file of compressed pages,
+   * which a {@link CompressedHeapFile} reads. The format of the input file
+   * is the same as for {@link #convert(File, File, int, int, Type[], char)};
+   * rows are packed into a page until the next one would not fit.
+   *
+   * @see CompressedPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertCompressed(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      CompressedPage.Builder page = new CompressedPage.Builder(td, npagebytes);
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.isEmpty())
+              continue;
+          Field[] row = parseLine(line, numFields, typeAr, fieldSeparator);
+          if (!page.add(row)) {
+              os.write(page.build());
+              npages++;
+              page = new CompressedPage.Builder(td, npagebytes);
+              page.add(row);
+          }
+      }
+      if (!page.isEmpty() || npages == 0)
+          os.write(page.build());
+      br.close();
+      os.close();
+  }
+
+  /**
+   * Convert the specified input text file into a file of columnar pages,
+   * which a {@link PaxHeapFile} reads. The format of the input file is the
+   * same as for {@link #convert(File, File, int, int, Type[], char)}, and a
+   * page holds as many tuples as a row page; the format of the pages is
+   * described in HeapPage.
+   *
+   * @see HeapPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened, a
+   *   malformed input line is encountered, or a type is variable-length
+   */
+  public static void convertColumnar(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      int nrecbytes = 0;
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i].isVariableLength())
+              throw new IOException("columnar pages cannot hold variable-length fields");
+          nrecbytes += typeAr[i].getLen();
+      }
+      int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      List<Field[]> rows = new ArrayList<>();
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.isEmpty())
+              continue;
+          rows.add(parseLine(line, numFields, typeAr, fieldSeparator));
+          if (rows.size() == nrecords) {
+              writeColumnarPage(os, rows, nrecords, numFields, typeAr, npagebytes);
+              npages++;
+              rows.clear();
+          }
+      }
+      if (!rows.isEmpty() || npages == 0)
+          writeColumnarPage(os, rows, nrecords, numFields, typeAr, npagebytes);
+      br.close();
+      os.close();
+  }
+
+  private static void writeColumnarPage(OutputStream os, List<Field[]> rows, int nrecords,
+                 int numFields, Type[] typeAr, int npagebytes)
+      throws IOException {
+      byte[] page = new byte[npagebytes];
+      for (int i = 0; i < rows.size(); i++)
+          page[i / 8] |= (byte) (1 << (i % 8));
+      int offset = (nrecords + 7) / 8;
+      ByteArrayOutputStream value = new ByteArrayOutputStream();
+      DataOutputStream valueStream = new DataOutputStream(value);
+      for (int j = 0; j < numFields; j++) {
+          int len = typeAr[j].getLen();
+          for (int i = 0; i < rows.size(); i++) {
+              value.reset();
+              rows.get(i)[j].serialize(valueStream);
+              System.arraycopy(value.toByteArray(), 0, page, offset + i * len, len);
+          }
+          // 空 slot 也占列中的位置
+          offset += nrecords * len;
+      }
+      os.write(page);
+  }
+
+  /** @return the fields of one line of an input text file */
+  private static Field[] parseLine(String line, int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+      if (values.length != numFields)
+          throw new IOException("BAD LINE : " + line);
+      Field[] row = new Field[numFields];
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i] == Type.INT_TYPE) {
+              try {
+                  row[i] = new IntField(Integer.parseInt(values[i].trim()));
+              } catch (NumberFormatException e) {
+                  throw new IOException("BAD LINE : " + line);
+              }
+          } else {
+              row[i] = new StringField(values[i].trim(), Type.STRING_LEN);
+          }
+      }
+      return row;
+  }
+
+  private static void writeSlottedPage(OutputStream os, List<byte[]> records, int npagebytes)
+      throws IOException {
+      ByteBuffer page = ByteBuffer.allocate(npagebytes);
+      page.putInt(0, records.size());
+      int end = npagebytes;
+      for (int i = 0; i < records.size(); i++) {
+          byte[] record = records.get(i);
+          end -= record.length;
+          System.arraycopy(record, 0, page.array(), end, record.length);
+          page.putInt(4 + 8 * i, end);
+          page.putInt(8 + 8 * i, record.length);
+      }
+      os.write(page.array());
+  }
 }
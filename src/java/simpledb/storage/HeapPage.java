@@ -5,27 +5,64 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and does not parse its tuples
+ * up front. The tuples on it are views of their slots in those bytes (see
+ * {@link HeapPageTuple}) that parse a field the first time it is read, so
+ * a scan that only looks at a few fields, or a filter that rejects most
+ * tuples, does not create a Field for every value on the page. The bytes
+ * are never written: inserted tuples are kept as objects and written out
+ * by {@link #getPageData}.
+ * <p>
+ * Tables with variable-length fields (see {@link TupleDesc#isVariableLength})
+ * are stored in slotted pages instead, where every tuple takes only the
+ * bytes its values need. A slotted page starts with the number n of slots
+ * in its directory, followed by n (offset, length) pairs of ints, one for
+ * each slot; an offset of 0 marks an empty slot. The tuples are packed at
+ * the end of the page, and are written field by field with
+ * {@link Type#write}.
+ * <p>
+ * A page of a table with only fixed-length fields can also be columnar
+ * (PAX): it holds the same slots and header as a row page, but after the
+ * header come the values of the first field of every slot, then those of
+ * the second field, and so on. A scan that reads a few columns then reads
+ * contiguous bytes for each of them. See {@link PaxHeapFile}.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlotLoggedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
+    // 分槽页的 header 只在内存中, 由槽目录得到
     final byte[] header;
+    final boolean slotted;
+    final boolean columnar;
+    // 读入时的页内容, 只读
+    final byte[] data;
+    // 每个字段在 slot 中的偏移; 列式页中为每列在页中的起点
+    final int[] fieldOffsets;
+    // 已经取过或插入的元组; 其余在用的 slot 从 data 中按需解析
     final Tuple[] tuples;
     final int numSlots;
+    // 分槽页: 读入时每个 slot 在 data 中的位置和长度, 以及在用元组的总长度
+    final int[] slotStarts;
+    final int[] slotLengths;
+    int usedBytes;
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
     private boolean dirty = false;
     TransactionId dirtyId;
+    private volatile long lsn = 0;
+    private final SlotChanges slotChanges = new SlotChanges(this);
 
 
     /**
@@ -40,40 +77,117 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Slotted pages are described above. The page keeps data instead of
+     * copying it, so the caller must not modify it afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage from a set of bytes of data read from disk, which
+     * is in the columnar format described above if columnar is true.
+     *
+     * @throws IOException if columnar is true and the table has
+     *         variable-length fields
+     */
+    public HeapPage(HeapPageId id, byte[] data, boolean columnar) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.slotted = td.isVariableLength();
+        this.columnar = columnar;
+        if (columnar && slotted)
+            throw new IOException("a table with variable-length fields cannot have columnar pages");
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        if (data.length < BufferPool.getPageSize())
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        this.data = data;
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        if (slotted) {
+            // the offsets of the fields differ from tuple to tuple
+            fieldOffsets = null;
+            header = new byte[getHeaderSize()];
+            slotStarts = new int[numSlots];
+            slotLengths = new int[numSlots];
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            int n = buf.getInt(0);
+            if (n < 0 || n > numSlots)
+                throw new IOException("bad slot directory in page " + id.getPageNumber());
+            for (int i = 0; i < n; i++) {
+                int start = buf.getInt(4 + 8 * i);
+                int len = buf.getInt(8 + 8 * i);
+                if (start == 0)
+                    continue;
+                if (len < 0 || start < 4 + 8 * n || start + len > data.length)
+                    throw new IOException("bad slot " + i + " in page " + id.getPageNumber());
+                markSlotUsed(i, true);
+                slotStarts[i] = start;
+                slotLengths[i] = len;
+                usedBytes += len;
+            }
+        } else {
+            fieldOffsets = new int[td.numFields()];
+            if (columnar) {
+                // 每列连续存放所有 slot 的值
+                fieldOffsets[0] = getHeaderSize();
+                for (int j = 1; j < fieldOffsets.length; j++)
+                    fieldOffsets[j] = fieldOffsets[j - 1] + numSlots * td.getFieldType(j - 1).getLen();
+            } else {
+                for (int j = 1; j < fieldOffsets.length; j++)
+                    fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+            }
+            // the header is copied, since it changes with the slots in use
+            header = Arrays.copyOf(data, getHeaderSize());
+            slotStarts = null;
+            slotLengths = null;
         }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Create a HeapPage from the bytes between the position and the limit of
+     * a buffer, e.g. a slice of a memory-mapped file. The format is the same
+     * as for {@link #HeapPage(HeapPageId, byte[])}. The page is copied out
+     * of the buffer: the views of its tuples are handed to operators and can
+     * outlive the page, while a mapped file changes when a newer version of
+     * the page is written to it. The position of the buffer is advanced past
+     * the page.
+     *
+     * @see MappedFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, read(data), false);
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit of
+     * a buffer, which are in the columnar format if columnar is true.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data, boolean columnar) throws IOException {
+        this(id, read(data), columnar);
+    }
+
+    private static byte[] read(ByteBuffer data) {
+        byte[] bytes = new byte[Math.min(data.remaining(), BufferPool.getPageSize())];
+        data.get(bytes);
+        return bytes;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        int tableId = pid.getTableId();
-        int tupleSize = Database.getCatalog().getTupleDesc(tableId).getSize();
+        if (slotted) {
+            // 每个元组至少占一个目录项和最短的记录
+            return (BufferPool.getPageSize() - 4) / (8 + td.getMinSize());
+        }
+        int tupleSize = td.getSize();
          return (int)Math.floor((BufferPool.getPageSize()*8) / (float)(tupleSize * 8 + 1));
 
 
@@ -97,7 +211,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldDataRef,columnar);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -120,37 +234,36 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    /** @return the offset of a slot in the bytes of a page that is not slotted */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /** @return the number of slots in the directory of a slotted page */
+    private int directorySize() {
+        int n = numSlots;
+        while (n > 0 && !isSlotUsed(n - 1))
+            n--;
+        return n;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in a slot that is in use, creating a view of it if
+     *         it has not been read yet
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            // 并发读者可能各建一个视图, 它们内容相同
+            RecordId rid = new RecordId(pid, slotId);
+            if (slotted)
+                t = new HeapPageTuple(td, data, null, slotStarts[slotId], slotLengths[slotId], rid);
+            else if (columnar)
+                t = new HeapPageTuple(td, data, fieldOffsets, slotId, rid);
+            else
+                t = new HeapPageTuple(td, data, fieldOffsets, slotOffset(slotId), td.getSize(), rid);
+            tuples[slotId] = t;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
         return t;
     }
 
@@ -166,63 +279,126 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        if (slotted)
+            return getSlottedPageData();
+        if (columnar)
+            return getColumnarPageData();
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        int tupleSize = td.getSize();
+        byte[] page = new byte[len];
+        System.arraycopy(header, 0, page, 0, header.length);
 
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+        for (int i=0; i<tuples.length; i++) {
+
+            // empty slot
+            if (!isSlotUsed(i))
+                continue;
+
+            // a slot that has not changed since the page was read
+            Tuple t = tuples[i];
+            if (t == null) {
+                System.arraycopy(data, slotOffset(i), page, slotOffset(i), tupleSize);
+                continue;
             }
+            // 可能是从其他页读出的元组, 格式相同才能直接复制
+            if (t instanceof HeapPageTuple && ((HeapPageTuple) t).canCopyTo(td, false)) {
+                ((HeapPageTuple) t).copySlot(page, slotOffset(i));
+                continue;
+            }
+
+            // an inserted or modified tuple
+            byte[] bytes = serialize(t, false);
+            System.arraycopy(bytes, 0, page, slotOffset(i), Math.min(bytes.length, tupleSize));
         }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        return page;
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+    private byte[] getColumnarPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, page, 0, header.length);
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            Tuple t = tuples[i];
+            // 本页未改动的 slot 在 data 中的位置和新页中相同; 其他页读出的元组要逐个字段写
+            boolean unchanged = t == null || (t instanceof HeapPageTuple && ((HeapPageTuple) t).isColumnarSlot(data, i));
+            for (int j = 0; j < fieldOffsets.length; j++) {
+                int len = td.getFieldType(j).getLen();
+                int offset = fieldOffsets[j] + i * len;
+                if (unchanged) {
+                    System.arraycopy(data, offset, page, offset, len);
+                } else {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
                     try {
-                        dos.writeByte(0);
+                        t.getField(j).serialize(new DataOutputStream(baos));
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
-
+                    System.arraycopy(baos.toByteArray(), 0, page, offset, Math.min(baos.size(), len));
                 }
-                continue;
             }
+        }
+        return page;
+    }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    private byte[] getSlottedPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int n = directorySize();
+        buf.putInt(0, n);
+        // 元组从页尾向前存放
+        int end = page.length;
+        for (int i = 0; i < n; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            Tuple t = tuples[i];
+            int len;
+            if (t == null) {
+                len = slotLengths[i];
+                end -= len;
+                System.arraycopy(data, slotStarts[i], page, end, len);
+            } else if (t instanceof HeapPageTuple && ((HeapPageTuple) t).canCopyTo(td, true)) {
+                len = ((HeapPageTuple) t).getLength();
+                end -= len;
+                ((HeapPageTuple) t).copySlot(page, end);
+            } else {
+                byte[] bytes = serialize(t, true);
+                len = bytes.length;
+                end -= len;
+                if (end < 4 + 8 * n)
+                    throw new IllegalStateException("the tuples do not fit in page " + pid.getPageNumber());
+                System.arraycopy(bytes, 0, page, end, len);
             }
+            buf.putInt(4 + 8 * i, end);
+            buf.putInt(8 + 8 * i, len);
         }
+        return page;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * @return the bytes of t, written with {@link Type#write} if variable
+     *         is true and with Field.serialize otherwise
+     */
+    private byte[] serialize(Tuple t, boolean variable) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int j=0; j<td.numFields(); j++) {
+            Field f = t.getField(j);
+            try {
+                if (variable)
+                    td.getFieldType(j).write(f, dos);
+                else
+                    f.serialize(dos);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
-
         try {
             dos.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
-
         return baos.toByteArray();
     }
 
@@ -252,11 +428,13 @@ public class HeapPage implements Page {
         if(!t.getRecordId().getPageId().equals(this.pid)) throw new DbException("No such tuple");
 
         int tupleNo = t.getRecordId().getTupleNumber();// 得到页中的tuple位置号
-        if(tupleNo < 0 || tuples[tupleNo] == null ||
-                !t.getTupleDesc().equals(td) || !isSlotUsed(tupleNo)) throw new DbException("No such tuple");
+        if(tupleNo < 0 || !t.getTupleDesc().equals(td) || !isSlotUsed(tupleNo)) throw new DbException("No such tuple");
         else {
+            slotChanges.beforeChange(tupleNo);
             markSlotUsed(tupleNo, false);
             tuples[tupleNo] = null;
+            if (slotted)
+                usedBytes -= slotLengths[tupleNo];
         }
     }
     /**
@@ -267,10 +445,15 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        if(getNumEmptySlots() == 0) throw new DbException("Page is full !!!");
         if(!t.getTupleDesc().equals(td)) throw new DbException("tupleDescription Mismatch");
+        if(!hasRoomFor(t)) throw new DbException("Page is full !!!");
         for(int i = 0; i < tuples.length; ++i) {
             if(!isSlotUsed(i)) {
+                slotChanges.beforeChange(i);
+                if (slotted) {
+                    slotLengths[i] = td.getSize(t);
+                    usedBytes += slotLengths[i];
+                }
                 this.markSlotUsed(i, true);
                 t.setRecordId(new RecordId(this.pid, i));
                 tuples[i] = t;
@@ -295,10 +478,92 @@ public class HeapPage implements Page {
         return dirty == true ? this.dirtyId : null;
     }
 
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public List<SlotChange> takeSlotChanges() {
+        return slotChanges.take();
+    }
+
     /**
-     * Returns the number of empty slots on this page.
+     * @return the bytes of the tuple in a slot, in the format of a slotted
+     *         page if this page is slotted and of a row page otherwise
+     */
+    public byte[] getSlot(int slot) {
+        if (!isSlotUsed(slot))
+            return null;
+        return serialize(tupleAt(slot), slotted);
+    }
+
+    public void setSlot(int slot, byte[] contents) {
+        if (isSlotUsed(slot)) {
+            markSlotUsed(slot, false);
+            tuples[slot] = null;
+            if (slotted)
+                usedBytes -= slotLengths[slot];
+        }
+        if (contents == null)
+            return;
+        RecordId rid = new RecordId(pid, slot);
+        // 复制出字段, 这样元组不引用日志记录的字节
+        Tuple view = new HeapPageTuple(td, contents, null, 0, contents.length, rid);
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, view.getField(j));
+        t.setRecordId(rid);
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+        if (slotted) {
+            slotLengths[slot] = contents.length;
+            usedBytes += contents.length;
+        }
+    }
+
+    /**
+     * @return true if t can be inserted into this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        if (!slotted)
+            return getNumEmptySlots() > 0;
+        int n = directorySize();
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot))
+            slot++;
+        if (slot == numSlots)
+            return false;
+        // 用目录之外的 slot 时目录要多一项
+        int need = td.getSize(t) + (slot < n ? 0 : 8 * (slot + 1 - n));
+        return need <= getFreeSpace(n);
+    }
+
+    /** @return the bytes of a slotted page with n slots in its directory that no tuple uses */
+    private int getFreeSpace(int n) {
+        return BufferPool.getPageSize() - 4 - 8 * n - usedBytes;
+    }
+
+    /**
+     * Returns the number of empty slots on this page. For a slotted page,
+     * this is the number of tuples of the smallest size that still fit.
      */
     public int getNumEmptySlots() {
+        if (slotted) {
+            int n = directorySize();
+            int free = getFreeSpace(n);
+            int minSize = td.getMinSize();
+            int holes = 0;
+            for (int i = 0; i < n; i++) {
+                if (!isSlotUsed(i))
+                    holes++;
+            }
+            int inHoles = Math.min(holes, free / minSize);
+            free -= inHoles * minSize;
+            return inHoles + Math.min(numSlots - n, free / (8 + minSize));
+        }
         int result = 0;
         int numTuple = this.getNumTuples();
         int numHeader = this.getHeaderSize();
@@ -322,7 +587,7 @@ public class HeapPage implements Page {
      */
 
     public boolean isSlotUsed(int i) {
-        if(i >= getNumTuples() ||  i < 0) return false;
+        if(i >= numSlots ||  i < 0) return false;
         int headerIndex = i / 8;
         int shift = i % 8;
         int bits = (header[headerIndex] >> shift) & (0x1);
@@ -351,8 +616,8 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         ArrayList<Tuple> allTuples = new ArrayList<>();
         for(int i = 0; i < numSlots; ++i) {
-            if(isSlotUsed(i) && tuples[i] != null){
-                allTuples.add(tuples[i]);
+            if(isSlotUsed(i)){
+                allTuples.add(tupleAt(i));
             }
         }
         return allTuples.iterator();
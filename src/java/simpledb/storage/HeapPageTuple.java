@@ -0,0 +1,219 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * A view of one slot of a HeapPage. The view shares the bytes, the schema
+ * and the field offsets of the page, and only remembers where its slot
+ * starts; a field is parsed from the bytes the first time it is read.
+ * Comparisons of int fields with int operands read the bytes directly and
+ * never create a Field.
+ * <p>
+ * In a slotted page the fields of a tuple are not at fixed offsets; the
+ * view finds them from the lengths of its variable-length fields the
+ * first time it needs them. In a columnar page each field is in the
+ * column of its type, at the slot number times the length of the type.
+ * <p>
+ * The bytes of a page are never written, so a view stays valid after its
+ * slot is deleted or reused. A field set with {@link #setField} replaces
+ * the bytes of that field, and the page serializes the view field by field
+ * from then on.
+ *
+ * @see HeapPage
+ */
+final class HeapPageTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+    private int[] offsets;
+    private final int start;
+    private final int length;
+    // 元组是否按变长格式存放 (slotted 页)
+    private final boolean variable;
+    // 列式页: 每列在 data 中的起点, 以及本元组的 slot 号
+    private final int[] columns;
+    private final int slot;
+    // 是否有字段被 setField 改过
+    private boolean modified = false;
+
+    /**
+     * @param td the schema of the page
+     * @param data the bytes of the page
+     * @param offsets the offset of each field in a slot, or null if it
+     *            differs from slot to slot
+     * @param start the offset of the slot in data
+     * @param length the number of bytes in the slot
+     * @param rid the record id of the slot
+     */
+    HeapPageTuple(TupleDesc td, byte[] data, int[] offsets, int start, int length, RecordId rid) {
+        super(td, new Field[td.numFields()]);
+        this.data = data;
+        this.offsets = offsets;
+        this.start = start;
+        this.length = length;
+        this.variable = offsets == null;
+        this.columns = null;
+        this.slot = -1;
+        this.id = rid;
+    }
+
+    /**
+     * A view of a slot of a columnar page.
+     *
+     * @param td the schema of the page
+     * @param data the bytes of the page
+     * @param columns the offset of each column in data
+     * @param slot the slot number of the tuple
+     * @param rid the record id of the slot
+     */
+    HeapPageTuple(TupleDesc td, byte[] data, int[] columns, int slot, RecordId rid) {
+        super(td, new Field[td.numFields()]);
+        this.data = data;
+        this.offsets = null;
+        this.start = -1;
+        this.length = td.getSize();
+        this.variable = false;
+        this.columns = columns;
+        this.slot = slot;
+        this.id = rid;
+    }
+
+    /** @return the offset of the ith field in data */
+    private int address(int i) {
+        if (columns != null)
+            return columns[i] + slot * tupleDescription.getFieldType(i).getLen();
+        return start + offset(i);
+    }
+
+    /** @return the offset of the ith field in the slot */
+    private int offset(int i) {
+        if (offsets == null) {
+            int[] o = new int[fields.length];
+            int p = 0;
+            for (int j = 0; j < o.length; j++) {
+                o[j] = p;
+                Type type = tupleDescription.getFieldType(j);
+                // 变长字段以长度开头
+                p += type.isVariableLength() ? type.getMinLen() + readInt(start + p) : type.getLen();
+            }
+            offsets = o;
+        }
+        return offsets[i];
+    }
+
+    private int readInt(int p) {
+        return (data[p] << 24) | ((data[p + 1] & 0xff) << 16) | ((data[p + 2] & 0xff) << 8) | (data[p + 3] & 0xff);
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = fields[i];
+        if (f == null) {
+            f = decode(i);
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        if (i >= fields.length) return;
+        // 其他字段仍然要能写回页
+        for (int j = 0; j < fields.length; j++)
+            getField(j);
+        fields[i] = f;
+        modified = true;
+    }
+
+    @Override
+    public boolean compare(int i, Predicate.Op op, Field operand) {
+        if (fields[i] != null || !(operand instanceof IntField)
+                || tupleDescription.getFieldType(i) != Type.INT_TYPE)
+            return super.compare(i, op, operand);
+        int value = getInt(i);
+        int v = ((IntField) operand).getValue();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return value == v;
+            case NOT_EQUALS:
+                return value != v;
+            case GREATER_THAN:
+                return value > v;
+            case GREATER_THAN_OR_EQ:
+                return value >= v;
+            case LESS_THAN:
+                return value < v;
+            case LESS_THAN_OR_EQ:
+                return value <= v;
+        }
+        return false;
+    }
+
+    /** @return the value of an INT_TYPE field */
+    int getInt(int i) {
+        if (fields[i] != null)
+            return ((IntField) fields[i]).getValue();
+        return readInt(address(i));
+    }
+
+    /** @return true if the bytes of the slot still hold the values of this tuple */
+    boolean isUnmodified() {
+        return !modified;
+    }
+
+    /** @return the number of bytes in the slot */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * @return true if the bytes of the slot still hold the values of this
+     *         tuple and can be copied with {@link #copySlot} to a page whose
+     *         tuples have the types of td and are stored one after the
+     *         other, in the variable-length format if variable is true
+     */
+    boolean canCopyTo(TupleDesc td, boolean variable) {
+        if (modified || columns != null || this.variable != variable
+                || td.numFields() != tupleDescription.numFields())
+            return false;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != tupleDescription.getFieldType(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if this is the unmodified view of the given slot of the
+     *         columnar page with the given bytes
+     */
+    boolean isColumnarSlot(byte[] data, int slot) {
+        return !modified && columns != null && this.data == data && this.slot == slot;
+    }
+
+    /** Copy the bytes of the slot to dst at offset; not for a columnar page. */
+    void copySlot(byte[] dst, int offset) {
+        System.arraycopy(data, start, dst, offset, length);
+    }
+
+    private Field decode(int i) {
+        Type type = tupleDescription.getFieldType(i);
+        if (type == Type.INT_TYPE)
+            return new IntField(getInt(i));
+        try {
+            int p = address(i);
+            int len = columns != null ? type.getLen() : length - (p - start);
+            return type.read(ByteBuffer.wrap(data, p, len));
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+}
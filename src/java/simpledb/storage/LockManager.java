@@ -2,11 +2,28 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
-import java.util.NoSuchElementException;
-import java.util.Set;
+
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager keeps the page-level shared/exclusive locks of strict two-phase
+ * locking. Every page has a set of holders and a FIFO queue of waiting
+ * requests. A request that cannot be granted parks its thread until a release
+ * grants it; lock upgrades are queued ahead of other waiters. Before a request
+ * parks, the waits-for graph is searched for a cycle through the requesting
+ * transaction, and if there is one the requester is chosen as the deadlock
+ * victim and aborted.
+ * <p>
+ * The lock table is split into hash stripes, each with its own latch, so
+ * requests on pages in different stripes never contend. A reverse index from
+ * each transaction to the pages it has locked lets commit and abort release
+ * only that transaction's locks. Only deadlock detection, which runs when a
+ * request actually has to wait, latches every stripe.
+ */
 public class LockManager {
     public class PageLock {
         public static final int SHARE = 0;
@@ -27,112 +44,303 @@ public class LockManager {
             this.type = type;
         }
     }
-    private ConcurrentMap<PageId, ConcurrentMap<TransactionId, PageLock>> pageLocks;
+
+    /** A request waiting in a page's queue; granted and aborted are set by other threads */
+    private static class LockRequest {
+        final TransactionId tid;
+        final int type;
+        final Thread thread;
+        volatile boolean granted = false;
+        volatile boolean aborted = false;
+
+        LockRequest(TransactionId tid, int type, Thread thread) {
+            this.tid = tid;
+            this.type = type;
+            this.thread = thread;
+        }
+    }
+
+    /** Holders and waiters of one page */
+    private static class LockState {
+        final Map<TransactionId, PageLock> holders = new HashMap<>();
+        final LinkedList<LockRequest> waiters = new LinkedList<>();
+    }
+
+    /** One partition of the lock table; latch guards locks */
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<PageId, LockState> locks = new HashMap<>();
+    }
+
+    /** Number of lock table stripes, a power of two. */
+    public static final int NUM_STRIPES = 64;
+
+    private final Stripe[] stripes;
+    // 事务 -> 持有锁的页, 与各 stripe 中的 holders 在同一 latch 下修改
+    private final ConcurrentMap<TransactionId, Set<PageId>> heldLocks;
+    // 每个事务正在等待的页, 用来构造 waits-for 图
+    private final ConcurrentMap<TransactionId, Set<PageId>> waitingOn;
+    // 同一时刻只有一个线程做死锁检测
+    private final Object detector = new Object();
+    private final LockTrace trace;
+
     public LockManager() {
-        pageLocks = new ConcurrentHashMap<>();
-    }
-
-    public synchronized boolean requireLock(PageId pid, TransactionId tid, int requireType)
-            throws InterruptedException, TransactionAbortedException {
-        // thread: 当前线程的名字
-        final String thread  = Thread.currentThread().getName();
-        // pageLock: 当前页的对应的锁
-        final String lockType = requireType==0 ? "share_lock" : "exclusive_lock";
-        ConcurrentMap<TransactionId, PageLock> pageLock = pageLocks.get(pid);
-        // lock: 提供的事务号在提供的页号当前的锁
-        //PageLock lock = pageLock.get(tid);
-        // 当前页上没有事务,没有锁
-        if(pageLocks.size() == 0 || pageLock == null) {
-            PageLock newLock = new PageLock(tid, requireType);
-            pageLock = new ConcurrentHashMap<>();
-            pageLock.put(tid, newLock);
-            pageLocks.put(pid, pageLock);
-            System.out.println("thread: "+ thread +  "page: "+ pid + " have no transactionId, lock. " +
-                    "tid: " + tid + " acquire " + lockType + " accept. ");
-            return true;
-        }
-        PageLock lock = pageLock.get(tid);
-        // 以下就是该页上有锁的情况
-        // 1.该页上有这个事务的锁
-        if(lock != null) {
-            // 所有请求共享锁的请求被包括
-            if(requireType == PageLock.SHARE) {
-                System.out.println("thread: " + thread + "page: " + pid +
-                        " have required transactionId and lock: " + "tid: " + tid +
-                        " acquire " + lockType + " accept. ");
-                return true;
+        this(new LockTrace());
+    }
+
+    /**
+     * @param trace where lock events are recorded
+     */
+    public LockManager(LockTrace trace) {
+        this.trace = trace;
+        stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < stripes.length; ++i)
+            stripes[i] = new Stripe();
+        heldLocks = new ConcurrentHashMap<>();
+        waitingOn = new ConcurrentHashMap<>();
+    }
+
+    /** @return the trace lock events are recorded in */
+    public LockTrace getTrace() {
+        return trace;
+    }
+
+    private Stripe stripeOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * Acquire a lock of the specified type on a page, blocking until it is
+     * granted.
+     *
+     * @param pid the page to lock
+     * @param tid the transaction requesting the lock
+     * @param requireType PageLock.SHARE or PageLock.EXCLUSIVE
+     * @throws TransactionAbortedException if waiting would deadlock, or the
+     *         transaction was completed or its thread interrupted while waiting
+     */
+    public void acquireLock(PageId pid, TransactionId tid, int requireType)
+            throws TransactionAbortedException {
+        Stripe stripe = stripeOf(pid);
+        LockRequest request;
+        stripe.latch.lock();
+        try {
+            LockState state = stripe.locks.computeIfAbsent(pid, k -> new LockState());
+            if (tryGrant(pid, state, tid, requireType)) {
+                trace.record(LockTrace.Event.ACQUIRE, pid, tid, requireType);
+                return;
             }
-            // 同时，该页上有许多锁，那么这些锁都是共享锁
-            if(pageLock.size() > 1) {
-                if(requireType == PageLock.EXCLUSIVE) {
-                    System.out.println("thread: " + thread + "page: " + pid + " have many share_lock " +
-                            "tid: " + tid + " acquire " + lockType + "abort");
+            request = new LockRequest(tid, requireType, Thread.currentThread());
+            // 锁升级排在队首, 否则它会等待排在它后面、又在等它释放共享锁的请求
+            if (state.holders.containsKey(tid))
+                state.waiters.addFirst(request);
+            else
+                state.waiters.addLast(request);
+            addToIndex(waitingOn, tid, pid);
+        } finally {
+            stripe.latch.unlock();
+        }
 
-                    completeTransaction(tid);// 放掉该事务占有的所有锁
-                    throw new TransactionAbortedException();
+        if (isDeadlockVictim(pid, request)) {
+            trace.record(LockTrace.Event.DEADLOCK, pid, tid, requireType);
+            throw new TransactionAbortedException();
+        }
+        trace.record(LockTrace.Event.WAIT, pid, tid, requireType);
 
-                }
+        boolean granted = false;
+        try {
+            while (!request.granted) {
+                if (request.aborted || Thread.interrupted())
+                    throw new TransactionAbortedException();
+                LockSupport.park(this);
             }
-            // 只有一个锁，同时就是该事务的共享锁，要求一个独占锁
-            // 需要将共享锁升级为独占锁
-            if(pageLock.size() == 1 && lock.getType() == PageLock.SHARE) {
-                lock.setType(requireType);
-                pageLock.put(tid, lock);
-                pageLocks.put(pid, pageLock);
-                System.out.println("thread: "+ thread + " page: "+ pid +
-                        " required transaction has a share_lock " +
-                        " tid: " + tid + " upgrade to: " + lockType + " accept.");
+            granted = true;
+        } finally {
+            if (!granted)
+                cancel(pid, request);
+        }
+    }
+
+    /**
+     * Grant a new request immediately if possible. A request is never granted
+     * ahead of queued waiters, except when the transaction already holds a
+     * sufficient lock or upgrades the only shared lock on the page.
+     */
+    private boolean tryGrant(PageId pid, LockState state, TransactionId tid, int type) {
+        PageLock held = state.holders.get(tid);
+        if (held != null) {
+            if (held.getType() == PageLock.EXCLUSIVE || type == PageLock.SHARE)
                 return true;
-            }
-            if(pageLock.size() == 1 && lock.getType() == PageLock.EXCLUSIVE) {
-                System.out.println("thread: " + thread + " page: "  + pid +
-                        " required transaction has a exclusive_lock" +
-                        "tid: " + tid + lockType + "accept.");
+            if (state.holders.size() == 1) {
+                held.setType(PageLock.EXCLUSIVE);
                 return true;
             }
+            return false;
         }
-        // 该事务在该页上没有锁，但是其他事务在该页上有锁
-        if(lock == null) {
-            // 那么要知道其他事务在上面到底是什么类型的锁.previousLock用来获得之前锁的类型
-            PageLock previousLock = null;
-            for(PageLock l : pageLock.values()) {
-                previousLock = l;
-            }
-            // previousLock不可能是null，因为之前已经确定了PageLock是不空的
-            // 如果是独占锁那么就只有一个必定是独占的，反之，则为共享锁
-            if(previousLock.getType() == PageLock.EXCLUSIVE) {
-                // 需要阻塞线程
-                System.out.println("thread: " + thread + " page: " + pid +
-                        " In this page have a Exclusive_lock, need wait!!" +
-                        " tid: " + tid + " acquire " + lockType + " wait!!");
-                //wait(10);
+        if (!state.waiters.isEmpty() || !compatible(state, tid, type))
+            return false;
+        state.holders.put(tid, new PageLock(tid, type));
+        addToIndex(heldLocks, tid, pid);
+        return true;
+    }
+
+    /** Whether tid could hold a lock of the given type next to the current holders */
+    private boolean compatible(LockState state, TransactionId tid, int type) {
+        for (PageLock lock : state.holders.values()) {
+            if (lock.getTid().equals(tid))
+                continue;
+            if (type == PageLock.EXCLUSIVE || lock.getType() == PageLock.EXCLUSIVE)
                 return false;
+        }
+        return true;
+    }
+
+    /** Grant queued requests in FIFO order until the head of the queue conflicts */
+    private void grantWaiters(PageId pid, LockState state) {
+        while (!state.waiters.isEmpty()) {
+            LockRequest head = state.waiters.getFirst();
+            if (!compatible(state, head.tid, head.type))
+                break;
+            PageLock held = state.holders.get(head.tid);
+            if (held != null) {
+                held.setType(Math.max(held.getType(), head.type));
+            } else {
+                state.holders.put(head.tid, new PageLock(head.tid, head.type));
+                addToIndex(heldLocks, head.tid, pid);
             }
-            // 先前事务的是共享锁
-            if(previousLock.getType() == PageLock.SHARE) {
-                // 如果要求的是共享锁,则获得该锁
-                if(requireType == PageLock.SHARE) {
-                    lock = new PageLock(tid, requireType);
-                    pageLock.put(tid, lock);
-                    pageLocks.put(pid, pageLock);
-                    System.out.println("thread: "+ thread + "page: "+ pid +
-                            " required transaction has no lock but other transactions have some share_locks" +
-                            " tid: " + tid + " acquire: " + lockType + " accept.");
-                    return true;
-                }
-                // 如果要求的是独占锁，则该事务会被阻塞
-                if(requireType == PageLock.EXCLUSIVE) {
-                    System.out.println("thread: " + thread + " page: " + pid +
-                            " required transaction has no lock but other transactions have some share_locks " +
-                            " tid: " + tid + " acquire " + lockType + " wait!!");
+            dequeue(pid, state, head);
+            trace.record(LockTrace.Event.GRANT, pid, head.tid, head.type);
+            head.granted = true;
+            LockSupport.unpark(head.thread);
+        }
+    }
+
+    /** Remove a request from its page's queue; the caller holds the stripe latch */
+    private void dequeue(PageId pid, LockState state, LockRequest request) {
+        if (!state.waiters.remove(request))
+            return;
+        for (LockRequest r : state.waiters) {
+            if (r.tid.equals(request.tid))
+                return;
+        }
+        removeFromIndex(waitingOn, request.tid, pid);
+    }
 
-                    //wait(50);
+    private static void addToIndex(ConcurrentMap<TransactionId, Set<PageId>> index,
+                                   TransactionId tid, PageId pid) {
+        index.compute(tid, (k, pids) -> {
+            if (pids == null)
+                pids = ConcurrentHashMap.newKeySet();
+            pids.add(pid);
+            return pids;
+        });
+    }
+
+    private static void removeFromIndex(ConcurrentMap<TransactionId, Set<PageId>> index,
+                                        TransactionId tid, PageId pid) {
+        index.computeIfPresent(tid, (k, pids) -> {
+            pids.remove(pid);
+            return pids.isEmpty() ? null : pids;
+        });
+    }
+
+    /** Withdraw a request whose thread gave up waiting */
+    private void cancel(PageId pid, LockRequest request) {
+        Stripe stripe = stripeOf(pid);
+        stripe.latch.lock();
+        try {
+            if (request.granted)
+                return;
+            LockState state = stripe.locks.get(pid);
+            if (state == null)
+                return;
+            dequeue(pid, state, request);
+            trace.record(LockTrace.Event.CANCEL, pid, request.tid, request.type);
+            grantWaiters(pid, state);
+            removeIfUnused(stripe, pid, state);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    private void removeIfUnused(Stripe stripe, PageId pid, LockState state) {
+        if (state.holders.isEmpty() && state.waiters.isEmpty())
+            stripe.locks.remove(pid);
+    }
+
+    /**
+     * Check the waits-for graph for a cycle through the transaction of a newly
+     * queued request, with every stripe latched so the graph is consistent.
+     * If there is a cycle the request is withdrawn and true is returned.
+     */
+    private boolean isDeadlockVictim(PageId pid, LockRequest request) {
+        synchronized (detector) {
+            for (Stripe stripe : stripes)
+                stripe.latch.lock();
+            try {
+                if (request.granted || !hasCycle(request.tid))
                     return false;
+                Stripe stripe = stripeOf(pid);
+                LockState state = stripe.locks.get(pid);
+                dequeue(pid, state, request);
+                grantWaiters(pid, state);
+                removeIfUnused(stripe, pid, state);
+                return true;
+            } finally {
+                for (Stripe stripe : stripes)
+                    stripe.latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * The transactions the given transaction waits for: on every page it is
+     * queued on, the holders and the requests ahead of it whose locks conflict
+     * with its request. The caller holds every stripe latch.
+     */
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        Set<TransactionId> result = new HashSet<>();
+        Set<PageId> pids = waitingOn.get(tid);
+        if (pids == null)
+            return result;
+        for (PageId pid : pids) {
+            LockState state = stripeOf(pid).locks.get(pid);
+            if (state == null)
+                continue;
+            for (LockRequest request : state.waiters) {
+                if (!request.tid.equals(tid))
+                    continue;
+                for (PageLock lock : state.holders.values()) {
+                    if (!lock.getTid().equals(tid)
+                            && (request.type == PageLock.EXCLUSIVE || lock.getType() == PageLock.EXCLUSIVE))
+                        result.add(lock.getTid());
+                }
+                for (LockRequest ahead : state.waiters) {
+                    if (ahead == request)
+                        break;
+                    if (!ahead.tid.equals(tid)
+                            && (request.type == PageLock.EXCLUSIVE || ahead.type == PageLock.EXCLUSIVE))
+                        result.add(ahead.tid);
                 }
             }
         }
-        // 不可能到这，如果到达这里，说明逻辑出了问题
-        System.out.println("------------------------------------some other cases--------------------------");
+        return result;
+    }
+
+    /** Depth-first search of the waits-for graph for a cycle back to start */
+    private boolean hasCycle(TransactionId start) {
+        Deque<TransactionId> stack = new ArrayDeque<>(waitsFor(start));
+        Set<TransactionId> visited = new HashSet<>();
+        while (!stack.isEmpty()) {
+            TransactionId tid = stack.pop();
+            if (tid.equals(start))
+                return true;
+            if (!visited.add(tid))
+                continue;
+            stack.addAll(waitsFor(tid));
+        }
         return false;
     }
 
@@ -142,47 +350,71 @@ public class LockManager {
      * @param tid
      * @return
      */
-    public synchronized boolean isHoldLock(PageId pid, TransactionId tid) {
-        ConcurrentMap<TransactionId, PageLock> pageLock ;
-        // 得到对应的页锁
-        pageLock = pageLocks.get(pid);
+    public boolean isHoldLock(PageId pid, TransactionId tid) {
         if(tid == null) return false;
-        // 没有该页或者该页上没有事务
-        if(pageLock == null || pageLock.size() == 0)
-            pageLocks.remove(pid);
-        // 得到对应的锁
-        PageLock lock = pageLock.get(tid);
-        return lock != null;
+        Stripe stripe = stripeOf(pid);
+        stripe.latch.lock();
+        try {
+            LockState state = stripe.locks.get(pid);
+            return state != null && state.holders.containsKey(tid);
+        } finally {
+            stripe.latch.unlock();
+        }
     }
     /**
      * 释放指定页面的指定事务加的锁
      * @param pid
      * @param tid
      */
-    public synchronized void releaseLock(PageId pid, TransactionId tid) {
+    public void releaseLock(PageId pid, TransactionId tid) {
         // 得到页号对应的事务集合
-        final String thread = Thread.currentThread().getName();
-        ConcurrentMap<TransactionId, PageLock> pageLock = pageLocks.get(pid);
-        if(pageLock == null) return;
-        if(pageLock.get(tid) == null) return;
-        final String lockType = pageLock.get(tid).getType() == 0 ? "share_lock" : "exclusive_lock";
-        pageLock.remove(tid);
-        System.out.println("thread: " + thread + "page: " + pid + " tid: " + tid + " release a " + lockType +
-                " the lock size is " + pageLock.size());
-        if(pageLock.size() == 0) {
-            pageLocks.remove(pid);
-            System.out.println("thread: " + thread + "page: " + pid + " has no TransactionId The size of pageLock is " +
-                    pageLocks.size() );
-        }
-        this.notifyAll();
-    }
-    // 什么叫完成了事务？？就是释放了该事务上所有的锁.
-    public synchronized void completeTransaction(TransactionId tid) {
-        Set<PageId> pages = pageLocks.keySet();
-        for(PageId pageid : pages) {
-            if(isHoldLock(pageid, tid))
-                releaseLock(pageid, tid);
+        Stripe stripe = stripeOf(pid);
+        stripe.latch.lock();
+        try {
+            LockState state = stripe.locks.get(pid);
+            if(state == null) return;
+            PageLock lock = state.holders.remove(tid);
+            if(lock == null) return;
+            removeFromIndex(heldLocks, tid, pid);
+            trace.record(LockTrace.Event.RELEASE, pid, tid, lock.getType());
+            grantWaiters(pid, state);
+            removeIfUnused(stripe, pid, state);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+    // 什么叫完成了事务？？就是释放了该事务上所有的锁. 只访问反向索引中该事务的页.
+    // 该事务仍在等待的请求也被取消, 等待的线程会抛出 TransactionAbortedException
+    public void completeTransaction(TransactionId tid) {
+        Set<PageId> waiting = waitingOn.get(tid);
+        if (waiting != null) {
+            for (PageId pid : new ArrayList<>(waiting)) {
+                Stripe stripe = stripeOf(pid);
+                stripe.latch.lock();
+                try {
+                    LockState state = stripe.locks.get(pid);
+                    if (state == null)
+                        continue;
+                    for (LockRequest request : new ArrayList<>(state.waiters)) {
+                        if (request.tid.equals(tid)) {
+                            dequeue(pid, state, request);
+                            trace.record(LockTrace.Event.CANCEL, pid, tid, request.type);
+                            request.aborted = true;
+                            LockSupport.unpark(request.thread);
+                        }
+                    }
+                    // 排在被取消请求后面的请求也可能可以获得锁
+                    grantWaiters(pid, state);
+                    removeIfUnused(stripe, pid, state);
+                } finally {
+                    stripe.latch.unlock();
+                }
+            }
+        }
+        Set<PageId> held = heldLocks.get(tid);
+        if (held != null) {
+            for (PageId pid : new ArrayList<>(held))
+                releaseLock(pid, tid);
         }
-
     }
 }
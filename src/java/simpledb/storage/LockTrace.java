@@ -0,0 +1,130 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockTrace records what the LockManager does, for debugging lock contention
+ * without printing on the lock path. It has three levels:
+ * <ul>
+ * <li> 0 (default): disabled, every call returns after one comparison
+ * <li> 1: count events per type
+ * <li> 2: also keep the most recent events in a fixed-size ring buffer
+ * </ul>
+ * The level and ring size are read from the system properties
+ * simpledb.storage.LockTrace and simpledb.storage.LockTrace.size, e.g.
+ * -Dsimpledb.storage.LockTrace=2. Call {@link #dump} to print the counters
+ * and the buffered events.
+ */
+public class LockTrace {
+
+    /** Kinds of lock events. */
+    public enum Event {
+        /** a request was granted without waiting */
+        ACQUIRE,
+        /** a request was queued behind conflicting locks */
+        WAIT,
+        /** a queued request was granted */
+        GRANT,
+        /** a request was chosen as a deadlock victim */
+        DEADLOCK,
+        /** a queued request was withdrawn */
+        CANCEL,
+        /** a lock was released */
+        RELEASE
+    }
+
+    public static final int DISABLED = 0;
+    public static final int COUNTERS = 1;
+    public static final int EVENTS = 2;
+
+    private static final int DEFAULT_SIZE = 1024;
+
+    private static class Record {
+        final long nanos;
+        final long threadId;
+        final Event event;
+        final PageId pid;
+        final TransactionId tid;
+        final int lockType;
+
+        Record(Event event, PageId pid, TransactionId tid, int lockType) {
+            this.nanos = System.nanoTime();
+            this.threadId = Thread.currentThread().getId();
+            this.event = event;
+            this.pid = pid;
+            this.tid = tid;
+            this.lockType = lockType;
+        }
+    }
+
+    private final int level;
+    private final LongAdder[] counts;
+    private final Record[] ring;
+    private final AtomicLong next = new AtomicLong();
+
+    /** Create a trace configured from the system properties. */
+    public LockTrace() {
+        this(Integer.getInteger("simpledb.storage.LockTrace", DISABLED),
+                Integer.getInteger("simpledb.storage.LockTrace.size", DEFAULT_SIZE));
+    }
+
+    /**
+     * @param level DISABLED, COUNTERS or EVENTS
+     * @param size the number of events kept at level EVENTS
+     */
+    public LockTrace(int level, int size) {
+        this.level = level;
+        counts = new LongAdder[Event.values().length];
+        for (int i = 0; i < counts.length; ++i)
+            counts[i] = new LongAdder();
+        ring = level >= EVENTS ? new Record[size] : null;
+    }
+
+    /** @return true if events are being counted */
+    public boolean isEnabled() {
+        return level > DISABLED;
+    }
+
+    /**
+     * Record a lock event.
+     *
+     * @param lockType LockManager.PageLock.SHARE or EXCLUSIVE
+     */
+    public void record(Event event, PageId pid, TransactionId tid, int lockType) {
+        if (level <= DISABLED)
+            return;
+        counts[event.ordinal()].increment();
+        if (ring != null) {
+            int slot = (int) (next.getAndIncrement() % ring.length);
+            ring[slot] = new Record(event, pid, tid, lockType);
+        }
+    }
+
+    /** @return the number of events of the given type, 0 when disabled */
+    public long getCount(Event event) {
+        return counts[event.ordinal()].sum();
+    }
+
+    /** Print the counters and the buffered events, oldest first. */
+    public void dump(PrintStream out) {
+        StringBuilder sb = new StringBuilder("lock trace:");
+        for (Event e : Event.values())
+            sb.append(' ').append(e).append('=').append(getCount(e));
+        out.println(sb);
+        if (ring == null)
+            return;
+        long end = next.get();
+        for (long i = Math.max(0, end - ring.length); i < end; ++i) {
+            Record r = ring[(int) (i % ring.length)];
+            if (r == null)
+                continue;
+            out.println(r.nanos + " thread " + r.threadId + " " + r.event + " page: " + r.pid
+                    + " tid: " + r.tid.getId() + " "
+                    + (r.lockType == LockManager.PageLock.SHARE ? "share_lock" : "exclusive_lock"));
+        }
+    }
+}
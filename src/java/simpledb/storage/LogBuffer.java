@@ -0,0 +1,213 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogBuffer holds log records between their append and their write to the
+ * log file. Every byte of the log has a log sequence number (LSN) that
+ * only grows; a record is identified by the LSN of its first byte.
+ * <p>
+ * An appending thread reserves the LSNs of its record with an atomic
+ * counter ({@link #reserve}), serializes the record on its own and hands
+ * it over with {@link #fill}, so threads that append at the same time do
+ * not wait for each other. A single writer thread collects the records
+ * that follow the last written byte without a gap and writes them to the
+ * file with one positional write. The writer is started by the first
+ * record and stops after it has been idle for a while.
+ * <p>
+ * An appending thread waits in {@link #fill} while more than the capacity
+ * of the buffer is not yet written. Only the writer signals progress, so
+ * waiting threads do not wake each other.
+ *
+ * @see LogFile
+ */
+class LogBuffer implements Runnable {
+
+    /** Default number of bytes that may wait to be written. */
+    static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** The writer thread stops after this many milliseconds without work. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final int capacity;
+    private final AtomicLong next;
+    // 已经填好但还没写入文件的记录, 按 LSN 排序
+    private final ConcurrentSkipListMap<Long, byte[]> filled = new ConcurrentSkipListMap<>();
+    private final AtomicLong pending = new AtomicLong();
+    // 小于 written 的字节都已写入文件; channel 和 base 只在 this 下修改
+    private volatile long written;
+    private FileChannel channel;
+    private volatile long base;
+    // 写文件失败后, 之后所有的等待者都会看到这个错误
+    private volatile IOException error = null;
+    private Thread thread = null;
+
+    /**
+     * @param channel the log file
+     * @param base the LSN of offset 0 of the file
+     * @param end the LSN of the end of the file, where records are appended
+     */
+    LogBuffer(FileChannel channel, long base, long end, int capacity) {
+        this.channel = channel;
+        this.base = base;
+        this.next = new AtomicLong(end);
+        this.written = end;
+        this.capacity = capacity;
+    }
+
+    /** @return the LSN of the byte after the last reserved one */
+    long getEnd() {
+        return next.get();
+    }
+
+    /** @return the LSN of the byte after the last one written to the file */
+    long getWritten() {
+        return written;
+    }
+
+    /** @return the LSN of offset 0 of the file */
+    long getBase() {
+        return base;
+    }
+
+    /** @return the LSN of the first of length bytes reserved for a record */
+    long reserve(int length) {
+        return next.getAndAdd(length);
+    }
+
+    /**
+     * Hand over the bytes of a record, whose LSNs were reserved with
+     * {@link #reserve}. Every reserved record must be filled, or the
+     * records after it are never written.
+     */
+    void fill(long lsn, byte[] record) throws IOException {
+        if (pending.get() > capacity) {
+            synchronized (this) {
+                // 缓冲区满时等写线程, 但不能等自己前面还没填的记录
+                while (pending.get() > capacity && written < lsn)
+                    awaitProgress();
+            }
+        }
+        pending.addAndGet(record.length);
+        filled.put(lsn, record);
+        if (lsn == written || thread == null) {
+            synchronized (this) {
+                startWriter();
+                notifyAll();
+            }
+        }
+    }
+
+    /** Wait until every byte before lsn is written to the file. */
+    void awaitWritten(long lsn) throws IOException {
+        if (error != null)
+            throw error;
+        if (written >= lsn)
+            return;
+        synchronized (this) {
+            // 只唤醒写线程一次; 循环里 notifyAll 会让等待者互相唤醒, 写线程拿不到锁
+            startWriter();
+            notifyAll();
+            while (written < lsn) {
+                startWriter();
+                awaitProgress();
+            }
+        }
+    }
+
+    /**
+     * Replace the file, e.g. after the log was truncated. The caller must
+     * make sure that nothing is appended meanwhile and that everything
+     * reserved so far is written.
+     *
+     * @param base the LSN of offset 0 of the new file
+     */
+    synchronized void reset(FileChannel channel, long base) {
+        if (!filled.isEmpty() || written != next.get())
+            throw new IllegalStateException("log records are not written yet");
+        this.channel = channel;
+        this.base = base;
+    }
+
+    private void startWriter() {
+        if (thread == null) {
+            thread = new Thread(this, "log writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // 调用者持有 this
+    private void awaitProgress() throws IOException {
+        try {
+            wait(IDLE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the log writer");
+        }
+        if (error != null)
+            throw error;
+    }
+
+    public void run() {
+        ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+        while (true) {
+            FileChannel out;
+            long offset;
+            synchronized (this) {
+                long idleSince = System.currentTimeMillis();
+                while (!filled.containsKey(written)) {
+                    if (System.currentTimeMillis() - idleSince >= IDLE_MILLIS) {
+                        thread = null;
+                        return;
+                    }
+                    try {
+                        wait(IDLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        thread = null;
+                        return;
+                    }
+                }
+                out = channel;
+                offset = written - base;
+            }
+
+            // 取出从 written 开始连续的记录, 一次写入
+            long lsn = written;
+            batch.clear();
+            Map.Entry<Long, byte[]> e;
+            while ((e = filled.firstEntry()) != null && e.getKey() == lsn) {
+                byte[] record = e.getValue();
+                if (record.length > batch.remaining()) {
+                    if (batch.position() > 0)
+                        break;
+                    batch = ByteBuffer.allocate(record.length);
+                }
+                batch.put(record);
+                filled.remove(lsn);
+                lsn += record.length;
+            }
+            batch.flip();
+            int length = batch.remaining();
+            IOException failure = null;
+            try {
+                while (batch.hasRemaining())
+                    out.write(batch, offset + batch.position());
+            } catch (IOException ex) {
+                failure = ex;
+            }
+            pending.addAndGet(-length);
+            synchronized (this) {
+                if (failure != null)
+                    error = failure;
+                written = lsn;
+                notifyAll();
+            }
+        }
+    }
+}
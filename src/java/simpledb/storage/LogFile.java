@@ -6,7 +6,13 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.lang.reflect.*;
 
 /*
@@ -55,45 +61,83 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and SLOT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example. Only pages that are not
+{@link SlotLoggedPage}s, or that changed outside their slots, are logged
+with UPDATE records.
+
+<li> SLOT records log a change to one slot of a {@link SlotLoggedPage}:
+the page id (see LogFile.writePageId()), an integer slot number, and the
+contents of the slot before and after the change, each an integer
+length (-1 for an empty slot) followed by that many bytes.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, and of the
+dirty pages of the buffer pool and their recLSNs (see
+LogFile.writeCheckpoint()).  The format of the record is an integer
+count of the number of transactions, as well as a long integer
+transaction id and a long integer first record offset for each active
+transaction; then a long integer offset from which the log is scanned for
+pages dirtied after the checkpoint began, an integer count of dirty pages,
+and a page id and a long integer recLSN offset for each dirty page.
 
 </ul>
+
+<p> Every record has a log sequence number (LSN), the position of its
+first byte in the log. LSNs only grow: the LSN of a byte stays the same
+when the log is truncated, and the file offset of a record is its LSN
+minus the LSN of the start of the file. Records are not written to the
+file by the appending thread: it serializes its record, reserves its LSN
+with an atomic counter and hands it to a {@link LogBuffer}, whose writer
+thread writes the records in LSN order. Appends do not hold the monitor
+of the LogFile; only operations that read or rewrite the file (truncation,
+checkpoints, recovery) exclude them.
+
+<p> Commits and aborts are forced to disk in groups: a transaction appends
+its record and waits for a {@link LogFlusher} thread that forces the log
+once for every transaction waiting at that time (see
+{@link #setGroupCommit}). BufferPool forces the log up to the pageLSN of a
+dirty page (see {@link Page#getLSN}) before it writes the page.
 */
 public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    private volatile FileChannel channel;
+    volatile boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int SLOT_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    // 追加记录时持有读锁; 读或改写日志文件的操作持有写锁
+    private final ReentrantReadWriteLock appendLock = new ReentrantReadWriteLock();
+    private final LogBuffer buffer;
+    private final LogFlusher flusher = new LogFlusher(this);
 //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
 
-    final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+    // 每个活动事务的第一条记录的 LSN
+    final Map<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
+
+    /** The fields of a record between its type and transaction id and its start offset. */
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -109,6 +153,13 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        channel = raf.getChannel();
+        if (raf.length() < LONG_SIZE) {
+            raf.setLength(0);
+            raf.writeLong(NO_CHECKPOINT_ID);
+        }
+        // 文件开头的 LSN 为 0
+        buffer = new LogBuffer(channel, 0, raf.length(), LogBuffer.DEFAULT_CAPACITY);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -126,32 +177,139 @@ public class LogFile {
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
-        totalRecords++;
-        if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+        if (!recoveryUndecided)
+            return;
+        appendLock.writeLock().lock();
+        try {
+            if(recoveryUndecided){
+                recoveryUndecided = false;
+                buffer.awaitWritten(buffer.getEnd());
+                raf.setLength(0);
+                raf.seek(0);
+                raf.writeLong(NO_CHECKPOINT_ID);
+                // LSN 继续增长, 新文件从 end - LONG_SIZE 开始
+                buffer.reset(channel, buffer.getEnd() - LONG_SIZE);
+            }
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Append a record to the log.
+     *
+     * @return the LSN of the record
+     */
+    private long append(int type, long tid, RecordBody body) throws IOException {
+        preAppend();
+        // 在锁外序列化, 多个线程可以同时进行
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(type);
+        out.writeLong(tid);
+        if (body != null)
+            body.write(out);
+        out.writeLong(0);
+        out.flush();
+        byte[] record = bytes.toByteArray();
+
+        appendLock.readLock().lock();
+        try {
+            long lsn = buffer.reserve(record.length);
+            // every record ends with the file offset where it starts
+            ByteBuffer.wrap(record).putLong(record.length - LONG_SIZE, lsn - buffer.getBase());
+            buffer.fill(lsn, record);
+            totalRecords.incrementAndGet();
+            return lsn;
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Wait until no record is being appended and every record is written
+     * to the file, and keep appends out until {@link #endExclusive}. Used by
+     * the operations that read or rewrite the file.
+     */
+    private void beginExclusive() throws IOException {
+        appendLock.writeLock().lock();
+        try {
+            buffer.awaitWritten(buffer.getEnd());
+        } catch (IOException e) {
+            appendLock.writeLock().unlock();
+            throw e;
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    private void endExclusive() {
+        appendLock.writeLock().unlock();
+    }
+
+    /** @return the file offset of a record */
+    private long offsetOf(long lsn) {
+        return lsn - buffer.getBase();
+    }
+
+    /** @return the LSN of a record at a file offset */
+    private long lsnAt(long offset) {
+        return offset + buffer.getBase();
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /**
+     * Configure group commit. A committing transaction waits until the log
+     * is forced; a force waits up to delayMillis for more transactions to
+     * commit, unless byteThreshold bytes of the log are not yet on disk.
+     * The default delay is 0: the transactions that commit while a force is
+     * running share the next one.
+     */
+    public void setGroupCommit(long delayMillis, long byteThreshold) {
+        flusher.configure(delayMillis, byteThreshold);
+    }
+
+    /** @return the number of times the log was forced for commits and aborts */
+    public long getGroupForceCount() {
+        return flusher.getForceCount();
+    }
+
+    /**
+     * @return the LSN of the end of the last record appended to the log
+     */
+    long getEndPosition() {
+        return buffer.getEnd();
     }
     
     /** Write an abort record to the log for the specified tid, force
-        the log to disk, and perform a rollback
+        the log to disk, and perform a rollback. Does nothing if the
+        transaction has no log records or was already rolled back, e.g.
+        by BufferPool.recoverPages when it was chosen as a deadlock victim.
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
+        long lsn = rollbackAndAppendAbort(tid);
+        // force 时不持有缓冲池的锁
+        if (lsn >= 0)
+            force(lsn);
+    }
+
+    /**
+     * Roll back tid and append its abort record, without forcing the log.
+     * Holds the monitor of the buffer pool meanwhile, as the caller may.
+     *
+     * @return the LSN of the abort record, or -1 if tid has no log records
+     *         or was already rolled back
+     */
+    long rollbackAndAppendAbort(TransactionId tid) throws IOException {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
-
         synchronized (Database.getBufferPool()) {
 
             synchronized(this) {
+                if (!tidToFirstLogRecord.containsKey(tid.getId()))
+                    return -1;
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
@@ -160,12 +318,9 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
+                long lsn = append(ABORT_RECORD, tid.getId(), null);
                 tidToFirstLogRecord.remove(tid.getId());
+                return lsn;
             }
         }
     }
@@ -175,17 +330,14 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
+    public void logCommit(TransactionId tid) throws IOException {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        long lsn = append(COMMIT_RECORD, tid.getId(), null);
         tidToFirstLogRecord.remove(tid.getId());
+        // 与同时提交的事务共用一次 force
+        force(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -193,14 +345,13 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the record
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
         /* update record conists of
 
            record type
@@ -209,18 +360,94 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        long lsn = append(UPDATE_RECORD, tid.getId(), out -> {
+            writePageData(out, before);
+            writePageData(out, after);
+        });
+        Debug.log("WRITE, LSN = " + lsn);
+        return lsn;
+    }
+
+    /** Write a SLOT record for a change of tid to a slot of a page.
+        @return the LSN of the record
+
+        @see SlotLoggedPage
+    */
+    public long logSlotChange(TransactionId tid, PageId pid, SlotChange change)
+        throws IOException {
+        return append(SLOT_RECORD, tid.getId(), out -> writeSlotChange(out, pid, change));
+    }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    void writeSlotChange(DataOutput raf, PageId pid, SlotChange change) throws IOException {
+        writePageId(raf, pid);
+        raf.writeInt(change.getSlot());
+        writeSlot(raf, change.getBefore());
+        writeSlot(raf, change.getAfter());
+    }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    private static void writeSlot(DataOutput raf, byte[] contents) throws IOException {
+        if (contents == null) {
+            raf.writeInt(-1);
+            return;
+        }
+        raf.writeInt(contents.length);
+        raf.write(contents);
+    }
+
+    private static byte[] readSlot(DataInput raf) throws IOException {
+        int len = raf.readInt();
+        if (len < 0)
+            return null;
+        byte[] contents = new byte[len];
+        raf.readFully(contents);
+        return contents;
+    }
+
+    /**
+     * Read the body of a SLOT record.
+     *
+     * @param pid set to the id of the page at index 0
+     */
+    SlotChange readSlotChange(DataInput raf, PageId[] pid) throws IOException {
+        pid[0] = readPageId(raf);
+        int slot = raf.readInt();
+        byte[] before = readSlot(raf);
+        byte[] after = readSlot(raf);
+        return new SlotChange(slot, before, after);
+    }
+
+    void writePageId(DataOutput raf, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        raf.writeUTF(pid.getClass().getName());
+        raf.writeInt(pageInfo.length);
+        for (int j : pageInfo) {
+            raf.writeInt(j);
+        }
+    }
+
+    PageId readPageId(DataInput raf) throws IOException {
+        String idClassName = raf.readUTF();
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
+            int numIdArgs = raf.readInt();
+            Object[] idArgs = new Object[numIdArgs];
+            for (int i = 0; i<numIdArgs;i++) {
+                idArgs[i] = raf.readInt();
+            }
+            // id 类可能有多个构造函数, 取参数个数相同的那个
+            for (Constructor<?> c : idConsts) {
+                if (c.getParameterCount() == numIdArgs)
+                    return (PageId) c.newInstance(idArgs);
+            }
+            throw new IOException("no constructor " + idClassName + " with " + numIdArgs + " ints");
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -248,7 +475,21 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    /** Copy page data written by writePageData from in to out. */
+    private static void copyPageData(DataInput in, DataOutput out) throws IOException {
+        out.writeUTF(in.readUTF());
+        out.writeUTF(in.readUTF());
+        int numIdArgs = in.readInt();
+        out.writeInt(numIdArgs);
+        for (int i = 0; i < numIdArgs; i++)
+            out.writeInt(in.readInt());
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
+    Page readPageData(DataInput raf) throws IOException {
         PageId pid;
         Page newPage = null;
 
@@ -267,17 +508,22 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            raf.readFully(pageData); //read before image
+
+            // 页类可能有多个构造函数, 取 (PageId, byte[]) 那个
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no constructor " + pageClassName + "(PageId, byte[])");
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pid, pageData);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
@@ -292,68 +538,125 @@ public class LogFile {
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
             System.err.print("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = append(BEGIN_RECORD, tid.getId(), null);
+        tidToFirstLogRecord.put(tid.getId(), lsn);
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN LSN = " + lsn);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /**
+     * Checkpoint the log and write a checkpoint record. The checkpoint is
+     * fuzzy: it records the active transactions and the dirty pages of the
+     * buffer pool with their recLSNs, without waiting for the pages to be
+     * written, and hands the pages to a background writer (see
+     * {@link BackgroundWriter}). Recovery redoes from the smallest recLSN,
+     * and the log is truncated there.
+     */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+        preAppend();
+        BufferPool pool = Database.getBufferPool();
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, LSN = " + getEndPosition());
+            // 先取起点再取两张表: 取表之后才记下的事务和脏页, 它们的记录都在起点之后
+            long begin = getEndPosition();
+            Map<Long,Long> active = new HashMap<>(tidToFirstLogRecord);
+            Map<PageId,Long> dirty = pool.getDirtyPageTable();
+            long cpLsn = append(CHECKPOINT_RECORD, -1, out -> { //no tid , but leave space for convenience
+                Map<Long,Long> activeOffsets = new LinkedHashMap<>();
+                for (Map.Entry<Long,Long> e : active.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    activeOffsets.put(e.getKey(), offsetOf(e.getValue()));
                 }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                Map<PageId,Long> dirtyOffsets = new LinkedHashMap<>();
+                for (Map.Entry<PageId,Long> e : dirty.entrySet())
+                    dirtyOffsets.put(e.getKey(), offsetOf(e.getValue()));
+                writeCheckpoint(out, activeOffsets, offsetOf(begin), dirtyOffsets);
+            });
+            force(cpLsn);
+
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            beginExclusive();
+            try {
+                ByteBuffer cp = ByteBuffer.allocate(LONG_SIZE);
+                cp.putLong(0, offsetOf(cpLsn));
+                while (cp.hasRemaining())
+                    channel.write(cp, cp.position());
+            } finally {
+                endExclusive();
             }
+            pool.writeDirtyPagesInBackground();
         }
 
         logTruncate();
     }
 
+    /**
+     * Write the body of a CHECKPOINT record. All positions are file
+     * offsets.
+     *
+     * @param active the first record of every active transaction
+     * @param begin where the checkpoint began: the pages dirtied after it
+     *            are found by reading the log from there
+     * @param dirty the recLSN of every dirty page
+     */
+    void writeCheckpoint(DataOutput out, Map<Long,Long> active, long begin,
+                         Map<PageId,Long> dirty) throws IOException {
+        out.writeInt(active.size());
+        for (Map.Entry<Long,Long> e : active.entrySet()) {
+            out.writeLong(e.getKey());
+            out.writeLong(e.getValue());
+        }
+        out.writeLong(begin);
+        out.writeInt(dirty.size());
+        for (Map.Entry<PageId,Long> e : dirty.entrySet()) {
+            writePageId(out, e.getKey());
+            out.writeLong(e.getValue());
+        }
+    }
+
+    /**
+     * Read the body of a CHECKPOINT record into active and dirty.
+     *
+     * @return the offset where the checkpoint began
+     * @see #writeCheckpoint
+     */
+    long readCheckpoint(DataInput in, Map<Long,Long> active, Map<PageId,Long> dirty)
+            throws IOException {
+        int numXactions = in.readInt();
+        while (numXactions-- > 0) {
+            long tid = in.readLong();
+            active.put(tid, in.readLong());
+        }
+        long begin = in.readLong();
+        int numPages = in.readInt();
+        while (numPages-- > 0) {
+            PageId pid = readPageId(in);
+            dirty.put(pid, in.readLong());
+        }
+        return begin;
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        beginExclusive();
+        try {
+            truncate();
+        } finally {
+            endExclusive();
+        }
+    }
+
+    private void truncate() throws IOException {
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -369,16 +672,15 @@ public class LogFile {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+            // 活动事务的第一条记录和脏页的 recLSN 之前的都可以截断
+            Map<Long,Long> active = new HashMap<>();
+            Map<PageId,Long> dirty = new HashMap<>();
+            long begin = readCheckpoint(raf, active, dirty);
+            minLogRecord = Math.min(minLogRecord, begin);
+            for (long firstLogRecord : active.values())
+                minLogRecord = Math.min(minLogRecord, firstLogRecord);
+            for (long recLSN : dirty.values())
+                minLogRecord = Math.min(minLogRecord, recLSN);
         }
 
         // we can truncate everything before minLogRecord
@@ -403,24 +705,24 @@ public class LogFile {
 
                 switch (type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                    // 原样复制, 不用构造页对象
+                    copyPageData(raf, logNew);
+                    copyPageData(raf, logNew);
                     break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
+                case SLOT_RECORD:
+                    PageId[] pid = new PageId[1];
+                    SlotChange change = readSlotChange(raf, pid);
+                    writeSlotChange(logNew, pid[0], change);
                     break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                case CHECKPOINT_RECORD:
+                    Map<Long,Long> active = new LinkedHashMap<>();
+                    Map<PageId,Long> dirty = new LinkedHashMap<>();
+                    long begin = readCheckpoint(raf, active, dirty);
+                    for (Map.Entry<Long,Long> e : active.entrySet())
+                        e.setValue((e.getValue() - minLogRecord) + LONG_SIZE);
+                    for (Map.Entry<PageId,Long> e : dirty.entrySet())
+                        e.setValue((e.getValue() - minLogRecord) + LONG_SIZE);
+                    writeCheckpoint(logNew, active, (begin - minLogRecord) + LONG_SIZE, dirty);
                     break;
                 }
 
@@ -435,19 +737,24 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // 截断后的文件从旧文件的 minLogRecord 处开始, LSN 不变
+        long base = lsnAt(minLogRecord) - LONG_SIZE;
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
         raf.seek(raf.length());
+        channel = raf.getChannel();
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        buffer.reset(channel, base);
         //print();
     }
 
     /** Rollback the specified transaction, setting the state of any
-        of pages it updated to their pre-updated state.  To preserve
+        of pages it updated to their pre-updated state, and drop
+        every page it dirtied from the buffer pool.  To preserve
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
@@ -459,7 +766,18 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no log records of transaction " + tid.getId());
+                beginExclusive();
+                try {
+                    new LogRecovery(this, LogRecovery.WORKERS).rollback(tid, offsetOf(first));
+                } finally {
+                    endExclusive();
+                }
+                // 还没记日志的修改不在文件里, 丢掉这些页; 要等 endExclusive,
+                // 其他事务可能持有页的 latch 等着追加日志
+                Database.getBufferPool().discardPages(tid);
             }
         }
     }
@@ -471,6 +789,9 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            // 等后台写完脏页, 再记一个检查点, 启动时就不用重做它们
+            Database.getBufferPool().awaitBackgroundWriter();
+            logCheckpoint();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -481,18 +802,39 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        Pages are replayed in parallel; see {@link LogRecovery}.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                Set<Long> losers;
+                beginExclusive();
+                try {
+                    losers = new LogRecovery(this, LogRecovery.WORKERS).recover();
+                } finally {
+                    endExclusive();
+                }
+                // 所有修改都已写回文件; 检查点截断日志, 下次恢复不会再撤销这些事务
+                for (Long tid : losers)
+                    append(ABORT_RECORD, tid, null);
+                tidToFirstLogRecord.clear();
+                logCheckpoint();
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        beginExclusive();
+        try {
+            printRecords();
+        } finally {
+            endExclusive();
+        }
+    }
+
+    private void printRecords() throws IOException {
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -532,6 +874,17 @@ public class LogFile {
                         System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
                         System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
                     }
+                    System.out.println(raf.getFilePointer() + ": CHECKPOINT BEGIN OFFSET: " + raf.readLong());
+                    int numPages = raf.readInt();
+                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numPages);
+
+                    while (numPages-- > 0) {
+                        long pageStart = raf.getFilePointer();
+                        PageId pid = readPageId(raf);
+                        System.out.println(pageStart + ": PAGE: table id " + pid.getTableId()
+                                + ", page number " + pid.getPageNumber());
+                        System.out.println(raf.getFilePointer() + ": RECLSN: " + raf.readLong());
+                    }
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
                     break;
@@ -554,6 +907,19 @@ public class LogFile {
 
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                    break;
+                case SLOT_RECORD:
+                    System.out.println(" (SLOT)");
+                    start = raf.getFilePointer();
+                    PageId[] pid = new PageId[1];
+                    SlotChange change = readSlotChange(raf, pid);
+                    System.out.println(start + ": table id " + pid[0].getTableId() + ", page number "
+                            + pid[0].getPageNumber() + ", slot " + change.getSlot());
+                    System.out.println(start + " TO " + raf.getFilePointer() + ": slot contents, "
+                            + (change.getBefore() == null ? -1 : change.getBefore().length) + " bytes before, "
+                            + (change.getAfter() == null ? -1 : change.getAfter().length) + " bytes after");
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
                     break;
                 }
 
@@ -567,8 +933,39 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force every record appended so far to disk. */
+    public void force() throws IOException {
+        forceThrough(buffer.getEnd());
+    }
+
+    /**
+     * Wait until the log is on disk up to and including the record at lsn,
+     * e.g. before a page whose pageLSN is lsn is written. Returns at once
+     * if it already is; otherwise the force is shared with the committing
+     * transactions (see {@link LogFlusher}).
+     */
+    public void force(long lsn) throws IOException {
+        flusher.awaitForced(lsn + 1);
+    }
+
+    /**
+     * Write the records before lsn to the file and force it, without
+     * keeping appends out, so that records can be appended while the disk
+     * is busy.
+     */
+    void forceThrough(long lsn) throws IOException {
+        buffer.awaitWritten(lsn);
+        while (true) {
+            FileChannel channel = this.channel;
+            try {
+                channel.force(true);
+                return;
+            } catch (ClosedChannelException e) {
+                // 日志被截断到了新文件, 改为 force 新文件
+                if (this.channel == channel)
+                    throw e;
+            }
+        }
     }
 
 }
@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * LogFlusher forces the log to disk on behalf of committing transactions,
+ * so that the transactions that commit while one force is running share
+ * the next one instead of each paying for its own (group commit).
+ * <p>
+ * A committing transaction appends its record and then waits in
+ * {@link #awaitForced} until the log is on disk up to the end of that
+ * record. The flusher thread forces the log as soon as someone waits; if a
+ * delay is set, it first waits up to that long for more transactions to
+ * join the group, unless the log not yet on disk reaches the byte
+ * threshold. The thread is started by the first waiter and stops after it
+ * has been idle for a while.
+ * <p>
+ * Positions in the log are the ones returned by {@link LogFile#getEndPosition},
+ * which only grow, even when the log is truncated.
+ *
+ * @see LogFile
+ */
+class LogFlusher implements Runnable {
+
+    /** The flusher thread stops after this many milliseconds without work. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final LogFile log;
+    private long delayMillis = 0;
+    private long byteThreshold = 64 * 1024;
+
+    // 所有等待者要求的最大位置, 以及已经落盘的位置
+    private long requested = 0;
+    private long forced = 0;
+    private long forceCount = 0;
+    // 失败的次数和最近一次的错误
+    private long failures = 0;
+    private IOException error = null;
+    private Thread thread = null;
+
+    LogFlusher(LogFile log) {
+        this.log = log;
+    }
+
+    /**
+     * @param delayMillis how long a force waits for more transactions to
+     *            join it; 0 forces as soon as a transaction waits
+     * @param byteThreshold a force does not wait once this many bytes of
+     *            the log are not on disk
+     */
+    synchronized void configure(long delayMillis, long byteThreshold) {
+        this.delayMillis = delayMillis;
+        this.byteThreshold = byteThreshold;
+        notifyAll();
+    }
+
+    /** @return the number of times the flusher has forced the log */
+    synchronized long getForceCount() {
+        return forceCount;
+    }
+
+    /**
+     * Wait until the log is on disk up to the specified position.
+     *
+     * @throws IOException if forcing the log failed
+     */
+    synchronized void awaitForced(long position) throws IOException {
+        if (forced >= position)
+            return;
+        requested = Math.max(requested, position);
+        if (thread == null) {
+            thread = new Thread(this, "log flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        long seen = failures;
+        boolean interrupted = false;
+        while (forced < position) {
+            if (failures != seen)
+                throw error;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    long idleSince = System.currentTimeMillis();
+                    while (requested <= forced) {
+                        if (System.currentTimeMillis() - idleSince >= IDLE_MILLIS) {
+                            thread = null;
+                            return;
+                        }
+                        wait(IDLE_MILLIS);
+                    }
+                    // 等更多事务加入这一组, 除非未落盘的日志已经够多
+                    long deadline = System.currentTimeMillis() + delayMillis;
+                    long now;
+                    while ((now = System.currentTimeMillis()) < deadline
+                            && log.getEndPosition() - forced < byteThreshold)
+                        wait(deadline - now);
+                } catch (InterruptedException e) {
+                    thread = null;
+                    return;
+                }
+            }
+
+            long target = log.getEndPosition();
+            IOException failure = null;
+            try {
+                log.forceThrough(target);
+            } catch (IOException e) {
+                failure = e;
+            }
+            synchronized (this) {
+                if (failure == null) {
+                    forced = Math.max(forced, target);
+                    forceCount++;
+                } else {
+                    failures++;
+                    error = failure;
+                    // 让当前的等待者看到错误, 而不是一直重试
+                    requested = forced;
+                }
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Debug;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * LogRecovery reads the log to roll back a transaction or to recover the
+ * database after a crash.
+ * <p>
+ * Recovery makes three passes over the log:
+ * <ul>
+ * <li> Analysis reads the whole log and builds the active-transaction
+ * table, which tells for each transaction whether it committed, aborted or
+ * is still active (a loser), and the dirty-page table, which holds for each
+ * page the offset of the first record that may not be on disk (its
+ * recLSN). Both start from the tables in the last checkpoint, which is
+ * fuzzy: its dirty pages were written after it, if at all, so the
+ * recLSNs of the checkpoint may lie before it.
+ * <li> Redo reads the log from the smallest recLSN and applies the changes
+ * of committed transactions.
+ * <li> Undo reads the records of the losers and reverts them, last first.
+ * </ul>
+ * Aborted transactions are skipped: the abort record is written only after
+ * their rollback has reached the files.
+ * <p>
+ * The changes are applied by a pool of workers. Every page belongs to one
+ * worker, chosen by its id, and a worker applies the changes to its pages
+ * in the order of the log, so pages are replayed concurrently while the
+ * changes to each page keep their order. Transactions lock whole pages, so
+ * the changes of a loser to a page come after those of every committed
+ * transaction that changed it, and undo may start once redo is done.
+ *
+ * @see LogFile#recover
+ * @see LogFile#rollback
+ */
+class LogRecovery {
+
+    /** Number of workers that apply changes to pages. */
+    static final int WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** A worker writes its pages back after it has this many in memory. */
+    static final int MAX_PAGES = 1024;
+
+    private static final int ACTIVE = 0;
+    private static final int COMMITTED = 1;
+    private static final int ABORTED = 2;
+
+    // 通知 worker 没有更多修改了
+    private static final Change END = new Change(-1, -1, null, null, null, null);
+
+    private final LogFile log;
+    private final int workers;
+
+    /** A change to a page: a slot change, or whole images if slot is null. */
+    private static final class Change {
+        final long offset;
+        final long tid;
+        final PageId pid;
+        final SlotChange slot;
+        final byte[] before;
+        final byte[] after;
+
+        Change(long offset, long tid, PageId pid, SlotChange slot, byte[] before, byte[] after) {
+            this.offset = offset;
+            this.tid = tid;
+            this.pid = pid;
+            this.slot = slot;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    LogRecovery(LogFile log, int workers) {
+        this.log = log;
+        this.workers = workers;
+    }
+
+    /**
+     * Recover the database: redo the changes of committed transactions and
+     * undo the changes of transactions that neither committed nor aborted.
+     * The caller must keep appends out of the log.
+     *
+     * @return the ids of the transactions that were undone
+     */
+    Set<Long> recover() throws IOException {
+        // analysis: 活动事务表和脏页表, 从检查点中的两张表开始
+        Map<Long, Long> active = new HashMap<>();
+        Map<PageId, Long> dirtyPages = new HashMap<>();
+        long redoStart = LogFile.LONG_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(log.logFile, "r")) {
+            long checkpoint = raf.length() < LogFile.LONG_SIZE ? -1 : raf.readLong();
+            if (checkpoint != -1) {
+                raf.seek(checkpoint);
+                if (raf.readInt() != LogFile.CHECKPOINT_RECORD)
+                    throw new IOException("checkpoint pointer does not point to a checkpoint record");
+                raf.readLong();
+                redoStart = log.readCheckpoint(raf, active, dirtyPages);
+            }
+        }
+        Map<Long, Integer> status = new HashMap<>();
+        Map<Long, Long> firstRecord = new HashMap<>();
+        try (DataInputStream in = open(LogFile.LONG_SIZE)) {
+            while (true) {
+                int type;
+                long tid;
+                try {
+                    type = in.readInt();
+                    tid = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                Change change = readBody(in, type, tid);
+                long offset = in.readLong();
+                firstRecord.putIfAbsent(tid, offset);
+                switch (type) {
+                case LogFile.BEGIN_RECORD:
+                    status.put(tid, ACTIVE);
+                    break;
+                case LogFile.COMMIT_RECORD:
+                    status.put(tid, COMMITTED);
+                    break;
+                case LogFile.ABORT_RECORD:
+                    status.put(tid, ABORTED);
+                    break;
+                case LogFile.UPDATE_RECORD:
+                case LogFile.SLOT_RECORD:
+                    status.putIfAbsent(tid, ACTIVE);
+                    // 检查点开始之前弄脏的页都在检查点的脏页表中
+                    if (offset >= redoStart)
+                        dirtyPages.putIfAbsent(change.pid, offset);
+                    break;
+                }
+            }
+        }
+        status.remove(-1L);
+        // 检查点中的活动事务, 它们的 BEGIN 记录可能已被截断
+        for (Map.Entry<Long, Long> e : active.entrySet()) {
+            status.putIfAbsent(e.getKey(), ACTIVE);
+            firstRecord.merge(e.getKey(), e.getValue(), Math::min);
+        }
+        Set<Long> losers = new HashSet<>();
+        long undoStart = Long.MAX_VALUE;
+        for (Map.Entry<Long, Integer> e : status.entrySet()) {
+            if (e.getValue() == ACTIVE) {
+                losers.add(e.getKey());
+                undoStart = Math.min(undoStart, firstRecord.get(e.getKey()));
+            }
+        }
+        Debug.log("RECOVERY: " + status.size() + " transactions, " + losers.size() + " losers, "
+                + dirtyPages.size() + " dirty pages");
+
+        Set<PageId> touched = new HashSet<>();
+        // redo: 按页分给各个 worker, 按日志顺序重做已提交事务的修改
+        if (!dirtyPages.isEmpty()) {
+            Workers redo = new Workers(true);
+            long start = Collections.min(dirtyPages.values());
+            try (DataInputStream in = open(start)) {
+                for (Change c = next(in); c != null; c = next(in)) {
+                    if (c.pid == null || !Integer.valueOf(COMMITTED).equals(status.get(c.tid)))
+                        continue;
+                    Long recLSN = dirtyPages.get(c.pid);
+                    if (recLSN != null && c.offset >= recLSN) {
+                        redo.apply(c);
+                        touched.add(c.pid);
+                    }
+                }
+            } finally {
+                redo.finish();
+            }
+        }
+
+        // undo: 倒序撤销未完成事务的修改
+        if (!losers.isEmpty())
+            touched.addAll(undo(undoStart, losers));
+
+        for (PageId pid : touched)
+            Database.getBufferPool().discardPage(pid);
+        return losers;
+    }
+
+    /**
+     * Undo the changes of a live transaction to the files, and drop the
+     * pages it changed from the buffer pool.
+     *
+     * @param first the offset of the first record of the transaction
+     */
+    void rollback(TransactionId tid, long first) throws IOException {
+        for (PageId pid : undo(first, Collections.singleton(tid.getId())))
+            Database.getBufferPool().discardPage(pid);
+    }
+
+    /**
+     * Undo the changes of some transactions, reading the log from offset
+     * start.
+     *
+     * @return the pages that were changed
+     */
+    private Set<PageId> undo(long start, Set<Long> tids) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        try (DataInputStream in = open(start)) {
+            for (Change c = next(in); c != null; c = next(in)) {
+                if (c.pid != null && tids.contains(c.tid))
+                    changes.add(c);
+            }
+        }
+        Set<PageId> touched = new HashSet<>();
+        Workers undo = new Workers(false);
+        try {
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                undo.apply(changes.get(i));
+                touched.add(changes.get(i).pid);
+            }
+        } finally {
+            undo.finish();
+        }
+        return touched;
+    }
+
+    private DataInputStream open(long offset) throws IOException {
+        FileInputStream file = new FileInputStream(log.logFile);
+        file.getChannel().position(offset);
+        return new DataInputStream(new BufferedInputStream(file, 1 << 16));
+    }
+
+    /**
+     * @return the next record, with a null page id if it does not change a
+     *         page, or null at the end of the log
+     */
+    private Change next(DataInputStream in) throws IOException {
+        int type;
+        long tid;
+        try {
+            type = in.readInt();
+            tid = in.readLong();
+        } catch (EOFException e) {
+            return null;
+        }
+        Change c = readBody(in, type, tid);
+        long offset = in.readLong();
+        if (c == null)
+            return new Change(offset, tid, null, null, null, null);
+        return new Change(offset, tid, c.pid, c.slot, c.before, c.after);
+    }
+
+    /** @return the change in the body of a record, or null if it has none */
+    private Change readBody(DataInputStream in, int type, long tid) throws IOException {
+        switch (type) {
+        case LogFile.UPDATE_RECORD:
+            PageId[] pid = new PageId[1];
+            byte[] before = readPageImage(in, pid);
+            byte[] after = readPageImage(in, pid);
+            return new Change(-1, tid, pid[0], null, before, after);
+        case LogFile.SLOT_RECORD:
+            pid = new PageId[1];
+            SlotChange slot = log.readSlotChange(in, pid);
+            return new Change(-1, tid, pid[0], slot, null, null);
+        case LogFile.CHECKPOINT_RECORD:
+            log.readCheckpoint(in, new HashMap<>(), new HashMap<>());
+            return null;
+        default:
+            return null;
+        }
+    }
+
+    /** Read page data written by LogFile.writePageData as bytes. */
+    private byte[] readPageImage(DataInputStream in, PageId[] pid) throws IOException {
+        in.readUTF(); // page class
+        pid[0] = log.readPageId(in);
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    /** The bytes of a page in the log, written to its file as they are. */
+    private static final class PageImage implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        PageImage(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+
+        public long getLSN() {
+            return 0;
+        }
+
+        public void setLSN(long lsn) {
+        }
+    }
+
+    /**
+     * Worker threads that each apply the changes to the pages whose ids
+     * hash to them.
+     */
+    private final class Workers {
+        private final boolean redo;
+        private final Worker[] threads;
+        private volatile IOException error = null;
+
+        Workers(boolean redo) {
+            this.redo = redo;
+            threads = new Worker[workers];
+            for (int i = 0; i < workers; i++) {
+                threads[i] = new Worker();
+                threads[i].setName((redo ? "redo " : "undo ") + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+
+        /** Hand a change to the worker of its page. */
+        void apply(Change c) throws IOException {
+            if (error != null)
+                throw error;
+            threads[Math.floorMod(c.pid.hashCode(), workers)].put(c);
+        }
+
+        /** Wait until every change is applied and written to its file. */
+        void finish() throws IOException {
+            for (Worker w : threads)
+                w.put(END);
+            boolean interrupted = false;
+            for (Worker w : threads) {
+                while (w.isAlive()) {
+                    try {
+                        w.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (error != null)
+                throw error;
+        }
+
+        private final class Worker extends Thread {
+            private final BlockingQueue<Change> queue = new ArrayBlockingQueue<>(1024);
+            // 本 worker 的页: 解析过的页, 或者还没写回的整页内容
+            private final Map<PageId, Page> pages = new HashMap<>();
+            private final Map<PageId, byte[]> images = new HashMap<>();
+
+            void put(Change c) throws IOException {
+                try {
+                    queue.put(c);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted during recovery");
+                }
+            }
+
+            public void run() {
+                try {
+                    while (true) {
+                        Change c = queue.take();
+                        if (c == END)
+                            break;
+                        if (error == null)
+                            apply(c);
+                    }
+                    writeAll();
+                } catch (IOException | RuntimeException e) {
+                    error = e instanceof IOException ? (IOException) e : new IOException(e);
+                    // 出错后继续取走队列里的修改, 以免分发的线程阻塞
+                    drain();
+                } catch (InterruptedException e) {
+                    error = new IOException("interrupted during recovery");
+                }
+            }
+
+            private void drain() {
+                try {
+                    while (queue.take() != END)
+                        ;
+                } catch (InterruptedException e) {
+                    // give up
+                }
+            }
+
+            private void apply(Change c) throws IOException {
+                DbFile file;
+                try {
+                    file = Database.getCatalog().getDatabaseFile(c.pid.getTableId());
+                } catch (NoSuchElementException e) {
+                    // 表已经不在目录中, 没有可以恢复的文件
+                    return;
+                }
+                if (c.slot == null) {
+                    images.put(c.pid, redo ? c.after : c.before);
+                    pages.remove(c.pid);
+                } else {
+                    Page page = pages.get(c.pid);
+                    if (page == null) {
+                        byte[] image = images.remove(c.pid);
+                        if (image != null)
+                            file.writePage(new PageImage(c.pid, image));
+                        page = file.readPage(c.pid);
+                        pages.put(c.pid, page);
+                    }
+                    if (!(page instanceof SlotLoggedPage))
+                        throw new IOException("slot record for page " + c.pid + " of " + page.getClass());
+                    if (redo)
+                        c.slot.redo((SlotLoggedPage) page);
+                    else
+                        c.slot.undo((SlotLoggedPage) page);
+                }
+                if (pages.size() + images.size() > MAX_PAGES)
+                    writeAll();
+            }
+
+            private void writeAll() throws IOException {
+                for (Map.Entry<PageId, byte[]> e : images.entrySet())
+                    Database.getCatalog().getDatabaseFile(e.getKey().getTableId())
+                            .writePage(new PageImage(e.getKey(), e.getValue()));
+                for (Page page : pages.values())
+                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                images.clear();
+                pages.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). For every resident page the
+ * policy remembers the logical times of its last K accesses and evicts the
+ * page whose K-th most recent access lies furthest in the past. Pages that
+ * have been referenced fewer than K times have an infinite backward
+ * K-distance and go first (oldest last access first), so pages touched once
+ * by a scan are dropped before frequently used pages such as B+ tree roots.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** Default history depth, LRU-2. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final Map<PageId, History> histories = new HashMap<>();
+    private long clock = 0;
+
+    /** Access history of one page: the last k access times, newest first. */
+    private static class History {
+        final long[] times;
+        int count = 0;
+
+        History(int k) {
+            times = new long[k];
+        }
+
+        void access(long now) {
+            System.arraycopy(times, 0, times, 1, times.length - 1);
+            times[0] = now;
+            if (count < times.length)
+                count++;
+        }
+    }
+
+    public LruKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of past references tracked per page; must be at least 1
+     */
+    public LruKEvictionPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            h = new History(k);
+            histories.put(pid, h);
+        }
+        h.access(++clock);
+    }
+
+    public synchronized void remove(PageId pid) {
+        histories.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        boolean victimFull = true;
+        long victimTime = Long.MAX_VALUE;
+        for (Map.Entry<PageId, History> e : histories.entrySet()) {
+            History h = e.getValue();
+            boolean full = h.count == k;
+            // pages with fewer than k references are ranked by their last access,
+            // the others by their k-th most recent access
+            long time = full ? h.times[k - 1] : h.times[0];
+            if (full && !victimFull)
+                continue;
+            if (full == victimFull && time >= victimTime)
+                continue;
+            if (!evictable.test(e.getKey()))
+                continue;
+            victim = e.getKey();
+            victimFull = full;
+            victimTime = time;
+        }
+        return victim;
+    }
+}
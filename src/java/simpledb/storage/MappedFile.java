@@ -0,0 +1,71 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFile maps a data file read-only into memory, so that a DbFile can
+ * copy pages out of the mapped region instead of reading each of them with
+ * a system call. The pages still get their own bytes, since the tuples of a
+ * page can outlive it and the mapping changes when the page is written
+ * again (see {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)}).
+ * <p>
+ * It is meant for read-mostly tables: writes still go through the
+ * FileChannel, and the mapping shares the OS page cache with them, so
+ * written pages are visible through it.
+ * <p>
+ * When a read falls past the end of the current mapping, the file is mapped
+ * again at its current size, so the mapping follows the file as it grows.
+ * Only the first Integer.MAX_VALUE bytes of a file can be mapped; reads
+ * beyond that return null and the caller falls back to normal I/O.
+ * <p>
+ * MappedFile is thread-safe.
+ *
+ * @see HeapFile
+ * @see simpledb.index.BTreeFile
+ */
+public class MappedFile {
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer map;
+
+    /**
+     * @param channel an open channel on the file to map; it must be readable
+     *                and stays owned by the caller
+     */
+    public MappedFile(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Return a read-only view of len bytes of the file starting at offset,
+     * positioned at 0, or null if that range is not in the file (or cannot
+     * be mapped).
+     */
+    public ByteBuffer slice(long offset, int len) throws IOException {
+        MappedByteBuffer m = map;
+        if (m == null || offset + len > m.capacity()) {
+            m = remap(offset + len);
+            if (m == null)
+                return null;
+        }
+        // duplicate 只读原 buffer 的 position/limit, 原 buffer 不被修改, 所以可以并发调用
+        ByteBuffer view = m.duplicate();
+        view.position((int) offset);
+        view.limit((int) offset + len);
+        return view.slice();
+    }
+
+    /** Map the file again if it now covers end, and return the mapping. */
+    private synchronized MappedByteBuffer remap(long end) throws IOException {
+        if (map != null && end <= map.capacity())
+            return map;
+        long size = Math.min(channel.size(), Integer.MAX_VALUE);
+        if (end > size)
+            return null;
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        return map;
+    }
+}
@@ -58,4 +58,14 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Return the LSN of the last log record that covers a change to this
+     * page (its pageLSN), or 0 if none does. The log must be on disk up to
+     * this record before the page is written.
+     */
+    long getLSN();
+
+    /** Set the pageLSN of this page; see {@link #getLSN}. */
+    void setLSN(long lsn);
 }
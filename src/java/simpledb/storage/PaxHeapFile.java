@@ -0,0 +1,48 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are columnar: each page keeps the
+ * values of one field of all its tuples together (see {@link HeapPage}).
+ * Tuples can be inserted and deleted as in a HeapFile. A table stored this
+ * way must have only fixed-length fields; the file is written by
+ * {@link HeapFileEncoder#convertColumnar}.
+ *
+ * @see HeapPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a columnar heap file backed by the specified file.
+     *
+     * @param f
+     *            the file written by HeapFileEncoder.convertColumnar
+     * @throws IllegalArgumentException if td has variable-length fields
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * @param mmap
+     *            if true, pages are read through a memory mapping of the file
+     */
+    public PaxHeapFile(File f, TupleDesc td, boolean mmap) {
+        super(f, td, mmap);
+        if (td.isVariableLength())
+            throw new IllegalArgumentException("a table with variable-length fields cannot have columnar pages");
+    }
+
+    @Override
+    protected Page parsePage(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, data, true);
+    }
+
+    @Override
+    protected Page parsePage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new HeapPage(id, data, true);
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb.storage;
+
+/**
+ * ScanRing is a small set of private frames used by a large sequential scan.
+ * Pages that the scan has to read from disk are kept in the ring instead of
+ * the shared page table of the BufferPool, and the ring reuses its frames
+ * round-robin, so one full scan cannot push the working set of other
+ * transactions out of the pool. Pages already resident in the shared pool
+ * are still served from there.
+ * <p>
+ * A ring belongs to a single iterator and is not thread-safe.
+ *
+ * @see BufferPool#newScanRing(int)
+ * @see BufferPool#getPage(simpledb.transaction.TransactionId, PageId, simpledb.common.Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    private final Page[] frames;
+    private int next = 0;
+
+    /**
+     * @param numFrames the number of private frames in the ring
+     */
+    public ScanRing(int numFrames) {
+        frames = new Page[numFrames];
+    }
+
+    /** Return the page with the specified id if it is in the ring, or null */
+    Page get(PageId pid) {
+        for (Page p : frames) {
+            if (p != null && p.getId().equals(pid))
+                return p;
+        }
+        return null;
+    }
+
+    /** Put a page into the ring, replacing the oldest page in it */
+    void add(Page page) {
+        frames[next] = page;
+        next = (next + 1) % frames.length;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+}
@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+/**
+ * The contents of one slot of a page before and after a change; see
+ * {@link SlotLoggedPage}. Null contents stand for an empty slot.
+ */
+public final class SlotChange {
+
+    private final int slot;
+    private final byte[] before;
+    private final byte[] after;
+
+    public SlotChange(int slot, byte[] before, byte[] after) {
+        this.slot = slot;
+        this.before = before;
+        this.after = after;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public byte[] getBefore() {
+        return before;
+    }
+
+    public byte[] getAfter() {
+        return after;
+    }
+
+    /** Set the slot of page to its contents after the change. */
+    public void redo(SlotLoggedPage page) {
+        page.setSlot(slot, after);
+    }
+
+    /** Set the slot of page to its contents before the change. */
+    public void undo(SlotLoggedPage page) {
+        page.setSlot(slot, before);
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb.storage;
+
+import java.util.*;
+
+/**
+ * SlotChanges collects the changes of a {@link SlotLoggedPage} until they
+ * are logged. The page calls {@link #beforeChange} before it changes a
+ * slot, which keeps the first contents of the slot, and
+ * {@link #changedOutsideSlots} when it changes anything else.
+ * <p>
+ * Pages are changed only by the transaction that holds their exclusive
+ * lock, so SlotChanges is not thread-safe.
+ */
+public final class SlotChanges {
+
+    private final SlotLoggedPage page;
+    // 每个改过的 slot 在第一次修改前的内容
+    private final Map<Integer, byte[]> before = new LinkedHashMap<>();
+    private boolean outside = false;
+
+    public SlotChanges(SlotLoggedPage page) {
+        this.page = page;
+    }
+
+    /** Remember the contents of a slot that is about to change. */
+    public void beforeChange(int slot) {
+        if (!before.containsKey(slot))
+            before.put(slot, page.getSlot(slot));
+    }
+
+    /** Note that the page changed outside its slots. */
+    public void changedOutsideSlots() {
+        outside = true;
+    }
+
+    /** @see SlotLoggedPage#takeSlotChanges */
+    public List<SlotChange> take() {
+        List<SlotChange> changes = null;
+        if (!outside) {
+            changes = new ArrayList<>(before.size());
+            for (Map.Entry<Integer, byte[]> e : before.entrySet()) {
+                byte[] after = page.getSlot(e.getKey());
+                // 改回原样的 slot 不用记录
+                if (!Arrays.equals(e.getValue(), after))
+                    changes.add(new SlotChange(e.getKey(), e.getValue(), after));
+            }
+        }
+        before.clear();
+        outside = false;
+        return changes;
+    }
+}
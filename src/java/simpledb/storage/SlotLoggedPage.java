@@ -0,0 +1,38 @@
+package simpledb.storage;
+
+import java.util.List;
+
+/**
+ * SlotLoggedPage is a page whose changes are logged as the contents of the
+ * slots they changed (physiological logging), instead of as images of the
+ * whole page. A record holds the contents of one slot before and after a
+ * change; redo sets the slot to the contents after it and undo to the
+ * contents before it, so a record can be applied any number of times.
+ * <p>
+ * A page that changes outside its slots, e.g. the sibling pointers of a
+ * B+ tree leaf, is logged as a whole when it is written.
+ *
+ * @see SlotChanges
+ * @see LogFile#logSlotChange
+ */
+public interface SlotLoggedPage extends Page {
+
+    /**
+     * Return the slots changed since the last call and clear them.
+     *
+     * @return the changes, or null if the page also changed outside its
+     *         slots and must be logged as a whole
+     */
+    List<SlotChange> takeSlotChanges();
+
+    /**
+     * @return the contents of a slot, or null if the slot is empty
+     */
+    byte[] getSlot(int slot);
+
+    /**
+     * Set the contents of a slot, as returned by {@link #getSlot}, or empty
+     * it if contents is null. Used by recovery; the change is not logged.
+     */
+    void setSlot(int slot, byte[] contents);
+}
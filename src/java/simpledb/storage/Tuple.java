@@ -1,5 +1,6 @@
 package simpledb.storage;
 import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -38,6 +39,15 @@ public class Tuple implements Serializable {
 
     }
 
+    /**
+     * A tuple that shares td instead of copying it, and uses fields as its
+     * values.
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.tupleDescription = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -86,6 +96,16 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * Compares the ith field of this tuple to operand.
+     *
+     * @return getField(i).compare(op, operand)
+     * @see Field#compare
+     */
+    public boolean compare(int i, Predicate.Op op, Field operand) {
+        return getField(i).compare(op, operand);
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -99,7 +119,7 @@ public class Tuple implements Serializable {
         String result = "";
         for (int i = 0; i < len; ++i) {
             if(i != 0) result += " ";
-            result += tupleDescription.getTdItems()[i].fieldName + fields[i];
+            result += tupleDescription.getTdItems()[i].fieldName + getField(i);
         }
         return result;
     }
@@ -119,7 +139,7 @@ public class Tuple implements Serializable {
 
             @Override
             public Field next() {
-                return fields[pos++];
+                return getField(pos++);
             }
         };
     }
@@ -0,0 +1,226 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one TupleDesc, stored
+ * column by column: an int[] for each INT_TYPE field and a String[] for each
+ * STRING_TYPE field, plus the RecordId of each row. Batch operators work on
+ * the column arrays directly instead of allocating a Tuple and its Fields for
+ * every row.
+ *
+ * @see simpledb.execution.BatchOpIterator
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_SIZE = 4096;
+
+    private final TupleDesc td;
+    private final Type[] types;
+    private final int[][] ints;
+    private final String[][] strings;
+    private final RecordId[] rids;
+    private int size = 0;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows in the batch
+     * @param capacity the maximum number of rows in the batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        int n = td.numFields();
+        types = new Type[n];
+        ints = new int[n][];
+        strings = new String[n][];
+        for (int i = 0; i < n; i++) {
+            types[i] = td.getFieldType(i);
+            if (types[i] == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+        rids = new RecordId[capacity];
+    }
+
+    /** A batch that shares the column arrays of another one. */
+    private TupleBatch(TupleDesc td, Type[] types, int[][] ints, String[][] strings,
+                       RecordId[] rids, int size) {
+        this.td = td;
+        this.types = types;
+        this.ints = ints;
+        this.strings = strings;
+        this.rids = rids;
+        this.size = size;
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in this batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return the maximum number of rows in this batch */
+    public int capacity() {
+        return rids.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == rids.length;
+    }
+
+    /** Remove all rows from this batch. */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column; only the first size() entries
+     *         are valid
+     */
+    public int[] getIntColumn(int col) {
+        return ints[col];
+    }
+
+    /**
+     * @return the values of a STRING_TYPE column; only the first size()
+     *         entries are valid
+     */
+    public String[] getStringColumn(int col) {
+        return strings[col];
+    }
+
+    /** @return the value of a field, as a new Field */
+    public Field getField(int row, int col) {
+        if (types[col] == Type.INT_TYPE)
+            return new IntField(ints[col][row]);
+        return new StringField(strings[col][row], Type.STRING_LEN);
+    }
+
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /**
+     * Add an empty row to the end of this batch and return its index. The
+     * caller must set every field of the row.
+     */
+    public int addRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        rids[size] = null;
+        return size++;
+    }
+
+    /** Set a field of a row to the value of f. */
+    public void setField(int row, int col, Field f) {
+        if (types[col] == Type.INT_TYPE)
+            ints[col][row] = ((IntField) f).getValue();
+        else
+            strings[col][row] = ((StringField) f).getValue();
+    }
+
+    /**
+     * Copy one value of another batch into a field of a row of this batch.
+     * The two columns must have the same type.
+     */
+    public void copyField(int row, int col, TupleBatch src, int srcRow, int srcCol) {
+        if (types[col] == Type.INT_TYPE)
+            ints[col][row] = src.ints[srcCol][srcRow];
+        else
+            strings[col][row] = src.strings[srcCol][srcRow];
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        rids[row] = rid;
+    }
+
+    /**
+     * Add a copy of a tuple to the end of this batch. The int fields of a
+     * tuple on a HeapPage are copied from the page without creating Fields.
+     */
+    public void addTuple(Tuple t) {
+        addTuple(t, null);
+    }
+
+    /**
+     * Add a copy of some of the fields of a tuple to the end of this batch.
+     * The other fields of the row are 0 or the empty string, and the tuple
+     * does not read them.
+     *
+     * @param columns the fields to copy, or null to copy all of them
+     */
+    public void addTuple(Tuple t, boolean[] columns) {
+        int row = addRow();
+        HeapPageTuple pt = t instanceof HeapPageTuple ? (HeapPageTuple) t : null;
+        for (int i = 0; i < types.length; i++) {
+            if (columns != null && !columns[i]) {
+                if (types[i] == Type.INT_TYPE)
+                    ints[i][row] = 0;
+                else
+                    strings[i][row] = "";
+            } else if (pt != null && types[i] == Type.INT_TYPE) {
+                ints[i][row] = pt.getInt(i);
+            } else {
+                setField(row, i, t.getField(i));
+            }
+        }
+        rids[row] = t.getRecordId();
+    }
+
+    /**
+     * Add a copy of a row of another batch with the same schema to the end of
+     * this batch.
+     */
+    public void addRow(TupleBatch src, int srcRow) {
+        int row = addRow();
+        for (int i = 0; i < types.length; i++)
+            copyField(row, i, src, srcRow, i);
+        rids[row] = src.rids[srcRow];
+    }
+
+    /** @return a new Tuple with the values of a row */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < types.length; i++)
+            t.setField(i, getField(row, i));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Return a batch with the specified columns of this batch. The new batch
+     * shares the column arrays with this one, so no values are copied.
+     *
+     * @param td the schema of the new batch
+     * @param fields the columns of this batch to keep, in order
+     */
+    public TupleBatch project(TupleDesc td, List<Integer> fields) {
+        int n = fields.size();
+        Type[] pTypes = new Type[n];
+        int[][] pInts = new int[n][];
+        String[][] pStrings = new String[n][];
+        for (int i = 0; i < n; i++) {
+            int col = fields.get(i);
+            pTypes[i] = types[col];
+            pInts[i] = ints[col];
+            pStrings[i] = strings[col];
+        }
+        return new TupleBatch(td, pTypes, pInts, pStrings, rids, size);
+    }
+}
@@ -159,7 +159,8 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Tuples with variable-length fields take at most this many
+     *         bytes; see {@link #getSize(Tuple)} and {@link #getMinSize()}.
      */
     public int getSize() {
         int len = 0;
@@ -169,6 +170,43 @@ public class TupleDesc implements Serializable {
         return len;
     }
 
+    /**
+     * @return the number of bytes t takes in a slotted HeapPage
+     * @see Type#getLen(Field)
+     */
+    public int getSize(Tuple t) {
+        int len = 0;
+        for(int i = 0; i < tdItems.length; ++i){
+            len += tdItems[i].fieldType.getLen(t.getField(i));
+        }
+        return len;
+    }
+
+    /**
+     * @return the smallest number of bytes a tuple takes in a slotted
+     *         HeapPage
+     * @see Type#getMinLen()
+     */
+    public int getMinSize() {
+        int len = 0;
+        for(int i = 0; i < tdItems.length; ++i){
+            len += tdItems[i].fieldType.getMinLen();
+        }
+        return len;
+    }
+
+    /**
+     * @return true if some field of this TupleDesc has a variable-length
+     *         type, so that its tuples are stored in slotted pages
+     */
+    public boolean isVariableLength() {
+        for(int i = 0; i < tdItems.length; ++i){
+            if(tdItems[i].fieldType.isVariableLength())
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -89,6 +89,26 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Reading a page past the end of the file is an error, for both the
+	 * normal and the memory-mapped read path.
+	 */
+	@Test
+	public void readPagePastEnd() {
+		BTreeFile mapped = new BTreeFile(f.getFile(), 0, td, true);
+		BTreePageId leaf = new BTreePageId(f.getId(), 1, BTreePageId.LEAF);
+		assertArrayEquals(f.readPage(leaf).getPageData(), mapped.readPage(leaf).getPageData());
+
+		BTreePageId pastEnd = new BTreePageId(f.getId(), f.numPages() + 1, BTreePageId.LEAF);
+		for (BTreeFile file : new BTreeFile[] { f, mapped }) {
+			try {
+				file.readPage(pastEnd);
+				fail("expected exception");
+			} catch (IllegalArgumentException ignored) {
+			}
+		}
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
@@ -207,6 +227,36 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * The leaf pages reached by a search are locked READ_ONLY, so two
+	 * transactions can read the same leaf at once.
+	 */
+	@Test(timeout = 20000) public void readersShareLeaves() throws Exception {
+		BTreeFile twoLeafPageFile = BTreeUtility.createBTreeFile(2, 520,
+				null, null, 0);
+		IndexPredicate ipred = new IndexPredicate(Op.EQUALS, new IntField(5));
+		TransactionId other = new TransactionId();
+		try {
+			for (TransactionId t : new TransactionId[]{ tid, other }) {
+				DbFileIterator it = twoLeafPageFile.indexIterator(t, ipred);
+				it.open();
+				assertTrue(it.hasNext());
+				it.close();
+				it = twoLeafPageFile.iterator(t);
+				it.open();
+				int count = 0;
+				while (it.hasNext()) {
+					it.next();
+					count++;
+				}
+				assertEquals(520, count);
+				it.close();
+			}
+		} finally {
+			Database.getBufferPool().transactionComplete(other);
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BatchOpIteratorTest extends SimpleDbTestBase {
+
+    // more rows than fit in one batch
+    private static final int ROWS = 10000;
+
+    private HeapFile table;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> drain(OpIterator it) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return result;
+    }
+
+    /**
+     * A scan read in batches returns every tuple, across several batches.
+     */
+    @Test public void scanBatches() throws Exception {
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        int batches = 0;
+        int rows = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            assertFalse(batch.isEmpty());
+            batches++;
+            rows += batch.size();
+        }
+        scan.close();
+        assertEquals(ROWS, rows);
+        assertTrue(batches > 1);
+
+        SystemTestUtil.matchTuples(new BatchRowAdapter(new SeqScan(tid, table.getId(), "t")), tuples);
+    }
+
+    /**
+     * Filter and Project run in batches return the same tuples as in rows.
+     */
+    @Test public void filterProject() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) > 50)
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+        }
+
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(50));
+        Filter filter = new Filter(p, new SeqScan(tid, table.getId(), "t"));
+        Project project = new Project(Arrays.asList(2, 0),
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE}, filter);
+        SystemTestUtil.matchTuples(new BatchRowAdapter(project), expected);
+    }
+
+    /**
+     * HashEquiJoin run in batches returns the same tuples as in rows, also
+     * when its left child is a row-only iterator.
+     */
+    @Test public void hashJoin() throws Exception {
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, small);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        List<List<Integer>> expected = drain(new HashEquiJoin(p,
+                new SeqScan(tid, other.getId(), "s"), new SeqScan(tid, table.getId(), "t")));
+        assertTrue(expected.size() > TupleBatch.DEFAULT_SIZE);
+
+        HashEquiJoin batched = new HashEquiJoin(p,
+                new SeqScan(tid, other.getId(), "s"), new SeqScan(tid, table.getId(), "t"));
+        SystemTestUtil.matchTuples(new BatchRowAdapter(batched), expected);
+
+        // a row-only left child, and a batch pipeline on the right
+        int[] data = new int[small.size() * 2];
+        for (int i = 0; i < small.size(); i++) {
+            data[2 * i] = small.get(i).get(0);
+            data[2 * i + 1] = small.get(i).get(1);
+        }
+        HashEquiJoin mixed = new HashEquiJoin(p, TestUtil.createTupleList(2, data),
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                        new SeqScan(tid, table.getId(), "t")));
+        SystemTestUtil.matchTuples(new BatchRowAdapter(mixed), expected);
+    }
+
+    /**
+     * Aggregate consumes a batch child and returns the same groups as when it
+     * reads rows.
+     */
+    @Test public void aggregate() throws Exception {
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples)
+            sums.merge(t.get(0), t.get(1), Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet())
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(agg, expected);
+        agg = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(new BatchRowAdapter(agg), expected);
+        // a batch child whose rows are counted without grouping
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50));
+        int count = 0;
+        for (List<Integer> t : tuples)
+            if (t.get(0) < 50) count++;
+        agg = new Aggregate(new Filter(p, new SeqScan(tid, table.getId(), "t")), 2,
+                Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        SystemTestUtil.matchTuples(agg, Collections.singletonList(Collections.singletonList(count)));
+    }
+
+    /**
+     * A batch pipeline can be rewound.
+     */
+    @Test public void rewind() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10));
+        BatchRowAdapter it = new BatchRowAdapter(new Filter(p, new SeqScan(tid, table.getId(), "t")));
+        it.open();
+        int first = 0;
+        while (it.hasNext()) {
+            it.next();
+            first++;
+        }
+        it.rewind();
+        int second = 0;
+        while (it.hasNext()) {
+            it.next();
+            second++;
+        }
+        it.close();
+        assertTrue(first > 0);
+        assertEquals(first, second);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchOpIteratorTest.class);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final int LEFT_ROWS = 1200;
+    private static final int RIGHT_ROWS = 50;
+    private static final int MAX_VALUE = 100;
+
+    private final List<List<Integer>> leftTuples = new ArrayList<>();
+    private final List<List<Integer>> rightTuples = new ArrayList<>();
+    private int[] left, right;
+    private int rewinds;
+
+    @Before public void setUp() throws Exception {
+        Random r = new Random(7);
+        left = new int[2 * LEFT_ROWS];
+        for (int i = 0; i < LEFT_ROWS; i++) {
+            left[2 * i] = r.nextInt(MAX_VALUE);
+            left[2 * i + 1] = i;
+            leftTuples.add(Arrays.asList(left[2 * i], i));
+        }
+        right = new int[2 * RIGHT_ROWS];
+        for (int i = 0; i < RIGHT_ROWS; i++) {
+            right[2 * i] = r.nextInt(MAX_VALUE);
+            right[2 * i + 1] = -i;
+            rightTuples.add(Arrays.asList(right[2 * i], -i));
+        }
+        rewinds = 0;
+    }
+
+    /** A right child that counts how often it is read again. */
+    private OpIterator rightChild() {
+        TupleIterator t = TestUtil.createTupleList(2, right);
+        List<Tuple> tuples = new ArrayList<>();
+        t.open();
+        while (t.hasNext())
+            tuples.add(t.next());
+        t.close();
+        return new TupleIterator(t.getTupleDesc(), tuples) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void rewind() {
+                rewinds++;
+                super.rewind();
+            }
+        };
+    }
+
+    /** A block takes one page of the buffer pool */
+    private Join blockJoin(Predicate.Op op) {
+        double share = 1.0 / Database.getBufferPool().getNumPages();
+        return new Join(new JoinPredicate(0, op, 0), TestUtil.createTupleList(2, left), rightChild(), share);
+    }
+
+    /**
+     * Joins over several blocks give the same tuples as a nested loop, and
+     * read the right child once per block.
+     */
+    @Test public void blocks() throws Exception {
+        Join j = blockJoin(Predicate.Op.EQUALS);
+        int blocks = (LEFT_ROWS + j.getBlockSize() - 1) / j.getBlockSize();
+        assertTrue(blocks > 1);
+
+        Predicate.Op[] ops = {
+                Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS, Predicate.Op.GREATER_THAN
+        };
+        for (Predicate.Op op : ops) {
+            rewinds = 0;
+            SystemTestUtil.matchTuples(blockJoin(op), SystemTestUtil.nestedLoopJoin(leftTuples, rightTuples, op));
+            assertEquals(blocks - 1, rewinds);
+        }
+
+        // the whole left child fits in one block by default
+        rewinds = 0;
+        SystemTestUtil.matchTuples(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, left), rightChild()),
+                SystemTestUtil.nestedLoopJoin(leftTuples, rightTuples, Predicate.Op.EQUALS));
+        assertEquals(0, rewinds);
+    }
+
+    /**
+     * A join over several blocks can be rewound.
+     */
+    @Test public void rewind() throws Exception {
+        Join j = blockJoin(Predicate.Op.NOT_EQUALS);
+        j.open();
+        int first = 0;
+        while (j.hasNext()) {
+            j.next();
+            first++;
+        }
+        j.rewind();
+        int second = 0;
+        while (j.hasNext()) {
+            j.next();
+            second++;
+        }
+        j.close();
+        assertEquals(SystemTestUtil.nestedLoopJoin(leftTuples, rightTuples, Predicate.Op.NOT_EQUALS).size(), first);
+        assertEquals(first, second);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+    }
+}
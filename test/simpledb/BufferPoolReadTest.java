@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolReadTest extends TestUtil.CreateHeapFile {
+
+    // counts readPage calls and makes each read slow enough to overlap
+    static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        public SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Concurrent misses on the same page must read it from disk only once,
+     * and every thread must get the same page.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1000, null, new ArrayList<>());
+        SlowHeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId pid = new HeapPageId(table.getId(), 0);
+
+        final int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Page> seen = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            Thread t = new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    start.await();
+                    Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                    synchronized (seen) {
+                        seen.add(p);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            t.start();
+            workers.add(t);
+        }
+        start.countDown();
+        for (Thread t : workers)
+            t.join();
+
+        assertEquals(1, table.reads.get());
+        assertEquals(threads, seen.size());
+        for (Page p : seen)
+            assertSame(seen.get(0), p);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+
+    private File dir;
+    private File text;
+    private final List<String> rows = new ArrayList<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        dir = File.createTempFile("compressed", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        text = new File(dir, "t.txt");
+        text.deleteOnExit();
+        Random r = new Random(3);
+        try (PrintWriter w = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                // columns with few values, with long runs, and with a new value in every row
+                String row = r.nextInt(20) + ",code" + r.nextInt(5) + "," + i / 100 + "," + i;
+                w.println(row);
+                rows.add(row);
+            }
+        }
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private CompressedHeapFile compressed() throws IOException {
+        File f = new File(dir, "t.dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertCompressed(text, f, BufferPool.getPageSize(), TYPES.length, TYPES, ',');
+        CompressedHeapFile hf = new CompressedHeapFile(f, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, "t");
+        return hf;
+    }
+
+    private static List<String> contents(OpIterator it) throws Exception {
+        List<String> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                sb.append(i == 0 ? "" : ",").append(t.getField(i));
+            result.add(sb.toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A compressed file takes a fraction of the pages of a heap file and
+     * returns the same tuples.
+     */
+    @Test public void scan() throws Exception {
+        CompressedHeapFile hf = compressed();
+        File fixed = new File(dir, "fixed.dat");
+        fixed.deleteOnExit();
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), TYPES.length, TYPES);
+        assertTrue(hf.numPages() * 5 < fixed.length() / BufferPool.getPageSize());
+
+        List<String> expected = new ArrayList<>(rows);
+        Collections.sort(expected);
+        assertEquals(expected, contents(new SeqScan(tid, hf.getId(), "t")));
+    }
+
+    /**
+     * Predicates on compressed pages give the same tuples as on the values.
+     */
+    @Test public void filter() throws Exception {
+        CompressedHeapFile hf = compressed();
+        Predicate[] preds = {
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("code3", Type.STRING_LEN)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(4)),
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(17)),
+                new Predicate(3, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10))
+        };
+        for (Predicate p : preds) {
+            List<String> expected = expected(p);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, contents(new Filter(p, new SeqScan(tid, hf.getId(), "t"))));
+        }
+    }
+
+    /**
+     * A Filter read a batch at a time tests the rows of a compressed scan
+     * one at a time, by their codes, instead of comparing decoded batches.
+     */
+    @Test public void batchFilter() throws Exception {
+        CompressedHeapFile hf = compressed();
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField("code3", Type.STRING_LEN)) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public int filter(TupleBatch batch, int[] selected) {
+                throw new AssertionError("decoded rows compared in a batch");
+            }
+        };
+        Filter filter = new Filter(p, new SeqScan(tid, hf.getId(), "t"));
+        List<String> result = new ArrayList<>();
+        filter.open();
+        TupleBatch batch;
+        while ((batch = filter.nextBatch()) != null) {
+            for (int r = 0; r < batch.size(); r++) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < TYPES.length; i++)
+                    sb.append(i == 0 ? "" : ",").append(batch.getField(r, i));
+                result.add(sb.toString());
+            }
+        }
+        filter.close();
+        Collections.sort(result);
+        assertEquals(expected(p), result);
+    }
+
+    /** @return the rows of the table that pass p, sorted */
+    private List<String> expected(Predicate p) {
+        List<String> expected = new ArrayList<>();
+        for (String row : rows) {
+            String value = row.split(",")[p.getField()];
+            Field f = TYPES[p.getField()] == Type.INT_TYPE ? new IntField(Integer.parseInt(value))
+                    : new StringField(value, Type.STRING_LEN);
+            if (f.compare(p.getOp(), p.getOperand()))
+                expected.add(row);
+        }
+        Collections.sort(expected);
+        return expected;
+    }
+
+    /**
+     * Compressed tables are read-only, and are chosen in the catalog with
+     * the compressed option.
+     */
+    @Test public void catalog() throws Exception {
+        CompressedHeapFile hf = compressed();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        for (int i = 0; i < TYPES.length; i++)
+            t.setField(i, TYPES[i] == Type.INT_TYPE ? new IntField(1) : new StringField("x", Type.STRING_LEN));
+        try {
+            hf.insertTuple(tid, t);
+            fail("compressed tables are read-only");
+        } catch (DbException e) {
+            // expected
+        }
+
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(new FileWriter(schema))) {
+            w.println("t (a int, b string, c int, d int) compressed");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("t"));
+        assertTrue(f instanceof CompressedHeapFile);
+        assertEquals(rows.size(), contents(new SeqScan(tid, f.getId(), "t")).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
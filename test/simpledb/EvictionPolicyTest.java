@@ -0,0 +1,73 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockEvictionPolicy;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKEvictionPolicy;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final PageId p0 = new HeapPageId(-1, 0);
+    private static final PageId p1 = new HeapPageId(-1, 1);
+    private static final PageId p2 = new HeapPageId(-1, 2);
+
+    /**
+     * CLOCK gives recently referenced pages a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy policy = new ClockEvictionPolicy();
+        policy.recordAccess(p0);
+        policy.recordAccess(p1);
+        policy.recordAccess(p2);
+        // the first sweep clears every bit, then p0 is the first clear frame
+        assertEquals(p0, policy.chooseVictim(pid -> true));
+        policy.remove(p0);
+        // p1 is referenced again, so the hand skips it
+        policy.recordAccess(p1);
+        assertEquals(p2, policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * CLOCK only returns pages accepted by the evictable test.
+     */
+    @Test public void clockSkipsPinned() {
+        EvictionPolicy policy = new ClockEvictionPolicy();
+        policy.recordAccess(p0);
+        policy.recordAccess(p1);
+        assertEquals(p1, policy.chooseVictim(pid -> !pid.equals(p0)));
+        assertNull(policy.chooseVictim(pid -> false));
+    }
+
+    /**
+     * LRU-2 evicts a page referenced once before pages referenced twice,
+     * even when the single reference is the most recent access.
+     */
+    @Test public void lruKPrefersCorrelatedHistory() {
+        EvictionPolicy policy = new LruKEvictionPolicy(2);
+        policy.recordAccess(p0);
+        policy.recordAccess(p0);
+        policy.recordAccess(p1);
+        policy.recordAccess(p1);
+        policy.recordAccess(p2);
+        assertEquals(p2, policy.chooseVictim(pid -> true));
+        policy.remove(p2);
+        // p0's second most recent access is the oldest
+        assertEquals(p0, policy.chooseVictim(pid -> true));
+        assertEquals(p1, policy.chooseVictim(pid -> !pid.equals(p0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int COMMITS = 25;
+
+    private LogFile log;
+
+    @Before public void openLog() {
+        log = Database.getLogFile();
+    }
+
+    /** Begin and commit transactions from several threads at once. */
+    private void commitConcurrently() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < COMMITS; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    /**
+     * Transactions that commit together share forces of the log.
+     */
+    @Test public void sharedForces() throws Exception {
+        log.setGroupCommit(2, Long.MAX_VALUE);
+        commitConcurrently();
+        assertEquals(2 * THREADS * COMMITS, log.getTotalRecords());
+        long forces = log.getGroupForceCount();
+        assertTrue(forces > 0);
+        assertTrue("forces: " + forces, forces < THREADS * COMMITS / 2);
+    }
+
+    /**
+     * A commit does not wait for the delay once enough of the log is not
+     * yet on disk.
+     */
+    @Test public void byteThreshold() throws Exception {
+        log.setGroupCommit(60 * 1000, 1);
+        long start = System.currentTimeMillis();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertTrue(System.currentTimeMillis() - start < 30 * 1000);
+        assertEquals(1, log.getGroupForceCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private static final int LEFT_ROWS = 3000;
+    private static final int RIGHT_ROWS = 2000;
+    // far fewer left tuples than the join is given
+    private static final int SMALL_MEMORY = 200;
+
+    private HeapFile left, right;
+    private final List<List<Integer>> leftTuples = new ArrayList<>();
+    private final List<List<Integer>> rightTuples = new ArrayList<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, LEFT_ROWS, 1000, null, leftTuples);
+        right = SystemTestUtil.createRandomHeapFile(2, RIGHT_ROWS, 1000, null, rightTuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> join(List<List<Integer>> l, List<List<Integer>> r) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> a : l) {
+            for (List<Integer> b : r) {
+                if (a.get(0).equals(b.get(0))) {
+                    List<Integer> t = new ArrayList<>(a);
+                    t.addAll(b);
+                    result.add(t);
+                }
+            }
+        }
+        return result;
+    }
+
+    private HashEquiJoin hashJoin(int memory) {
+        return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"), memory);
+    }
+
+    /**
+     * A left child larger than memory is partitioned, with or without an
+     * estimate of its size, and gives the same result as an in-memory join.
+     */
+    @Test public void spillPartitions() throws Exception {
+        List<List<Integer>> expected = join(leftTuples, rightTuples);
+
+        HashEquiJoin inMemory = hashJoin(HashEquiJoin.MAP_SIZE);
+        inMemory.open();
+        assertEquals(1, inMemory.getNumPartitions());
+        inMemory.close();
+        SystemTestUtil.matchTuples(hashJoin(HashEquiJoin.MAP_SIZE), expected);
+
+        // no estimate: partitions once memory is full
+        HashEquiJoin j = hashJoin(SMALL_MEMORY);
+        j.open();
+        assertTrue(j.getNumPartitions() > 1);
+        j.close();
+        SystemTestUtil.matchTuples(hashJoin(SMALL_MEMORY), expected);
+
+        // with an estimate the partitions are sized up front
+        j = hashJoin(SMALL_MEMORY);
+        j.setBuildCardinality(LEFT_ROWS);
+        j.open();
+        assertTrue(j.getNumPartitions() >= LEFT_ROWS / SMALL_MEMORY);
+        j.close();
+        j = hashJoin(SMALL_MEMORY);
+        j.setBuildCardinality(LEFT_ROWS);
+        SystemTestUtil.matchTuples(j, expected);
+
+        // and an estimate that is far too small still works
+        j = hashJoin(SMALL_MEMORY);
+        j.setBuildCardinality(SMALL_MEMORY * 2);
+        SystemTestUtil.matchTuples(j, expected);
+    }
+
+    /**
+     * Keys too frequent to split into partitions that fit in memory are
+     * joined a chunk at a time.
+     */
+    @Test public void skewedKeys() throws Exception {
+        int[] l = new int[2 * 500];
+        int[] r = new int[2 * 20];
+        List<List<Integer>> lt = new ArrayList<>();
+        List<List<Integer>> rt = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            l[2 * i] = i % 5 == 0 ? i : 7;
+            l[2 * i + 1] = i;
+            lt.add(Arrays.asList(l[2 * i], i));
+        }
+        for (int i = 0; i < 20; i++) {
+            r[2 * i] = i < 10 ? 7 : i * 5;
+            r[2 * i + 1] = -i;
+            rt.add(Arrays.asList(r[2 * i], -i));
+        }
+        List<List<Integer>> expected = join(lt, rt);
+        assertTrue(expected.size() > 4000);
+
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, l), TestUtil.createTupleList(2, r), 50);
+        SystemTestUtil.matchTuples(j, expected);
+    }
+
+    /**
+     * A spilling join can be rewound, and read in batches.
+     */
+    @Test public void rewind() throws Exception {
+        List<List<Integer>> expected = join(leftTuples, rightTuples);
+        HashEquiJoin j = hashJoin(SMALL_MEMORY);
+        j.open();
+        int first = 0;
+        while (j.hasNext()) {
+            j.next();
+            first++;
+        }
+        j.rewind();
+        int second = 0;
+        while (j.hasNext()) {
+            j.next();
+            second++;
+        }
+        j.close();
+        assertEquals(expected.size(), first);
+        assertEquals(first, second);
+
+        SystemTestUtil.matchTuples(new BatchRowAdapter(hashJoin(SMALL_MEMORY)), expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -81,6 +81,43 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Reading a page past the end of the file is an error, and the same page
+     * can be read again and again without reopening the file.
+     */
+    @Test
+    public void readPagePastEnd() {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        for (int i = 0; i < 2048; ++i)
+            assertEquals(pid, hf.readPage(pid).getId());
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), hf.numPages()));
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * A memory-mapped HeapFile reads the same pages as a normal one, and
+     * sees pages appended to the file after it was mapped.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        assertEquals(484, ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+
+        HeapPageId next = new HeapPageId(mapped.getId(), 1);
+        mapped.writePage(new HeapPage(next, HeapPage.createEmptyPageData()));
+        HeapPage grown = (HeapPage) mapped.readPage(next);
+        assertEquals(next, grown.getId());
+        assertEquals(504, grown.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -13,6 +14,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -123,6 +125,42 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Predicates on the tuples of a page, which compare the bytes of the
+     * page, agree with comparisons of the values.
+     */
+    @Test public void filter() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int[] operand : EXAMPLE_VALUES) {
+                Predicate p = new Predicate(1, op, new IntField(operand[0]));
+                Iterator<Tuple> it = page.iterator();
+                for (int[] values : EXAMPLE_VALUES) {
+                    boolean expected = new IntField(values[1]).compare(op, new IntField(operand[0]));
+                    assertEquals(expected, p.filter(it.next()));
+                }
+            }
+        }
+    }
+
+    /**
+     * A page that has only been read writes out the bytes it was read
+     * from, and a field set on one of its tuples is written to the page.
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.iterator().next().getField(0);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        Tuple t = page.iterator().next();
+        t.setField(1, new IntField(-1));
+        Iterator<Tuple> it = new HeapPage(pid, page.getPageData()).iterator();
+        Tuple first = it.next();
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        assertEquals(-1, ((IntField) first.getField(1)).getValue());
+        assertEquals(EXAMPLE_VALUES[1][1], ((IntField) it.next().getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final int OUTER_ROWS = 300;
+    // with small pages the tree has three levels
+    private static final int INNER_ROWS = 20000;
+    private static final int MAX_VALUE = 5000;
+
+    private HeapFile outer;
+    private BTreeFile inner;
+    private final List<List<Integer>> outerTuples = new ArrayList<>();
+    private final List<List<Integer>> innerTuples = new ArrayList<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        BufferPool.setPageSize(1024);
+        Database.reset();
+        outer = SystemTestUtil.createRandomHeapFile(2, OUTER_ROWS, MAX_VALUE, null, outerTuples);
+        inner = BTreeUtility.createRandomBTreeFile(2, INNER_ROWS, MAX_VALUE, null, innerTuples, 0);
+        Database.getCatalog().addTable(inner, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    private IndexNestedLoopJoin indexJoin(Predicate.Op op, OpIterator child) {
+        return new IndexNestedLoopJoin(new JoinPredicate(0, op, 0), child, tid, inner.getId(), "r");
+    }
+
+    /**
+     * Equality and range predicates give the same tuples as a nested loop,
+     * and a join can be rewound.
+     */
+    @Test public void predicates() throws Exception {
+        assertEquals(3, inner.estimateDepth());
+        SystemTestUtil.matchTuples(indexJoin(Predicate.Op.EQUALS, new SeqScan(tid, outer.getId(), "l")),
+                SystemTestUtil.nestedLoopJoin(outerTuples, innerTuples, Predicate.Op.EQUALS));
+
+        // a few outer tuples, since every one of them matches many
+        List<List<Integer>> few = outerTuples.subList(0, 5);
+        int[] keys = new int[2 * few.size()];
+        for (int i = 0; i < few.size(); i++) {
+            keys[2 * i] = few.get(i).get(0);
+            keys[2 * i + 1] = few.get(i).get(1);
+        }
+        Predicate.Op[] ops = {
+                Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ
+        };
+        for (Predicate.Op op : ops)
+            SystemTestUtil.matchTuples(indexJoin(op, TestUtil.createTupleList(2, keys)),
+                    SystemTestUtil.nestedLoopJoin(few, innerTuples, op));
+
+        IndexNestedLoopJoin j = indexJoin(Predicate.Op.EQUALS, new SeqScan(tid, outer.getId(), "l"));
+        j.open();
+        int first = 0;
+        while (j.hasNext()) {
+            j.next();
+            first++;
+        }
+        j.rewind();
+        int second = 0;
+        while (j.hasNext()) {
+            j.next();
+            second++;
+        }
+        j.close();
+        assertEquals(first, second);
+    }
+
+    /**
+     * Lookups of increasing keys start from the lowest page of the previous
+     * path that covers the key, so they read far fewer pages than descents
+     * from the root would.
+     */
+    @Test public void pathReuse() throws Exception {
+        int[] keys = new int[2 * MAX_VALUE];
+        List<List<Integer>> outerList = new ArrayList<>();
+        for (int i = 0; i < MAX_VALUE; i++) {
+            keys[2 * i] = i;
+            keys[2 * i + 1] = i;
+            outerList.add(Arrays.asList(i, i));
+        }
+        List<List<Integer>> expected = SystemTestUtil.nestedLoopJoin(outerList, innerTuples, Predicate.Op.EQUALS);
+        BufferPool bp = Database.getBufferPool();
+        long before = bp.getHitCount() + bp.getMissCount();
+        SystemTestUtil.matchTuples(indexJoin(Predicate.Op.EQUALS, TestUtil.createTupleList(2, keys)), expected);
+        long pages = bp.getHitCount() + bp.getMissCount() - before;
+        assertTrue(pages < (long) MAX_VALUE * inner.estimateDepth() / 2);
+    }
+
+    /**
+     * The planner looks up the right input in its index when only the right
+     * input is a B+ tree keyed on the join field, and applies the filters
+     * on it to the tuples it looks up.
+     */
+    @Test public void instantiate() throws Exception {
+        LogicalJoinNode eq = new LogicalJoinNode("l", "r", "l.key", "r.key", Predicate.Op.EQUALS);
+        eq.f1QuantifiedName = new SeqScan(tid, outer.getId(), "l").getTupleDesc().getFieldName(0);
+        eq.f2QuantifiedName = new SeqScan(tid, inner.getId(), "r").getTupleDesc().getFieldName(0);
+        Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2));
+        OpIterator j = JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, outer.getId(), "l"),
+                new Filter(filter, new SeqScan(tid, inner.getId(), "r")));
+        assertTrue(j instanceof IndexNestedLoopJoin);
+
+        List<List<Integer>> filtered = new ArrayList<>();
+        for (List<Integer> t : innerTuples) {
+            if (t.get(1) < MAX_VALUE / 2)
+                filtered.add(t);
+        }
+        SystemTestUtil.matchTuples(j, SystemTestUtil.nestedLoopJoin(outerTuples, filtered, Predicate.Op.EQUALS));
+
+        // only the left input is indexed
+        LogicalJoinNode swapped = new LogicalJoinNode("r", "l", "r.key", "l.key", Predicate.Op.EQUALS);
+        swapped.f1QuantifiedName = eq.f2QuantifiedName;
+        swapped.f2QuantifiedName = eq.f1QuantifiedName;
+        assertTrue(JoinOptimizer.instantiateJoin(swapped, new SeqScan(tid, inner.getId(), "r"),
+                new SeqScan(tid, outer.getId(), "l")) instanceof HashEquiJoin);
+    }
+
+    /**
+     * The index join is costed only when its right input is a scan of the
+     * indexed table; the result of an earlier join cannot be looked up in the
+     * index, and instantiateJoin hashes it instead.
+     */
+    @Test public void costOnlyOverScans() throws Exception {
+        // the same file, with field names the plan can refer to
+        BTreeFile named = new BTreeFile(inner.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(named, "r");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "l");
+        lp.addScan(named.getId(), "r");
+        JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+        LogicalJoinNode eq = new LogicalJoinNode("l", "r", "l.c0", "r.c0", Predicate.Op.EQUALS);
+
+        double cost1 = 1000, cost2 = 100000;
+        double nestedLoop = cost1 + OUTER_ROWS * cost2 + (double) OUTER_ROWS * INNER_ROWS;
+        assertTrue(jo.estimateJoinCost(eq, OUTER_ROWS, INNER_ROWS, cost1, cost2, true, true) < nestedLoop);
+        assertEquals(nestedLoop, jo.estimateJoinCost(eq, OUTER_ROWS, INNER_ROWS, cost1, cost2, true, false), 0);
+
+        OpIterator earlier = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, named.getId(), "r"), new SeqScan(tid, outer.getId(), "o"));
+        eq.f1QuantifiedName = new SeqScan(tid, outer.getId(), "l").getTupleDesc().getFieldName(0);
+        assertTrue(JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, outer.getId(), "l"), earlier)
+                instanceof HashEquiJoin);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
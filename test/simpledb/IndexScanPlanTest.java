@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexScanPlanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 5000;
+
+    private BTreeFile table;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private final Map<String, TableStats> stats = new HashMap<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, tuples, 0);
+        // the same file, with field names the plan can refer to
+        table = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "t");
+        stats.put("t", new TableStats(table.getId(), 1000));
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private OpIterator plan(String field, Predicate.Op op, int value) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter(field, op, Integer.toString(value));
+        lp.addProjectField("*", null);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    /** @return the scan at the bottom of the plan */
+    private static OpIterator scan(OpIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    private void check(OpIterator plan, int field, Predicate.Op op, int value) throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (op == Predicate.Op.EQUALS ? t.get(field) == value : t.get(field) < value)
+                expected.add(t);
+        }
+        List<List<Integer>> actual = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(SystemTestUtil.tupleToList(plan.next()));
+        plan.close();
+        Comparator<List<Integer>> order = Comparator.<List<Integer>>comparingInt(t -> t.get(0))
+                .thenComparingInt(t -> t.get(1));
+        expected.sort(order);
+        actual.sort(order);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Selective predicates on the key of a B+ tree are answered by an index
+     * scan.
+     */
+    @Test public void selectiveKeyPredicates() throws Exception {
+        OpIterator p = plan("t.c0", Predicate.Op.EQUALS, MAX_VALUE / 3);
+        assertTrue(scan(p) instanceof BTreeScan);
+        check(p, 0, Predicate.Op.EQUALS, MAX_VALUE / 3);
+
+        p = plan("t.c0", Predicate.Op.LESS_THAN, MAX_VALUE / 100);
+        assertTrue(scan(p) instanceof BTreeScan);
+        check(p, 0, Predicate.Op.LESS_THAN, MAX_VALUE / 100);
+    }
+
+    /**
+     * A predicate most tuples satisfy, or one on a field that is not the
+     * key, is cheaper to answer with a sequential scan.
+     */
+    @Test public void otherPredicates() throws Exception {
+        OpIterator p = plan("t.c0", Predicate.Op.LESS_THAN, MAX_VALUE - 10);
+        assertTrue(scan(p) instanceof SeqScan);
+        check(p, 0, Predicate.Op.LESS_THAN, MAX_VALUE - 10);
+
+        p = plan("t.c1", Predicate.Op.EQUALS, MAX_VALUE / 3);
+        assertTrue(scan(p) instanceof SeqScan);
+        check(p, 1, Predicate.Op.EQUALS, MAX_VALUE / 3);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexScanPlanTest.class);
+    }
+}
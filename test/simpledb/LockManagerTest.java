@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.LockTrace;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int SHARE = LockManager.PageLock.SHARE;
+    private static final int EXCLUSIVE = LockManager.PageLock.EXCLUSIVE;
+
+    /**
+     * A HeapPageId hashes to tableId + pageNo, so the pages 0 to
+     * NUM_STRIPES - 1 of table 0 each fall in a stripe of their own.
+     */
+    private static PageId page(int pageNo) {
+        return new HeapPageId(0, pageNo);
+    }
+
+    /**
+     * completeTransaction releases the locks of its transaction, on every
+     * stripe, and leaves the locks of other transactions alone.
+     */
+    @Test(timeout = 10000) public void completeReleasesOnlyItsLocks() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(page(0), t1, SHARE);
+        lm.acquireLock(page(1), t1, EXCLUSIVE);
+        lm.acquireLock(page(0), t2, SHARE);
+        lm.acquireLock(page(2), t2, EXCLUSIVE);
+
+        lm.completeTransaction(t1);
+        assertFalse(lm.isHoldLock(page(0), t1));
+        assertFalse(lm.isHoldLock(page(1), t1));
+        assertTrue(lm.isHoldLock(page(0), t2));
+        assertTrue(lm.isHoldLock(page(2), t2));
+
+        // the released page can be locked without waiting
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(page(1), t3, EXCLUSIVE);
+        assertTrue(lm.isHoldLock(page(1), t3));
+        lm.completeTransaction(t2);
+        lm.completeTransaction(t3);
+        assertFalse(lm.isHoldLock(page(0), t2));
+        assertFalse(lm.isHoldLock(page(2), t2));
+    }
+
+    /**
+     * A cycle of two transactions waiting on pages in different stripes is
+     * found, and the transaction whose request closes it is aborted.
+     */
+    @Test(timeout = 10000) public void deadlockAcrossStripes() throws Exception {
+        LockTrace trace = new LockTrace(LockTrace.COUNTERS, 16);
+        LockManager lm = new LockManager(trace);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(page(0), t1, EXCLUSIVE);
+        lm.acquireLock(page(1), t2, EXCLUSIVE);
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread waiter = new Thread(() -> {
+            try {
+                lm.acquireLock(page(1), t1, EXCLUSIVE);
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        waiter.start();
+        while (trace.getCount(LockTrace.Event.WAIT) == 0)
+            Thread.sleep(10);
+
+        try {
+            lm.acquireLock(page(0), t2, EXCLUSIVE);
+            fail("deadlock not detected");
+        } catch (TransactionAbortedException e) {
+            // t2 closed the cycle
+        }
+        assertEquals(1, trace.getCount(LockTrace.Event.DEADLOCK));
+        lm.completeTransaction(t2);
+        waiter.join();
+        assertEquals(Collections.emptyList(), errors);
+        assertTrue(lm.isHoldLock(page(1), t1));
+        lm.completeTransaction(t1);
+    }
+
+    /**
+     * Transactions on pages in different stripes, which all share one more
+     * page, are granted their locks concurrently and release them all.
+     */
+    @Test(timeout = 60000) public void concurrentGrantsOnStripes() throws Exception {
+        LockManager lm = new LockManager();
+        PageId shared = page(LockManager.NUM_STRIPES);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < LockManager.NUM_STRIPES; i++) {
+            PageId pid = page(i);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < 1000; j++) {
+                        TransactionId tid = new TransactionId();
+                        lm.acquireLock(pid, tid, EXCLUSIVE);
+                        lm.acquireLock(shared, tid, SHARE);
+                        assertTrue(lm.isHoldLock(pid, tid));
+                        assertTrue(lm.isHoldLock(shared, tid));
+                        lm.completeTransaction(tid);
+                        assertFalse(lm.isHoldLock(pid, tid));
+                        assertFalse(lm.isHoldLock(shared, tid));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(Collections.emptyList(), errors);
+
+        TransactionId tid = new TransactionId();
+        lm.acquireLock(shared, tid, EXCLUSIVE);
+        lm.completeTransaction(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.LockTrace;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockTraceTest extends SimpleDbTestBase {
+
+    private static final PageId p0 = new HeapPageId(-1, 0);
+    private static final PageId p1 = new HeapPageId(-1, 1);
+
+    /**
+     * A disabled trace neither counts nor buffers events.
+     */
+    @Test public void disabled() throws Exception {
+        LockTrace trace = new LockTrace(LockTrace.DISABLED, 16);
+        LockManager lm = new LockManager(trace);
+        TransactionId tid = new TransactionId();
+        lm.acquireLock(p0, tid, LockManager.PageLock.SHARE);
+        lm.completeTransaction(tid);
+        assertFalse(trace.isEnabled());
+        assertEquals(0, trace.getCount(LockTrace.Event.ACQUIRE));
+        assertEquals(0, trace.getCount(LockTrace.Event.RELEASE));
+    }
+
+    /**
+     * At the event level the trace counts events and can dump the most
+     * recent ones.
+     */
+    @Test public void countsAndDumps() throws Exception {
+        LockTrace trace = new LockTrace(LockTrace.EVENTS, 2);
+        LockManager lm = new LockManager(trace);
+        TransactionId tid = new TransactionId();
+        lm.acquireLock(p0, tid, LockManager.PageLock.SHARE);
+        lm.acquireLock(p1, tid, LockManager.PageLock.EXCLUSIVE);
+        lm.completeTransaction(tid);
+        assertEquals(2, trace.getCount(LockTrace.Event.ACQUIRE));
+        assertEquals(2, trace.getCount(LockTrace.Event.RELEASE));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trace.dump(new PrintStream(bytes, true));
+        String[] lines = bytes.toString().trim().split("\n");
+        // the counter line plus the two newest events
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].contains("ACQUIRE=2"));
+        assertTrue(lines[1].contains("RELEASE"));
+        assertTrue(lines[2].contains("RELEASE"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockTraceTest.class);
+    }
+}
@@ -3,6 +3,8 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
@@ -193,6 +195,27 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A transaction that waits longer than any lock timeout, but is not part
+   * of a deadlock, must not be aborted and must get the lock once the
+   * holder completes.
+   */
+  @Test public void longWaitIsNotAborted() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+
+    Thread.sleep(10 * TIMEOUT);
+    assertFalse(t.acquired());
+    assertNull(t.getError());
+
+    bp.transactionComplete(tid1);
+    t.join(10 * TIMEOUT);
+    assertTrue(t.acquired());
+    assertNull(t.getError());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.ExternalSort;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+    // enough for about 50 tuples of two int fields, so the sort needs more
+    // than ExternalSort.MAX_FAN_IN runs
+    private static final long SMALL_BUDGET = 50 * (8 + 64 + 2 * 16);
+
+    private HeapFile table;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    // col0 ascending, then col1 descending
+    private static final Comparator<List<Integer>> ORDER =
+            Comparator.<List<Integer>, Integer>comparing(t -> t.get(0))
+                    .thenComparing(t -> t.get(1), Comparator.reverseOrder());
+
+    private static List<List<Integer>> drain(OpIterator it) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        return result;
+    }
+
+    /**
+     * Tuples that are equal on the first field are ordered by the second.
+     */
+    @Test public void multipleFields() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2,
+                new int[] { 2, 1, 1, 1, 2, 3, 1, 5, 0, 9 });
+        OrderBy ob = new OrderBy(new int[]{0, 1}, new boolean[]{true, false}, child);
+        ob.open();
+        OpIterator expected = TestUtil.createTupleList(2,
+                new int[] { 0, 9, 1, 5, 1, 1, 2, 3, 2, 1 });
+        expected.open();
+        TestUtil.compareDbIterators(expected, ob);
+        ob.close();
+    }
+
+    /**
+     * A sort over a small memory budget spills runs, merges them, and returns
+     * the same order as an in-memory sort, also after a rewind.
+     */
+    @Test public void externalSort() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(ORDER);
+
+        OrderBy ob = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, table.getId(), "t"), 0, SMALL_BUDGET);
+        ob.open();
+        assertEquals(expected, drain(ob));
+        ob.rewind();
+        assertEquals(expected, drain(ob));
+        ob.close();
+
+        OrderBy inMemory = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, table.getId(), "t"));
+        inMemory.open();
+        assertEquals(expected, drain(inMemory));
+        inMemory.close();
+    }
+
+    /**
+     * Runs beyond the fan-in are merged before the final merge.
+     */
+    @Test public void mergePasses() throws Exception {
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        ExternalSort sort = new ExternalSort(scan.getTupleDesc(),
+                Comparator.comparing((Tuple t) -> SystemTestUtil.tupleToList(t).get(0)),
+                SMALL_BUDGET, 0);
+        sort.sort(scan);
+        assertTrue(sort.numRuns() > 1);
+        assertTrue(sort.numRuns() <= ExternalSort.MAX_FAN_IN);
+        int count = 0;
+        int last = Integer.MIN_VALUE;
+        for (Tuple t = sort.next(); t != null; t = sort.next()) {
+            int v = SystemTestUtil.tupleToList(t).get(0);
+            assertTrue(v >= last);
+            last = v;
+            count++;
+        }
+        assertEquals(ROWS, count);
+        sort.close();
+        assertEquals(0, sort.numRuns());
+        scan.close();
+    }
+
+    /**
+     * With a limit only the first tuples of the order are returned, and
+     * ties keep their input order.
+     */
+    @Test public void topN() throws Exception {
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(ORDER);
+
+        OrderBy ob = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, table.getId(), "t"), 10, OrderBy.DEFAULT_MEMORY_BUDGET);
+        ob.open();
+        assertEquals(expected.subList(0, 10), drain(ob));
+        ob.close();
+
+        // sorted on the first field only, the second holds the input position
+        OpIterator child = TestUtil.createTupleList(2, new int[] { 3, 0, 1, 1, 1, 2, 0, 3 });
+        child.open();
+        ExternalSort sort = new ExternalSort(child.getTupleDesc(),
+                Comparator.comparing((Tuple t) -> SystemTestUtil.tupleToList(t).get(0)),
+                OrderBy.DEFAULT_MEMORY_BUDGET, 3);
+        sort.sort(child);
+        List<List<Integer>> top = new ArrayList<>();
+        for (Tuple t = sort.next(); t != null; t = sort.next())
+            top.add(SystemTestUtil.tupleToList(t));
+        sort.close();
+        child.close();
+        assertEquals(Arrays.asList(Arrays.asList(0, 3), Arrays.asList(1, 1), Arrays.asList(1, 2)), top);
+
+        // a limit larger than the memory budget is applied to the merged runs
+        ob = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, table.getId(), "t"), 200, SMALL_BUDGET);
+        ob.open();
+        assertEquals(expected.subList(0, 200), drain(ob));
+        ob.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
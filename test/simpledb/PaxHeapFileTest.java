@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private final TupleDesc td = new TupleDesc(TYPES, new String[]{ "a", "s", "b" });
+    private File dir;
+    private File text;
+    private final List<String> rows = new ArrayList<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        dir = File.createTempFile("pax", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        text = new File(dir, "t.txt");
+        text.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                String row = i + ",s" + i % 17 + "," + -i;
+                w.println(row);
+                rows.add(row);
+            }
+        }
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private PaxHeapFile pax() throws IOException {
+        File f = new File(dir, "t.dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertColumnar(text, f, BufferPool.getPageSize(), TYPES.length, TYPES, ',');
+        PaxHeapFile hf = new PaxHeapFile(f, td);
+        Database.getCatalog().addTable(hf, "t");
+        return hf;
+    }
+
+    private Tuple tuple(int a, String s, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(b));
+        return t;
+    }
+
+    private static String row(Tuple t) {
+        return t.getField(0) + "," + t.getField(1) + "," + t.getField(2);
+    }
+
+    private static List<String> contents(Iterator<Tuple> it) {
+        List<String> result = new ArrayList<>();
+        while (it.hasNext())
+            result.add(row(it.next()));
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<String> contents(OpIterator it) throws Exception {
+        List<String> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            result.add(row(it.next()));
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A columnar file has as many pages as a row file and returns the same
+     * tuples.
+     */
+    @Test public void scan() throws Exception {
+        PaxHeapFile hf = pax();
+        File fixed = new File(dir, "fixed.dat");
+        fixed.deleteOnExit();
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), TYPES.length, TYPES);
+        assertEquals(fixed.length(), hf.getFile().length());
+
+        List<String> expected = new ArrayList<>(rows);
+        Collections.sort(expected);
+        assertEquals(expected, contents(new SeqScan(tid, hf.getId(), "t")));
+
+        Predicate p = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(-100));
+        assertEquals(100, contents(new Filter(p, new SeqScan(tid, hf.getId(), "t"))).size());
+    }
+
+    /**
+     * Inserted, deleted and modified tuples are written back to a columnar
+     * page, which holds as many tuples as a row page.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        PaxHeapFile hf = pax();
+        HeapPageId pid = new HeapPageId(hf.getId(), hf.numPages());
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData(), true);
+        HeapPage rowPage = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(rowPage.getNumEmptySlots(), page.getNumEmptySlots());
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            page.insertTuple(tuple(i, "x" + i, i * 2));
+            expected.add(i + ",x" + i + "," + i * 2);
+        }
+        Collections.sort(expected);
+        page = new HeapPage(pid, page.getPageData(), true);
+        assertEquals(expected, contents(page.iterator()));
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple deleted = it.next();
+        page.deleteTuple(deleted);
+        expected.remove(row(deleted));
+        Tuple changed = it.next();
+        expected.remove(row(changed));
+        changed.setField(1, new StringField("changed", Type.STRING_LEN));
+        expected.add(row(changed));
+        Collections.sort(expected);
+        page = new HeapPage(pid, page.getPageData(), true);
+        assertEquals(expected, contents(page.iterator()));
+        assertEquals(expected, contents(page.getBeforeImage().iterator()));
+
+        // tuples inserted through the file go to columnar pages too
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(-1, "new", 1));
+        Database.getBufferPool().flushAllPages();
+        List<String> all = new ArrayList<>(rows);
+        all.add("-1,new,1");
+        Collections.sort(all);
+        assertEquals(all, contents(new SeqScan(tid, hf.getId(), "t")));
+    }
+
+    /**
+     * A tuple read from a columnar page and inserted into a row page is
+     * written field by field.
+     */
+    @Test public void columnarTupleIntoRowPage() throws Exception {
+        PaxHeapFile hf = pax();
+        Tuple t = ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).iterator().next();
+        HeapPageId pid = new HeapPageId(hf.getId(), hf.numPages());
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(t);
+        page = new HeapPage(pid, page.getPageData());
+        assertEquals(Collections.singletonList(row(t)), contents(page.iterator()));
+    }
+
+    /**
+     * Tuples scanned from a row table and inserted into a columnar table
+     * are written field by field, not copied from the columnar page.
+     */
+    @Test public void insertFromRowTable() throws Exception {
+        PaxHeapFile hf = pax();
+        File fixed = new File(dir, "fixed.dat");
+        fixed.deleteOnExit();
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), TYPES.length, TYPES);
+        HeapFile rows = new HeapFile(fixed, td);
+        Database.getCatalog().addTable(rows, "r");
+
+        List<String> expected = new ArrayList<>(this.rows);
+        SeqScan scan = new SeqScan(tid, rows.getId(), "r");
+        scan.open();
+        for (int i = 0; i < 10 && scan.hasNext(); i++) {
+            Tuple t = scan.next();
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            expected.add(row(t));
+        }
+        scan.close();
+        Database.getBufferPool().flushAllPages();
+        Collections.sort(expected);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++)
+            Database.getBufferPool().discardPage(new HeapPageId(hf.getId(), i));
+        assertEquals(expected, contents(new SeqScan(tid, hf.getId(), "t")));
+    }
+
+    /**
+     * A plan tells each scan the columns it reads, and the batches of the
+     * scan hold only those columns.
+     */
+    @Test public void columns() throws Exception {
+        PaxHeapFile hf = pax();
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("t", new TableStats(hf.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.b", Predicate.Op.GREATER_THAN, "-10");
+        lp.addProjectField("t.a", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator scan = plan;
+        while (scan instanceof Operator)
+            scan = ((Operator) scan).getChildren()[0];
+        assertArrayEquals(new boolean[]{ true, false, true }, ((SeqScan) scan).getColumns());
+
+        List<Integer> actual = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Collections.sort(actual);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), actual);
+
+        // a select list with * reads every column
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addProjectField("*", null);
+        scan = lp.physicalPlan(tid, stats, false);
+        while (scan instanceof Operator)
+            scan = ((Operator) scan).getChildren()[0];
+        assertNull(((SeqScan) scan).getColumns());
+
+        SeqScan ss = new SeqScan(tid, hf.getId(), "t");
+        ss.setColumns(new boolean[]{ false, false, true });
+        ss.open();
+        int count = 0;
+        for (TupleBatch b = ss.nextBatch(); b != null; b = ss.nextBatch()) {
+            for (int i = 0; i < b.size(); i++) {
+                assertEquals(-count, b.getIntColumn(2)[i]);
+                assertEquals(0, b.getIntColumn(0)[i]);
+                assertEquals("", b.getStringColumn(1)[i]);
+                count++;
+            }
+        }
+        ss.close();
+        assertEquals(ROWS, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapFileTest.class);
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlotLogTest extends SimpleDbTestBase {
+
+    /**
+     * Undo the changes on a copy of the page after them and redo them on a
+     * copy of the page before them, and compare the bytes of the pages.
+     */
+    private static void checkUndoRedo(byte[] before, SlotLoggedPage after, List<SlotChange> changes,
+                                      SlotLoggedPage undone, SlotLoggedPage redone) {
+        List<SlotChange> reversed = new ArrayList<>(changes);
+        Collections.reverse(reversed);
+        for (SlotChange c : reversed)
+            c.undo(undone);
+        assertArrayEquals(before, undone.getPageData());
+        for (SlotChange c : changes)
+            c.redo(redone);
+        assertArrayEquals(after.getPageData(), redone.getPageData());
+        // the records can be applied again
+        for (SlotChange c : changes)
+            c.redo(redone);
+        assertArrayEquals(after.getPageData(), redone.getPageData());
+    }
+
+    /**
+     * Inserts and deletes on a heap page are logged as the slots they
+     * changed.
+     */
+    @Test public void heapPage() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, -1);
+        byte[] before = HeapPageReadTest.EXAMPLE_DATA;
+        HeapPage page = new HeapPage(pid, before);
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[]{ 7, 8 }));
+        page.insertTuple(Utility.getHeapTuple(new int[]{ 9, 10 }));
+        List<SlotChange> changes = page.takeSlotChanges();
+        assertEquals(2, changes.size());
+        assertEquals(Collections.emptyList(), page.takeSlotChanges());
+
+        checkUndoRedo(before, page, changes, new HeapPage(pid, page.getPageData()), new HeapPage(pid, before));
+    }
+
+    /**
+     * Slot records of a slotted page hold tuples of different lengths.
+     */
+    @Test public void slottedHeapPage() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.VARSTRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(-1, -1);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("abcdefgh".substring(i % 8), Type.STRING_LEN));
+            page.insertTuple(t);
+        }
+        page.takeSlotChanges();
+        byte[] before = page.getPageData();
+
+        page.deleteTuple(page.iterator().next());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("a longer string", Type.STRING_LEN));
+        page.insertTuple(t);
+        List<SlotChange> changes = page.takeSlotChanges();
+        assertEquals(1, changes.size());
+
+        checkUndoRedo(before, page, changes, new HeapPage(pid, page.getPageData()), new HeapPage(pid, before));
+    }
+
+    /**
+     * An insert into a leaf logs every slot it shifted; a change to the
+     * sibling pointers makes the page log as a whole.
+     */
+    @Test public void leafPage() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        BTreePageId pid = new BTreePageId(-1, -1, BTreePageId.LEAF);
+        byte[] before = BTreeLeafPageTest.EXAMPLE_DATA;
+        BTreeLeafPage page = new BTreeLeafPage(pid, before, 0);
+
+        page.insertTuple(Utility.getHeapTuple(new int[]{ 20000, 1 }));
+        page.insertTuple(Utility.getHeapTuple(new int[]{ 5, 2 }));
+        List<SlotChange> changes = page.takeSlotChanges();
+        assertTrue(changes.size() > 2);
+
+        checkUndoRedo(before, page, changes, new BTreeLeafPage(pid, page.getPageData(), 0),
+                new BTreeLeafPage(pid, before, 0));
+
+        page.setRightSiblingId(new BTreePageId(-1, 3, BTreePageId.LEAF));
+        assertNull(page.takeSlotChanges());
+        assertEquals(Collections.emptyList(), page.takeSlotChanges());
+    }
+
+    /**
+     * A one-tuple insert logs a record of a few dozen bytes instead of two
+     * page images.
+     */
+    @Test public void logVolume() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ 1, 2 }));
+        Database.getBufferPool().flushPages(tid);
+        log.force();
+        long start = new File("log").length();
+        int records = log.getTotalRecords();
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ 3, 4 }));
+        Database.getBufferPool().flushPages(tid);
+        log.force();
+        assertEquals(records + 1, log.getTotalRecords());
+        long bytes = new File("log").length() - start;
+        assertTrue("bytes: " + bytes, bytes > 0 && bytes < BufferPool.getPageSize() / 20);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlotLogTest.class);
+    }
+}
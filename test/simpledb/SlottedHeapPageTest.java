@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    private final TupleDesc td = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.VARSTRING_TYPE, Type.INT_TYPE },
+            new String[]{ "a", "s", "b" });
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int a, String s, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(b));
+        return t;
+    }
+
+    private static String string(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < i % 7; j++)
+            sb.append((char) ('a' + (i + j) % 26));
+        return sb.toString();
+    }
+
+    private static List<String> contents(Iterator<Tuple> it) {
+        List<String> result = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            result.add(t.getField(0) + "," + t.getField(1) + "," + t.getField(2));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A page holds as many tuples as their strings leave room for, and
+     * reads back the tuples it wrote.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        List<String> expected = new ArrayList<>();
+        int i = 0;
+        while (page.hasRoomFor(tuple(i, string(i), -i))) {
+            page.insertTuple(tuple(i, string(i), -i));
+            expected.add(i + "," + string(i) + "," + -i);
+            i++;
+        }
+        // a fixed-length string would take 132 bytes
+        assertTrue(i > BufferPool.getPageSize() / (td.getSize() + 8) * 5);
+        try {
+            page.insertTuple(tuple(i, string(i), -i));
+            fail("the page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+        Collections.sort(expected);
+        page = new HeapPage(pid, page.getPageData());
+        assertEquals(expected, contents(page.iterator()));
+
+        // the space of deleted tuples can be used by a longer one
+        Iterator<Tuple> it = page.iterator();
+        for (int j = 0; j < 3; j++) {
+            Tuple t = it.next();
+            page.deleteTuple(t);
+            expected.remove(t.getField(0) + "," + t.getField(1) + "," + t.getField(2));
+        }
+        page.insertTuple(tuple(-1, "a much longer string", 1));
+        expected.add("-1,a much longer string,1");
+        Collections.sort(expected);
+        page = new HeapPage(pid, page.getPageData());
+        assertEquals(expected, contents(page.iterator()));
+    }
+
+    /**
+     * Predicates on the fields after a variable-length field see the right
+     * values.
+     */
+    @Test public void filter() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 50; i++)
+            page.insertTuple(tuple(i, string(i), i % 10));
+        page = new HeapPage(pid, page.getPageData());
+        Predicate p = new Predicate(2, Predicate.Op.EQUALS, new IntField(3));
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (p.filter(t)) {
+                assertEquals(string(((IntField) t.getField(0)).getValue()), ((StringField) t.getField(1)).getValue());
+                count++;
+            }
+        }
+        assertEquals(5, count);
+    }
+
+    /**
+     * HeapFileEncoder writes slotted pages for tables with variable-length
+     * fields, which take far fewer pages than fixed-length strings.
+     */
+    @Test public void encoder() throws Exception {
+        File text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        List<String> expected = new ArrayList<>();
+        try (PrintWriter w = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                w.println(i + "," + string(i) + "," + -i);
+                expected.add(i + "," + string(i) + "," + -i);
+            }
+        }
+        Collections.sort(expected);
+
+        File slotted = File.createTempFile("table", ".dat");
+        slotted.deleteOnExit();
+        HeapFileEncoder.convert(text, slotted, BufferPool.getPageSize(), 3,
+                new Type[]{ Type.INT_TYPE, Type.VARSTRING_TYPE, Type.INT_TYPE });
+        File fixed = File.createTempFile("table", ".dat");
+        fixed.deleteOnExit();
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), 3,
+                new Type[]{ Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        assertTrue(slotted.length() * 5 < fixed.length());
+
+        HeapFile f = new HeapFile(slotted, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        List<String> actual = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            actual.add(t.getField(0) + "," + t.getField(1) + "," + t.getField(2));
+        }
+        it.close();
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aggregates group by a variable-length string field, whose values are
+     * StringFields of STRING_TYPE.
+     */
+    @Test public void groupBy() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 50; i++)
+            page.insertTuple(tuple(i, "g" + i % 5, 1));
+        page = new HeapPage(pid, page.getPageData());
+
+        Aggregator count = new StringAggregator(1, Type.VARSTRING_TYPE, 1, Aggregator.Op.COUNT);
+        Aggregator sum = new IntegerAggregator(1, Type.VARSTRING_TYPE, 2, Aggregator.Op.SUM);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            count.mergeTupleIntoGroup(t);
+            sum.mergeTupleIntoGroup(t);
+        }
+        for (Aggregator agg : Arrays.asList(count, sum)) {
+            OpIterator groups = agg.iterator();
+            groups.open();
+            Set<String> seen = new HashSet<>();
+            while (groups.hasNext()) {
+                Tuple t = groups.next();
+                assertTrue(seen.add(((StringField) t.getField(0)).getValue()));
+                assertEquals(10, ((IntField) t.getField(1)).getValue());
+            }
+            groups.close();
+            assertEquals(5, seen.size());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
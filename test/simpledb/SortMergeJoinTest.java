@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final int LEFT_ROWS = 400;
+    private static final int RIGHT_ROWS = 300;
+    // small enough that both sorts spill runs
+    private static final long SMALL_BUDGET = 4 * 50 * (8 + 64 + 2 * 16);
+
+    private HeapFile left, right;
+    private final List<List<Integer>> leftTuples = new ArrayList<>();
+    private final List<List<Integer>> rightTuples = new ArrayList<>();
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, LEFT_ROWS, 200, null, leftTuples);
+        right = SystemTestUtil.createRandomHeapFile(2, RIGHT_ROWS, 200, null, rightTuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private SortMergeJoin mergeJoin(Predicate.Op op, long budget) {
+        return new SortMergeJoin(new JoinPredicate(0, op, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"),
+                false, false, budget);
+    }
+
+    /**
+     * Every predicate gives the same tuples as a nested loop, whether the
+     * inputs are sorted in memory or spill.
+     */
+    @Test public void predicates() throws Exception {
+        Predicate.Op[] ops = {
+                Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS
+        };
+        for (Predicate.Op op : ops) {
+            List<List<Integer>> expected = SystemTestUtil.nestedLoopJoin(leftTuples, rightTuples, op);
+            SystemTestUtil.matchTuples(mergeJoin(op, OrderBy.DEFAULT_MEMORY_BUDGET), expected);
+            SystemTestUtil.matchTuples(mergeJoin(op, SMALL_BUDGET), expected);
+        }
+    }
+
+    /**
+     * A join can be rewound, also after its inputs spilled.
+     */
+    @Test public void rewind() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN}) {
+            int expected = SystemTestUtil.nestedLoopJoin(leftTuples, rightTuples, op).size();
+            SortMergeJoin j = mergeJoin(op, SMALL_BUDGET);
+            j.open();
+            int first = 0;
+            while (j.hasNext()) {
+                j.next();
+                first++;
+            }
+            j.rewind();
+            int second = 0;
+            while (j.hasNext()) {
+                j.next();
+                second++;
+            }
+            j.close();
+            assertEquals(expected, first);
+            assertEquals(first, second);
+        }
+    }
+
+    /**
+     * Scans of B+ trees keyed on the join fields are merged without sorting,
+     * and the planner uses a sort-merge join for them and for range
+     * predicates.
+     */
+    @Test public void sortedInputs() throws Exception {
+        List<List<Integer>> lt = new ArrayList<>();
+        List<List<Integer>> rt = new ArrayList<>();
+        BTreeFile lf = BTreeUtility.createRandomBTreeFile(2, LEFT_ROWS, 200, null, lt, 0);
+        BTreeFile rf = BTreeUtility.createRandomBTreeFile(2, RIGHT_ROWS, 200, null, rt, 0);
+        Database.getCatalog().addTable(lf, UUID.randomUUID().toString());
+        Database.getCatalog().addTable(rf, UUID.randomUUID().toString());
+
+        SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, lf.getId(), "l"), new SeqScan(tid, rf.getId(), "r"),
+                true, true, OrderBy.DEFAULT_MEMORY_BUDGET);
+        SystemTestUtil.matchTuples(j, SystemTestUtil.nestedLoopJoin(lt, rt, Predicate.Op.EQUALS));
+
+        LogicalJoinNode eq = new LogicalJoinNode("l", "r", "l.key", "r.key", Predicate.Op.EQUALS);
+        eq.f1QuantifiedName = new SeqScan(tid, lf.getId(), "l").getTupleDesc().getFieldName(0);
+        eq.f2QuantifiedName = new SeqScan(tid, rf.getId(), "r").getTupleDesc().getFieldName(0);
+        assertTrue(JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, lf.getId(), "l"),
+                new SeqScan(tid, rf.getId(), "r")) instanceof SortMergeJoin);
+
+        // unsorted inputs: equality is hashed, ranges are merged
+        eq.f2QuantifiedName = new SeqScan(tid, right.getId(), "r").getTupleDesc().getFieldName(0);
+        assertTrue(JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, lf.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r")) instanceof HashEquiJoin);
+        eq.p = Predicate.Op.LESS_THAN;
+        assertTrue(JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, lf.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r")) instanceof SortMergeJoin);
+    }
+
+    /**
+     * Only an input that is a scan of its B+ tree is costed as sorted; the
+     * result of an earlier join over the same table is not, as in
+     * instantiateJoin.
+     */
+    @Test public void costFollowsPlanShape() throws Exception {
+        BTreeFile lf = BTreeUtility.createRandomBTreeFile(2, LEFT_ROWS, 200, null, null, 0);
+        BTreeFile rf = BTreeUtility.createRandomBTreeFile(2, RIGHT_ROWS, 200, null, null, 0);
+        // the same files, with field names the plan can refer to
+        BTreeFile ln = new BTreeFile(lf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        BTreeFile rn = new BTreeFile(rf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(ln, "l");
+        Database.getCatalog().addTable(rn, "r");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(ln.getId(), "l");
+        lp.addScan(rn.getId(), "r");
+        JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+        LogicalJoinNode eq = new LogicalJoinNode("l", "r", "l.c0", "r.c0", Predicate.Op.EQUALS);
+
+        double cost1 = 100, cost2 = 100;
+        double merge = cost1 + cost2 + LEFT_ROWS + RIGHT_ROWS;
+        double nestedLoop = cost1 + LEFT_ROWS * cost2 + (double) LEFT_ROWS * RIGHT_ROWS;
+        assertEquals(merge, jo.estimateJoinCost(eq, LEFT_ROWS, RIGHT_ROWS, cost1, cost2, true, true), 0);
+        // the right input is an earlier join over r
+        assertEquals(nestedLoop, jo.estimateJoinCost(eq, LEFT_ROWS, RIGHT_ROWS, cost1, cost2, true, false), 0);
+        OpIterator earlier = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, rn.getId(), "r"), new SeqScan(tid, right.getId(), "o"));
+        assertTrue(JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, ln.getId(), "l"), earlier)
+                instanceof HashEquiJoin);
+
+        // a range join over the earlier join sorts it
+        LogicalJoinNode lt = new LogicalJoinNode("l", "r", "l.c0", "r.c0", Predicate.Op.LESS_THAN);
+        assertTrue(jo.estimateJoinCost(lt, LEFT_ROWS, RIGHT_ROWS, cost1, cost2, true, false)
+                > jo.estimateJoinCost(lt, LEFT_ROWS, RIGHT_ROWS, cost1, cost2, true, true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class WriteAheadLogTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS = 50;
+
+    private File file;
+    private LogFile log;
+
+    @Before public void openLog() throws IOException {
+        file = File.createTempFile("wal", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    /**
+     * Walk the log backwards from its end: every record ends with its start
+     * offset, which is also the end of the record before it.
+     *
+     * @return the types of the records, in log order
+     */
+    private static List<Integer> recordTypes(File file) throws IOException {
+        List<Integer> types = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long end = raf.length();
+            while (end > 8) {
+                raf.seek(end - 8);
+                long start = raf.readLong();
+                assertTrue("record at " + start + " ends at " + end, start >= 8 && start < end);
+                raf.seek(start);
+                types.add(0, raf.readInt());
+                end = start;
+            }
+            assertEquals(8, end);
+        }
+        return types;
+    }
+
+    /**
+     * Records appended by several threads at once are written one after
+     * the other, each at the offset it was given.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < TRANSACTIONS; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(Collections.emptyList(), errors);
+        log.force();
+
+        List<Integer> types = recordTypes(file);
+        assertEquals(2 * THREADS * TRANSACTIONS, types.size());
+        assertEquals(log.getTotalRecords(), types.size());
+        assertEquals(THREADS * TRANSACTIONS, Collections.frequency(types, 2));
+    }
+
+    /**
+     * A change to a page is logged when it is made, which sets the pageLSN
+     * of the page; flushing the page forces the log past that record.
+     */
+    @Test public void pageLSN() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        TransactionId tid = new TransactionId();
+        int records = Database.getLogFile().getTotalRecords();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ 1, 2 }));
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0),
+                simpledb.common.Permissions.READ_ONLY);
+        assertNotNull(page.isDirty());
+        assertEquals(records + 1, Database.getLogFile().getTotalRecords());
+        long lsn = page.getLSN();
+        assertTrue(lsn > 0);
+
+        Database.getBufferPool().flushPages(tid);
+        assertNull(page.isDirty());
+        assertEquals(records + 1, Database.getLogFile().getTotalRecords());
+        assertEquals(lsn, page.getLSN());
+
+        // a later change gets a later LSN
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ 3, 4 }));
+        assertTrue(page.getLSN() > lsn);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A checkpoint truncates the log; the records appended after it are
+     * written at the right offsets of the new file.
+     */
+    @Test public void checkpoint() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        log.logCheckpoint();
+        tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        log.force();
+        assertEquals(Arrays.asList(5, 4, 2), recordTypes(file));
+    }
+
+    /**
+     * Transactions that abort while others commit: the rollback of an
+     * abort waits for the log writer at the same time as the group commit
+     * forces, and neither may starve the writer.
+     */
+    @Test(timeout = 120000) public void abortsWithCommits() throws Exception {
+        HeapFile[] tables = new HeapFile[THREADS];
+        for (int i = 0; i < THREADS; i++)
+            tables[i] = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        List<Set<Integer>> committed = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < THREADS; i++) {
+            HeapFile hf = tables[i];
+            Set<Integer> values = new HashSet<>();
+            committed.add(values);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < TRANSACTIONS; j++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        for (int k = 0; k < 5; k++)
+                            Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                                    Utility.getHeapTuple(new int[]{ j * 5 + k, 0 }));
+                        if (j % 3 == 0) {
+                            t.transactionComplete(true);
+                        } else {
+                            t.commit();
+                            for (int k = 0; k < 5; k++)
+                                values.add(j * 5 + k);
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(Collections.emptyList(), errors);
+
+        for (int i = 0; i < THREADS; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            SeqScan scan = new SeqScan(t.getId(), tables[i].getId(), "");
+            scan.open();
+            Set<Integer> values = new HashSet<>();
+            while (scan.hasNext())
+                values.add(((IntField) scan.next().getField(0)).getValue());
+            scan.close();
+            t.commit();
+            assertEquals(committed.get(i), values);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WriteAheadLogTest.class);
+    }
+}
@@ -2,13 +2,19 @@ package simpledb.systemtest;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
 import org.junit.Assert;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.execution.Insert;
@@ -48,6 +54,72 @@ public class EvictionTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Warms a small "hot" table, runs a full scan of a table much larger than the
+     * buffer pool in another thread, and runs point queries on the hot table
+     * while the scan is going on. They must still be served from the pool, i.e.
+     * the scan went through a scan ring instead of evicting the hot pages.
+     */
+    @Test public void testPointQueriesSurviveFullScan() throws Exception {
+        File hotFile = SystemTestUtil.createRandomHeapFileUnopened(2, 1024, 1 << 16, null, null);
+        AtomicInteger hotReads = new AtomicInteger();
+        HeapFile hot = new HeapFile(hotFile, Utility.getTupleDesc(2)) {
+            @Override
+            public Page readPage(PageId pid) {
+                hotReads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(hot, UUID.randomUUID().toString());
+        int bigRows = 1024*100;
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, bigRows, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+
+        TransactionId pointTid = new TransactionId();
+        int hotPages = hot.numPages();
+        for (int i = 0; i < hotPages; ++i)
+            bp.getPage(pointTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch halfway = new CountDownLatch(1);
+        Thread scanner = new Thread(() -> {
+            try {
+                TransactionId scanTid = new TransactionId();
+                SeqScan scan = new SeqScan(scanTid, big.getId(), "");
+                scan.open();
+                for (int n = 0; scan.hasNext(); n++) {
+                    scan.next();
+                    if (n == bigRows / 2)
+                        halfway.countDown();
+                }
+                scan.close();
+                Database.getBufferPool().transactionComplete(scanTid);
+            } catch (Throwable e) {
+                failure.set(e);
+            } finally {
+                halfway.countDown();
+            }
+        });
+        scanner.start();
+
+        // the scan has gone through more pages than the pool holds by now
+        halfway.await();
+        hotReads.set(0);
+        int queries = 0;
+        do {
+            for (int i = 0; i < hotPages; ++i, ++queries)
+                bp.getPage(pointTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        } while (scanner.isAlive());
+        int misses = hotReads.get();
+        scanner.join();
+        if (failure.get() != null)
+            throw new AssertionError("scan failed", failure.get());
+
+        assertTrue(bp.getMissCount() >= big.numPages());
+        assertEquals("point queries missed during a full scan: " + misses + " of " + queries, 0, misses);
+        bp.transactionComplete(pointTid);
+    }
+
     public static void insertRow(HeapFile f, Transaction t) throws DbException,
             TransactionAbortedException {
         // Create a row to insert
@@ -0,0 +1,187 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test checkpoints that do not wait for the dirty pages to be written.
+ */
+public class FuzzyCheckpointTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+
+    private static HeapFile createTable() throws IOException {
+        File f = File.createTempFile("checkpoint", ".dat");
+        f.deleteOnExit();
+        return Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    }
+
+    private static void insert(TransactionId tid, HeapFile hf, int from, int to) throws Exception {
+        for (int v = from; v < to; v++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ v, -v }));
+    }
+
+    private static Set<Integer> values(Iterator<Tuple> it) {
+        Set<Integer> values = new HashSet<>();
+        while (it.hasNext())
+            assertTrue(values.add(((IntField) it.next().getField(0)).getValue()));
+        return values;
+    }
+
+    private static Set<Integer> values(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        Set<Integer> values = new HashSet<>();
+        while (scan.hasNext())
+            assertTrue(values.add(((IntField) scan.next().getField(0)).getValue()));
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    private static Set<Integer> range(int from, int to) {
+        Set<Integer> values = new HashSet<>();
+        for (int v = from; v < to; v++)
+            values.add(v);
+        return values;
+    }
+
+    /**
+     * A checkpoint does not need the monitor of the buffer pool; its dirty
+     * pages are written afterwards and still belong to their transaction.
+     */
+    @Test public void doesNotBlock() throws Exception {
+        HeapFile hf = createTable();
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), hf, 0, 10);
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread checkpoint = new Thread(() -> {
+            try {
+                Database.getLogFile().logCheckpoint();
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        synchronized (Database.getBufferPool()) {
+            checkpoint.start();
+            checkpoint.join(10000);
+            assertFalse("checkpoint waits for the buffer pool", checkpoint.isAlive());
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        Database.getBufferPool().awaitBackgroundWriter();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertEquals(range(0, 10), values(((HeapPage) hf.readPage(pid)).iterator()));
+        Page page = Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY);
+        assertEquals(t.getId(), page.isDirty());
+        t.commit();
+        assertEquals(range(0, 10), values(hf));
+    }
+
+    /**
+     * The changes a transaction made before a checkpoint are redone from
+     * the recLSNs in the checkpoint when it commits after it, and the
+     * changes a transaction wrote to disk through the background writer
+     * are undone.
+     */
+    @Test public void recover() throws Exception {
+        HeapFile a = createTable();
+        HeapFile b = createTable();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1.getId(), a, 0, ROWS);
+        insert(t1.getId(), b, 0, ROWS);
+        t1.commit();
+        File fileA = a.getFile();
+        File fileB = b.getFile();
+        byte[] committed = Files.readAllBytes(fileA.toPath());
+
+        // the second transaction commits after the checkpoint; the third
+        // is running at the crash
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2.getId(), a, ROWS, ROWS + 50);
+        Transaction t3 = new Transaction();
+        t3.start();
+        DbFileIterator it = b.iterator(t3.getId());
+        it.open();
+        Tuple deleted = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t3.getId(), deleted);
+        insert(t3.getId(), b, ROWS, ROWS + 50);
+
+        Database.getLogFile().logCheckpoint();
+        Database.getBufferPool().awaitBackgroundWriter();
+        t2.commit();
+
+        // the writes of the second transaction are lost
+        try (RandomAccessFile raf = new RandomAccessFile(fileA, "rw")) {
+            raf.write(committed);
+        }
+        Database.reset();
+        a = Utility.openHeapFile(2, fileA);
+        b = Utility.openHeapFile(2, fileB);
+        Database.getLogFile().recover();
+
+        assertEquals(range(0, ROWS + 50), values(a));
+        assertEquals(range(0, ROWS), values(b));
+    }
+
+    /**
+     * A transaction aborted inside the buffer pool, as a deadlock victim
+     * is, after the background writer wrote its pages is rolled back from
+     * the log before its locks are released, and the abort that follows
+     * does not roll back again over later transactions.
+     */
+    @Test public void abortAfterBackgroundWrite() throws Exception {
+        HeapFile hf = createTable();
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1.getId(), hf, 0, 10);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2.getId(), hf, 10, 20);
+        Database.getLogFile().logCheckpoint();
+        Database.getBufferPool().awaitBackgroundWriter();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertEquals(range(0, 20), values(((HeapPage) hf.readPage(pid)).iterator()));
+
+        // what BufferPool.acquireLock does for a deadlock victim
+        Database.getBufferPool().transactionComplete(t2.getId(), false);
+        assertEquals(range(0, 10), values(((HeapPage) hf.readPage(pid)).iterator()));
+        assertEquals(range(0, 10), values(hf));
+
+        Transaction t3 = new Transaction();
+        t3.start();
+        insert(t3.getId(), hf, 20, 30);
+        t3.commit();
+        t2.transactionComplete(true);
+        Set<Integer> expected = range(0, 10);
+        expected.addAll(range(20, 30));
+        assertEquals(expected, values(hf));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test recovery of tables that span many pages.
+ */
+public class ParallelRecoveryTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private File[] files;
+
+    private HeapFile[] open() {
+        HeapFile[] tables = new HeapFile[files.length];
+        for (int i = 0; i < files.length; i++)
+            tables[i] = Utility.openHeapFile(2, files[i]);
+        return tables;
+    }
+
+    private static void insert(TransactionId tid, HeapFile hf, int from, int to) throws Exception {
+        for (int v = from; v < to; v++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{ v, -v }));
+    }
+
+    private static Set<Integer> values(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Set<Integer> values = new HashSet<>();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        while (scan.hasNext())
+            assertTrue(values.add(((IntField) scan.next().getField(0)).getValue()));
+        scan.close();
+        t.commit();
+        return values;
+    }
+
+    private static Set<Integer> range(int from, int to) {
+        Set<Integer> values = new HashSet<>();
+        for (int v = from; v < to; v++)
+            values.add(v);
+        return values;
+    }
+
+    /** Overwrite a file with zeroes, as if the writes of its pages were lost. */
+    private static void lose(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.write(new byte[(int) raf.length()]);
+        }
+    }
+
+    /**
+     * Committed changes to many pages of several tables are redone after
+     * their pages were lost, and the changes of a transaction that was
+     * running at the crash are undone.
+     */
+    @Test public void redoAndUndo() throws Exception {
+        files = new File[3];
+        HeapFile[] tables = new HeapFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = File.createTempFile("recovery", ".dat");
+            files[i].deleteOnExit();
+            tables[i] = Utility.createEmptyHeapFile(files[i].getAbsolutePath(), 2);
+        }
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        for (HeapFile hf : tables)
+            insert(t1.getId(), hf, 0, ROWS);
+        t1.commit();
+        assertTrue(tables[0].numPages() > 3);
+
+        // the second transaction deletes a row and inserts others, and
+        // its pages reach the files
+        Transaction t2 = new Transaction();
+        t2.start();
+        DbFileIterator it = tables[1].iterator(t2.getId());
+        it.open();
+        Tuple deleted = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t2.getId(), deleted);
+        insert(t2.getId(), tables[2], ROWS, ROWS + 100);
+        Database.getBufferPool().flushAllPages();
+
+        for (File f : files)
+            lose(f);
+        Database.reset();
+        tables = open();
+        Database.getLogFile().recover();
+
+        for (HeapFile hf : tables)
+            assertEquals(range(0, ROWS), values(hf));
+
+        // recovery ends with a checkpoint, so it is not repeated
+        Database.reset();
+        tables = open();
+        Database.getLogFile().recover();
+        for (HeapFile hf : tables)
+            assertEquals(range(0, ROWS), values(hf));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelRecoveryTest.class);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -12,6 +13,7 @@ import org.junit.Assert;
 
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
@@ -114,20 +116,29 @@ public class SystemTestUtil {
 
     public static void matchTuples(OpIterator iterator, List<List<Integer>> tuples)
             throws DbException, TransactionAbortedException {
-        List<List<Integer>> copy = new ArrayList<>(tuples);
-
         if (Debug.isEnabled()) {
             Debug.log("Expected tuples:");
-            for (List<Integer> t : copy) {
+            for (List<Integer> t : tuples) {
                 Debug.log("\t" + Utility.listToString(t));
             }
         }
 
+        // count the expected tuples, so that large results are matched in
+        // linear time whatever order the iterator returns them in
+        Map<List<Integer>, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples)
+            counts.merge(t, 1, Integer::sum);
+
         iterator.open();
         while (iterator.hasNext()) {
             Tuple t = iterator.next();
             List<Integer> list = tupleToList(t);
-            boolean isExpected = copy.remove(list);
+            Integer n = counts.get(list);
+            boolean isExpected = n != null;
+            if (n != null && n == 1)
+                counts.remove(list);
+            else if (n != null)
+                counts.put(list, n - 1);
             Debug.log("scanned tuple: %s (%s)", t, isExpected ? "expected" : "not expected");
             if (!isExpected) {
                 Assert.fail("expected tuples does not contain: " + t);
@@ -135,6 +146,11 @@ public class SystemTestUtil {
         }
         iterator.close();
 
+        List<List<Integer>> copy = new ArrayList<>();
+        for (Map.Entry<List<Integer>, Integer> e : counts.entrySet()) {
+            for (int i = 0; i < e.getValue(); i++)
+                copy.add(e.getKey());
+        }
         if (!copy.isEmpty()) {
             StringBuilder msg = new StringBuilder("expected to find the following tuples:\n");
             final int MAX_TUPLES_OUTPUT = 10;
@@ -151,6 +167,25 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * Returns the result of a nested-loop join of two lists of tuples on
+     * their first fields, the reference result for the join operators.
+     */
+    public static List<List<Integer>> nestedLoopJoin(List<List<Integer>> l, List<List<Integer>> r,
+            Predicate.Op op) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> a : l) {
+            for (List<Integer> b : r) {
+                if (new IntField(a.get(0)).compare(op, new IntField(b.get(0)))) {
+                    List<Integer> t = new ArrayList<>(a);
+                    t.addAll(b);
+                    result.add(t);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM